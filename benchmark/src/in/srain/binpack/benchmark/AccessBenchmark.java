@@ -0,0 +1,153 @@
+package in.srain.binpack.benchmark;
+
+import in.srain.binpack.BinData;
+import in.srain.binpack.BinDict;
+import in.srain.binpack.BinList;
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackException;
+import in.srain.binpack.BinPath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the {@link BinData} / {@link BinDict} / {@link BinList} wrappers on top of a decoded tree.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class AccessBenchmark {
+
+    private static final Charset CHARSET = Charset.forName(Payloads.CHARSET);
+
+    private byte[] smallFlatBytes;
+    private byte[] wideDictBytes;
+    private byte[] intListBytes;
+    private byte[] doubleArrayBytes;
+    private BinPath wideDictPath;
+    private Map smallFlat;
+    private Collection intList;
+    private BinDict dict;
+    private BinList list;
+
+    @Setup
+    public void setup() {
+        smallFlatBytes = BinPack.encode(Payloads.create(Payloads.SMALL_FLAT), Payloads.CHARSET);
+        intListBytes = BinPack.encode(Payloads.create(Payloads.INT_LIST), Payloads.CHARSET);
+        wideDictBytes = BinPack.encode(Payloads.create(Payloads.STRING_DICT_ASCII), Payloads.CHARSET);
+        doubleArrayBytes = BinPack.encode(Payloads.create(Payloads.DOUBLE_ARRAY), CHARSET);
+        wideDictPath = BinPath.compile("field_199", CHARSET);
+        smallFlat = (Map) BinPack.decode(smallFlatBytes, Payloads.CHARSET);
+        intList = (Collection) BinPack.decode(intListBytes, Payloads.CHARSET);
+        dict = new BinDict(smallFlat);
+        list = new BinList(intList);
+    }
+
+    @Benchmark
+    public BinData createFromBytes() {
+        return BinData.create(smallFlatBytes, Payloads.CHARSET);
+    }
+
+    @Benchmark
+    public BinData createFromObject() {
+        return BinData.create(smallFlat);
+    }
+
+    @Benchmark
+    public BinDict wrapDict() {
+        return new BinDict(smallFlat);
+    }
+
+    @Benchmark
+    public BinList wrapList() {
+        return new BinList(intList);
+    }
+
+    /**
+     * Read 4 fields of a 200 field dict, decoding everything.
+     */
+    @Benchmark
+    public void fewFieldsEager(Blackhole bh) {
+        BinData data = BinData.create(wideDictBytes, Payloads.CHARSET);
+        bh.consume(data.optString("field_3"));
+        bh.consume(data.optString("field_42"));
+        bh.consume(data.optString("field_77"));
+        bh.consume(data.optString("field_199"));
+    }
+
+    /**
+     * Read 4 fields of a 200 field dict, decoding lazily.
+     */
+    @Benchmark
+    public void fewFieldsLazy(Blackhole bh) {
+        BinData data = BinData.createLazy(wideDictBytes, CHARSET);
+        bh.consume(data.optString("field_3"));
+        bh.consume(data.optString("field_42"));
+        bh.consume(data.optString("field_77"));
+        bh.consume(data.optString("field_199"));
+    }
+
+    /**
+     * Read 100k doubles, boxed by the decoder and unboxed by the accessor.
+     */
+    @Benchmark
+    public double[] doubleArrayEager() throws BinPackException {
+        return new BinDict(doubleArrayBytes, CHARSET).getDoubleArray("values");
+    }
+
+    /**
+     * Read 100k doubles straight from the encoded bytes.
+     */
+    @Benchmark
+    public double[] doubleArrayLazy() throws BinPackException {
+        return ((BinDict) BinData.createLazy(doubleArrayBytes, CHARSET).getRawData()).getDoubleArray("values");
+    }
+
+    /**
+     * Read 1 field of a 200 field dict straight from the encoded bytes.
+     */
+    @Benchmark
+    public Object oneFieldExtract() {
+        return wideDictPath.extract(wideDictBytes);
+    }
+
+    @Benchmark
+    public void dictAccessors(Blackhole bh) {
+        bh.consume(dict.optLong("id"));
+        bh.consume(dict.optInt("uid"));
+        bh.consume(dict.optShort("version"));
+        bh.consume(dict.optByte("flag"));
+        bh.consume(dict.optBoolean("ok"));
+        bh.consume(dict.optDouble("score"));
+        bh.consume(dict.optString("name"));
+        bh.consume(dict.opt("token"));
+        bh.consume(dict.optInt("missing"));
+    }
+
+    @Benchmark
+    public long listAccessors() {
+        long sum = 0;
+        for (int i = 0, n = list.length(); i < n; i++) {
+            sum += list.optInt(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,30 @@
+package in.srain.binpack.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of {@code benchmarks.jar}.
+ * <p/>
+ * Accepts the usual JMH command line, and always attaches the GC profiler so that
+ * allocation rate ({@code gc.alloc.rate.norm}) is reported next to time.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmdOptions);
+        if (cmdOptions.getIncludes().isEmpty()) {
+            builder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+        }
+        builder.addProfiler(GCProfiler.class);
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,92 @@
+package in.srain.binpack.benchmark;
+
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackDecoder;
+import in.srain.binpack.BinPackKeyCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip cost of {@link BinPack#encode} and {@link BinPack#decode} for every payload shape.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    @Param({
+            Payloads.SMALL_FLAT,
+            Payloads.DEEP_NESTED,
+            Payloads.LARGE_BLOB,
+            Payloads.INT_LIST,
+            Payloads.STRING_DICT_ASCII,
+            Payloads.STRING_DICT_UTF8,
+            Payloads.DOUBLE_ARRAY,
+    })
+    public String shape;
+
+    private static final Charset CHARSET = Charset.forName(Payloads.CHARSET);
+
+    private Object object;
+    private byte[] encoded;
+    private BinPackDecoder cachingDecoder;
+
+    @Setup
+    public void setup() {
+        object = Payloads.create(shape);
+        encoded = BinPack.encode(object, Payloads.CHARSET);
+        cachingDecoder = new BinPackDecoder(CHARSET).setKeyCache(new BinPackKeyCache());
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BinPack.encode(object, Payloads.CHARSET);
+    }
+
+    @Benchmark
+    public byte[] encodeCharset() {
+        return BinPack.encode(object, CHARSET);
+    }
+
+    @Benchmark
+    public byte[] encodeExact() {
+        return BinPack.encodeExact(object, CHARSET);
+    }
+
+    @Benchmark
+    public long encodedSize() {
+        return BinPack.encodedSize(object, CHARSET);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return BinPack.decode(encoded, Payloads.CHARSET);
+    }
+
+    @Benchmark
+    public Object decodeCharset() {
+        return BinPack.decode(encoded, CHARSET);
+    }
+
+    @Benchmark
+    public Object decodeKeyCache() {
+        return cachingDecoder.decode(encoded);
+    }
+}
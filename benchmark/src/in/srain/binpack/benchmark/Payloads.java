@@ -0,0 +1,147 @@
+package in.srain.binpack.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The payload shapes shared by all benchmarks.
+ * <p/>
+ * Every shape is generated from a fixed seed so that results are comparable between runs.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class Payloads {
+
+    public static final String CHARSET = "UTF-8";
+
+    public static final String SMALL_FLAT = "small_flat";
+    public static final String DEEP_NESTED = "deep_nested";
+    public static final String LARGE_BLOB = "large_blob";
+    public static final String INT_LIST = "int_list";
+    public static final String STRING_DICT_ASCII = "string_dict_ascii";
+    public static final String STRING_DICT_UTF8 = "string_dict_utf8";
+    public static final String DOUBLE_ARRAY = "double_array";
+
+    private static final String ASCII_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 _-";
+    private static final String UTF8_CHARS = "天地玄黄宇宙洪荒日月盈昃辰宿列张ÀÉÎÕÜßøåæñç–—“”€™αβγδεζηθ";
+
+    /**
+     * Build the object tree for the given shape.
+     */
+    public static Object create(String shape) {
+        Random random = new Random(0x5eed);
+        if (SMALL_FLAT.equals(shape)) {
+            return smallFlat(random);
+        } else if (DEEP_NESTED.equals(shape)) {
+            return deepNested(random, 32);
+        } else if (LARGE_BLOB.equals(shape)) {
+            return largeBlob(random, 1 << 20);
+        } else if (INT_LIST.equals(shape)) {
+            return intList(random, 10000);
+        } else if (STRING_DICT_ASCII.equals(shape)) {
+            return stringDict(random, 200, ASCII_CHARS);
+        } else if (STRING_DICT_UTF8.equals(shape)) {
+            return stringDict(random, 200, UTF8_CHARS);
+        } else if (DOUBLE_ARRAY.equals(shape)) {
+            return doubleArray(random, 100000);
+        }
+        throw new IllegalArgumentException("unknown payload shape: " + shape);
+    }
+
+    /**
+     * A dozen scalar fields, the typical shape of a request header.
+     */
+    private static Map<String, Object> smallFlat(Random random) {
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("id", random.nextLong());
+        m.put("uid", random.nextInt());
+        m.put("version", (short) 3);
+        m.put("flag", (byte) 1);
+        m.put("ok", true);
+        m.put("deleted", false);
+        m.put("score", random.nextDouble());
+        m.put("ratio", random.nextFloat());
+        m.put("name", randomString(random, 16, ASCII_CHARS));
+        m.put("token", randomBytes(random, 32));
+        m.put("extra", null);
+        m.put("count", -random.nextInt(1000));
+        return m;
+    }
+
+    /**
+     * A chain of dicts and lists nested {@code depth} levels deep.
+     */
+    private static Object deepNested(Random random, int depth) {
+        Object child = smallFlat(random);
+        for (int i = 0; i < depth; i++) {
+            if ((i & 1) == 0) {
+                List<Object> list = new ArrayList<Object>();
+                list.add(i);
+                list.add(child);
+                list.add(randomString(random, 8, ASCII_CHARS));
+                child = list;
+            } else {
+                Map<String, Object> m = new HashMap<String, Object>();
+                m.put("level", i);
+                m.put("child", child);
+                child = m;
+            }
+        }
+        return child;
+    }
+
+    private static Map<String, Object> largeBlob(Random random, int size) {
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("name", "thumbnail.jpg");
+        m.put("size", size);
+        m.put("data", randomBytes(random, size));
+        return m;
+    }
+
+    private static List<Object> intList(Random random, int count) {
+        List<Object> list = new ArrayList<Object>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(random.nextInt());
+        }
+        return list;
+    }
+
+    /**
+     * A metrics series, encoded from a primitive array.
+     */
+    private static Map<String, Object> doubleArray(Random random, int count) {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = random.nextGaussian();
+        }
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("name", "latency");
+        m.put("values", values);
+        return m;
+    }
+
+    private static Map<String, Object> stringDict(Random random, int count, String chars) {
+        Map<String, Object> m = new HashMap<String, Object>();
+        for (int i = 0; i < count; i++) {
+            m.put("field_" + i, randomString(random, 8 + random.nextInt(56), chars));
+        }
+        return m;
+    }
+
+    private static String randomString(Random random, int length, String chars) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] bs = new byte[size];
+        random.nextBytes(bs);
+        return bs;
+    }
+}
@@ -0,0 +1,119 @@
+package in.srain.binpack;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A blob decoded without copying, a view over the bytes it was decoded from; see
+ * {@link BinPackDecoder#setBlobViews(boolean)}.
+ * <p/>
+ * The source must not be modified while the view is in use; {@link #copy()} makes an array of its own.
+ * Encoding a blob view writes its bytes straight from the source.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public final class BinBlob {
+
+    // a range of a heap array, or else a direct buffer from position 0 to limit
+    final byte[] array;
+    final int offset;
+    final int length;
+    final ByteBuffer buffer;
+
+    BinBlob(byte[] array, int offset, int length) {
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+        this.buffer = null;
+    }
+
+    BinBlob(ByteBuffer buffer) {
+        this.array = null;
+        this.offset = 0;
+        this.length = buffer.remaining();
+        this.buffer = buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte byteAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range [0.." + length + ")");
+        }
+        return array != null ? array[offset + index] : buffer.get(index);
+    }
+
+    /**
+     * A read-only buffer over the bytes, from position 0 to its limit.
+     */
+    public ByteBuffer asByteBuffer() {
+        if (array != null) {
+            return ByteBuffer.wrap(array, offset, length).slice().asReadOnlyBuffer();
+        }
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * The bytes, in an array of their own.
+     */
+    public byte[] copy() {
+        byte[] bs = new byte[length];
+        copyTo(bs, 0);
+        return bs;
+    }
+
+    void copyTo(byte[] dst, int dstOffset) {
+        if (array != null) {
+            System.arraycopy(array, offset, dst, dstOffset, length);
+        } else {
+            ByteBuffer bb = buffer.duplicate();
+            bb.position(0);
+            bb.get(dst, dstOffset, length);
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        if (array != null) {
+            out.write(array, offset, length);
+        } else {
+            out.write(copy());
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BinBlob)) {
+            return false;
+        }
+        BinBlob other = (BinBlob) o;
+        if (other.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (byteAt(i) != other.byteAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + byteAt(i);
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "BinBlob[" + length + " bytes]";
+    }
+}
@@ -1,5 +1,6 @@
 package in.srain.binpack;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -33,16 +34,31 @@ public class BinData {
         return create(object);
     }
 
+    public static BinData create(String str, Charset charset) {
+        return create(BinPack.decode(str.getBytes(charset), charset));
+    }
+
+    public static BinData create(byte[] bs, Charset charset) {
+        return create(BinPack.decode(bs, charset));
+    }
+
+    /**
+     * Decode lazily, see {@link BinPack#decodeLazy(byte[], Charset)}.
+     */
+    public static BinData createLazy(byte[] bs, Charset charset) {
+        return create(BinPack.decodeLazy(bs, charset));
+    }
+
     public static BinData create(Object o) {
         BinData binData = new BinData();
         if (o instanceof BinDict || o instanceof BinList) {
             binData.listOrDict = o;
         }
         if (o instanceof Map) {
-            binData.listOrDict = new BinDict((Map) o);
+            binData.listOrDict = BinDict.wrap((Map) o);
         }
         if (o instanceof Collection) {
-            binData.listOrDict = new BinList((Collection) o);
+            binData.listOrDict = BinList.wrap((Collection) o);
         }
         return binData;
     }
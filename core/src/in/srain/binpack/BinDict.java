@@ -1,5 +1,6 @@
 package in.srain.binpack;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -29,7 +30,8 @@ public class BinDict {
         }
     };
 
-    private final Map<String, Object> nameValuePairs;
+    // a LazyDict until the first change
+    private Map<String, Object> nameValuePairs;
 
     private BinDict() {
         nameValuePairs = new HashMap<String, Object>();
@@ -37,6 +39,9 @@ public class BinDict {
 
     public BinDict(Map copyFrom) {
         this();
+        if (copyFrom == null) {
+            return;
+        }
         Map<?, ?> contentsTyped = (Map<?, ?>) copyFrom;
         for (Map.Entry<?, ?> entry : contentsTyped.entrySet()) {
             String key = (String) entry.getKey();
@@ -47,6 +52,22 @@ public class BinDict {
         }
     }
 
+    // the keys of a decoded dict are strings, but the map is typed for any key
+    @SuppressWarnings("unchecked")
+    private BinDict(LazyDict lazyDict) {
+        nameValuePairs = (Map<String, Object>) (Map<?, ?>) lazyDict;
+    }
+
+    /**
+     * Wrap a decoded map. A lazily decoded one is used as is, copying it would decode every value.
+     */
+    static BinDict wrap(Map<?, ?> map) {
+        if (map instanceof LazyDict) {
+            return new BinDict((LazyDict) map);
+        }
+        return new BinDict(map);
+    }
+
     public BinDict(byte[] bs, String charsetName) throws BinPackException {
         Object object = BinPack.decode(bs, charsetName);
         if (object instanceof Map) {
@@ -56,6 +77,54 @@ public class BinDict {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    public BinDict(byte[] bs, Charset charset) throws BinPackException {
+        Object object = BinPack.decode(bs, charset);
+        if (object instanceof Map) {
+            this.nameValuePairs = (Map<String, Object>) object;
+        } else {
+            throw BinPackType.typeMismatch(object, "BinDict");
+        }
+    }
+
+    /**
+     * Set {@code name} to {@code value}, replacing any previous value.
+     * <p/>
+     * A lazily decoded dict is copied into a map of its own on the first change; its nested lists and dicts are
+     * not decoded by that, so those left unchanged are still encoded from their original bytes.
+     * A dict or list got from this one is a wrapper of its own: put it back for a change to show here.
+     */
+    public BinDict put(String name, Object value) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        writable().put(name, value);
+        return this;
+    }
+
+    /**
+     * Remove {@code name}, see {@link #put(String, Object)}.
+     *
+     * @return the value it had, or null
+     */
+    public Object remove(String name) {
+        return writable().remove(name);
+    }
+
+    private Map<String, Object> writable() {
+        if ((Map) nameValuePairs instanceof LazyDict) {
+            nameValuePairs = new HashMap<String, Object>(nameValuePairs);
+        }
+        return nameValuePairs;
+    }
+
+    /**
+     * The wrapped map, for encoding.
+     */
+    Map<String, Object> map() {
+        return nameValuePairs;
+    }
+
     public boolean isNull(String name) {
         Object value = nameValuePairs.get(name);
         return value == null || value == NULL;
@@ -295,10 +364,103 @@ public class BinDict {
         return result != null ? result : fallback;
     }
 
+    /**
+     * Returns the value mapped by {@code name} as an {@code int[]}, if it is a list of numbers.
+     * <p/>
+     * A list decoded by {@link BinPack#decodeLazy(byte[], java.nio.charset.Charset)} is read straight from its
+     * bytes, no {@code Integer} is boxed.
+     *
+     * @throws BinPackException if there is no such value or it is not a list of numbers
+     */
+    public int[] getIntArray(String name) throws BinPackException {
+        Object object = get(name);
+        int[] result = BinPackType.toIntArray(object);
+        if (result == null) {
+            throw BinPackType.typeMismatch(name, object, "int[]");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value mapped by {@code name} as an {@code int[]} if it is a list of numbers, null otherwise.
+     */
+    public int[] optIntArray(String name) {
+        return BinPackType.toIntArray(opt(name));
+    }
+
+    /**
+     * Returns the value mapped by {@code name} as a {@code long[]}, if it is a list of numbers.
+     * <p/>
+     * See {@link #getIntArray(String)}.
+     *
+     * @throws BinPackException if there is no such value or it is not a list of numbers
+     */
+    public long[] getLongArray(String name) throws BinPackException {
+        Object object = get(name);
+        long[] result = BinPackType.toLongArray(object);
+        if (result == null) {
+            throw BinPackType.typeMismatch(name, object, "long[]");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value mapped by {@code name} as a {@code long[]} if it is a list of numbers, null otherwise.
+     */
+    public long[] optLongArray(String name) {
+        return BinPackType.toLongArray(opt(name));
+    }
+
+    /**
+     * Returns the value mapped by {@code name} as a {@code double[]}, if it is a list of numbers.
+     * <p/>
+     * See {@link #getIntArray(String)}.
+     *
+     * @throws BinPackException if there is no such value or it is not a list of numbers
+     */
+    public double[] getDoubleArray(String name) throws BinPackException {
+        Object object = get(name);
+        double[] result = BinPackType.toDoubleArray(object);
+        if (result == null) {
+            throw BinPackType.typeMismatch(name, object, "double[]");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value mapped by {@code name} as a {@code double[]} if it is a list of numbers, null otherwise.
+     */
+    public double[] optDoubleArray(String name) {
+        return BinPackType.toDoubleArray(opt(name));
+    }
+
+    /**
+     * Returns the value mapped by {@code name} as a {@code float[]}, if it is a list of numbers.
+     * <p/>
+     * See {@link #getIntArray(String)}.
+     *
+     * @throws BinPackException if there is no such value or it is not a list of numbers
+     */
+    public float[] getFloatArray(String name) throws BinPackException {
+        Object object = get(name);
+        float[] result = BinPackType.toFloatArray(object);
+        if (result == null) {
+            throw BinPackType.typeMismatch(name, object, "float[]");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value mapped by {@code name} as a {@code float[]} if it is a list of numbers, null otherwise.
+     */
+    public float[] optFloatArray(String name) {
+        return BinPackType.toFloatArray(opt(name));
+    }
+
     public BinList getList(String name) throws BinPackException {
         Object object = get(name);
         if (object instanceof Collection) {
-            return new BinList((Collection) object);
+            return BinList.wrap((Collection) object);
         } else {
             throw BinPackType.typeMismatch(name, object, "BinList");
         }
@@ -306,13 +468,13 @@ public class BinDict {
 
     public BinList optList(String name) {
         Object object = opt(name);
-        return object instanceof Collection ? new BinList((Collection) object) : null;
+        return object instanceof Collection ? BinList.wrap((Collection) object) : null;
     }
 
     public BinDict getDict(String name) throws BinPackException {
         Object object = get(name);
         if (object instanceof Map) {
-            return new BinDict((Map) object);
+            return wrap((Map) object);
         } else {
             throw BinPackType.typeMismatch(name, object, "BinDict");
         }
@@ -320,7 +482,7 @@ public class BinDict {
 
     public BinDict optDict(String name) {
         Object object = opt(name);
-        return object instanceof Map ? new BinDict((Map) object) : null;
+        return object instanceof Map ? wrap((Map) object) : null;
     }
 
     public Iterator keys() {
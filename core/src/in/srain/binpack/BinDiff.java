@@ -0,0 +1,342 @@
+package in.srain.binpack;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * Structural diff between two encoded values, and merge of the resulting delta into the base.
+ * <p/>
+ * {@link #diff(byte[], byte[], Charset)} walks both values with the tag scanner. A subtree whose bytes are the same
+ * on both sides is skipped with one comparison; only dict keys are decoded. The changes come out as a delta,
+ * itself encoded data:
+ * <pre>
+ * [crc32 of the base, crc32 of the target, [[kind, [path segments], value], ...]]
+ * </pre>
+ * with the kinds of {@link BinPatch} (0 set, 1 remove, 2 append), and each value copied from the target as it was
+ * encoded. {@link #merge(byte[], byte[], Charset)} applies the delta to the base as a {@link BinPatch}, refuses a
+ * delta made for another base, and checks that the result has the bytes of the target.
+ * <pre>
+ * byte[] delta = BinDiff.diff(previous, current, charset);
+ * // on each replica
+ * byte[] current = BinDiff.merge(previous, delta, charset);
+ * </pre>
+ * Dicts are compared by key, and lists by index, with elements added or removed at the end. A list or dict whose
+ * changes would take more bytes than its new value is set as a whole, and so is a dict with a repeated key, or whose
+ * keys changed order other than by keys added at the end.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public final class BinDiff {
+
+    private BinDiff() {
+    }
+
+    /**
+     * The delta turning {@code base} into {@code target}.
+     *
+     * @throws BinPackException if either value is malformed
+     */
+    public static byte[] diff(byte[] base, byte[] target, Charset charset) throws BinPackException {
+        Scan b = new Scan(base, charset);
+        Scan t = new Scan(target, charset);
+        BinPackEncoder out = new BinPackEncoder(charset);
+        out.packListBegin();
+        out.packLong(crc(base));
+        out.packLong(crc(target));
+        out.packListBegin();
+        diff(b, 0, b.end(0), t, 0, t.end(0), new ArrayList<Object>(), out);
+        out.packEnd();
+        out.packEnd();
+        return out.toByteArray();
+    }
+
+    /**
+     * Apply a delta from {@link #diff(byte[], byte[], Charset)} to {@code base}.
+     *
+     * @return the target the delta was made for
+     * @throws BinPackException if the delta was made for another base, is malformed, or does not give the target it
+     *                          was made for
+     */
+    public static byte[] merge(byte[] base, byte[] delta, Charset charset) throws BinPackException {
+        DecodeCtx ctx = new DecodeCtx();
+        ctx.buf = delta;
+        ctx.pos = 0;
+        ctx.limit = delta.length;
+        ctx.charset = charset;
+        expect(ctx, BIN_TYPE_LIST);
+        Object crc = doDecode(ctx);
+        if (!(crc instanceof Long) || (Long) crc != crc(base)) {
+            throw new BinPackException("Delta made for another base");
+        }
+        Object targetCrc = doDecode(ctx);
+        if (!(targetCrc instanceof Long)) {
+            throw malformed(ctx);
+        }
+        expect(ctx, BIN_TYPE_LIST);
+        BinPatch patch = new BinPatch(charset);
+        while (!atShut(ctx)) {
+            expect(ctx, BIN_TYPE_LIST);
+            Object kind = doDecode(ctx);
+            Object segments = doDecode(ctx);
+            if (!(kind instanceof Integer) || !(segments instanceof List)) {
+                throw malformed(ctx);
+            }
+            BinPath path;
+            try {
+                path = BinPath.of(charset, ((List) segments).toArray());
+            } catch (IllegalArgumentException ex) {
+                throw malformed(ctx);
+            }
+            int op = (Integer) kind;
+            if (op == BinPatch.REMOVE) {
+                patch.add(op, path, null, 0, 0);
+            } else if (op == BinPatch.SET || op == BinPatch.APPEND) {
+                int start = ctx.pos;
+                if (atShut(ctx) || skipValue(ctx) < 0) {
+                    throw malformed(ctx);
+                }
+                patch.add(op, path, delta, start, ctx.pos);
+            } else {
+                throw malformed(ctx);
+            }
+            if (!atShut(ctx)) {
+                throw malformed(ctx);
+            }
+            ctx.pos++;
+        }
+        byte[] merged = patch.apply(base);
+        if (crc(merged) != (Long) targetCrc) {
+            throw new BinPackException("Delta does not give its target");
+        }
+        return merged;
+    }
+
+    private static void diff(Scan b, int bs, int be, Scan t, int ts, int te, List<Object> path,
+                             BinPackEncoder out) throws BinPackException {
+        if (be - bs == te - ts && rangeEquals(b.buf, bs, t.buf, ts, te - ts)) {
+            return;
+        }
+        byte bt = b.type(bs);
+        byte tt = t.type(ts);
+        if (bt != tt || (tt != BIN_TYPE_DICT && tt != BIN_TYPE_LIST)) {
+            set(path, t.buf, ts, te, out);
+            return;
+        }
+        int mark = out.count;
+        boolean done = tt == BIN_TYPE_DICT
+                ? diffDict(b, bs, t, ts, path, out)
+                : diffList(b, bs, t, ts, path, out);
+        if (!done || out.count - mark > te - ts) {
+            out.count = mark;
+            set(path, t.buf, ts, te, out);
+        }
+    }
+
+    /**
+     * @return false if the dict is to be set as a whole: a key is not a string, which paths do not address, a key is
+     *         repeated, or the patch would not give the keys of the target in their order
+     */
+    private static boolean diffDict(Scan b, int bs, Scan t, int ts, List<Object> path,
+                                    BinPackEncoder out) throws BinPackException {
+        Map<String, int[]> baseEntries = b.entries(bs);
+        Map<String, int[]> targetEntries = t.entries(ts);
+        if (baseEntries == null || targetEntries == null) {
+            return false;
+        }
+        // the patch keeps the order of the base and adds new keys at the end
+        Iterator<String> order = targetEntries.keySet().iterator();
+        for (String key : baseEntries.keySet()) {
+            if (targetEntries.containsKey(key) && !key.equals(order.next())) {
+                return false;
+            }
+        }
+        for (Map.Entry<String, int[]> entry : targetEntries.entrySet()) {
+            int[] tv = entry.getValue();
+            int[] bv = baseEntries.get(entry.getKey());
+            path.add(entry.getKey());
+            if (bv == null) {
+                set(path, t.buf, tv[0], tv[1], out);
+            } else {
+                diff(b, bv[0], bv[1], t, tv[0], tv[1], path, out);
+            }
+            path.remove(path.size() - 1);
+        }
+        for (String key : baseEntries.keySet()) {
+            if (!targetEntries.containsKey(key)) {
+                path.add(key);
+                op(BinPatch.REMOVE, path, out);
+                out.packEnd();
+                path.remove(path.size() - 1);
+            }
+        }
+        return true;
+    }
+
+    private static boolean diffList(Scan b, int bs, Scan t, int ts, List<Object> path,
+                                    BinPackEncoder out) throws BinPackException {
+        int[] baseElements = b.elements(bs);
+        int[] targetElements = t.elements(ts);
+        int bn = baseElements.length - 1;
+        int tn = targetElements.length - 1;
+        for (int i = 0; i < Math.min(bn, tn); i++) {
+            path.add(i);
+            diff(b, baseElements[i], baseElements[i + 1], t, targetElements[i], targetElements[i + 1], path, out);
+            path.remove(path.size() - 1);
+        }
+        for (int i = bn; i < tn; i++) {
+            op(BinPatch.APPEND, path, out);
+            out.writeBytes(t.buf, targetElements[i], targetElements[i + 1] - targetElements[i]);
+            out.packEnd();
+        }
+        // from the end, so that the indexes before stay valid
+        for (int i = bn - 1; i >= tn; i--) {
+            path.add(i);
+            op(BinPatch.REMOVE, path, out);
+            out.packEnd();
+            path.remove(path.size() - 1);
+        }
+        return true;
+    }
+
+    private static void set(List<Object> path, byte[] buf, int start, int end, BinPackEncoder out) {
+        op(BinPatch.SET, path, out);
+        out.writeBytes(buf, start, end - start);
+        out.packEnd();
+    }
+
+    // an operation up to its value, closed by the caller
+    private static void op(int kind, List<Object> path, BinPackEncoder out) {
+        out.packListBegin();
+        out.packInt(kind);
+        out.packList(path);
+    }
+
+    private static long crc(byte[] bs) {
+        CRC32 crc = new CRC32();
+        crc.update(bs, 0, bs.length);
+        return crc.getValue();
+    }
+
+    private static void expect(DecodeCtx ctx, byte type) throws BinPackException {
+        if (_unpackTag(ctx) < 0 || ctx.type != type) {
+            throw malformed(ctx);
+        }
+    }
+
+    private static boolean atShut(DecodeCtx ctx) throws BinPackException {
+        if (ctx.pos >= ctx.limit) {
+            throw malformed(ctx);
+        }
+        return ctx.buf[ctx.pos] == BIN_TAG_SHUT;
+    }
+
+    private static BinPackException malformed(DecodeCtx ctx) {
+        return new BinPackException("Malformed delta at " + ctx.pos);
+    }
+
+    private static boolean rangeEquals(byte[] a, int aStart, byte[] b, int bStart, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Value boundaries in one side of the diff.
+     */
+    private static final class Scan {
+
+        final byte[] buf;
+        private final DecodeCtx ctx = new DecodeCtx();
+
+        Scan(byte[] buf, Charset charset) {
+            this.buf = buf;
+            ctx.buf = buf;
+            ctx.limit = buf.length;
+            ctx.charset = charset;
+        }
+
+        byte type(int start) {
+            ctx.pos = start;
+            _unpackTag(ctx);
+            return ctx.type;
+        }
+
+        /**
+         * The end of the value starting at {@code start}.
+         */
+        int end(int start) throws BinPackException {
+            ctx.pos = start;
+            if (_unpackTag(ctx) < 0 || ctx.type == BIN_TAG_SHUT) {
+                throw new BinPackException("Malformed data at " + start);
+            }
+            ctx.pos = start;
+            if (skipValue(ctx) < 0) {
+                throw new BinPackException("Malformed data at " + start);
+            }
+            return ctx.pos;
+        }
+
+        /**
+         * The start of each element of the list at {@code start}, followed by the position of its shut tag.
+         */
+        int[] elements(int start) throws BinPackException {
+            int[] offsets = new int[16];
+            int n = 0;
+            ctx.pos = start;
+            _unpackTag(ctx);
+            int pos = ctx.pos;
+            while (buf[pos] != BIN_TAG_SHUT) {
+                if (n + 1 == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, n * 2);
+                }
+                offsets[n++] = pos;
+                pos = end(pos);
+                if (pos >= buf.length) {
+                    throw new BinPackException("Malformed data at " + start);
+                }
+            }
+            offsets[n++] = pos;
+            return Arrays.copyOf(offsets, n);
+        }
+
+        /**
+         * The value range of each key of the dict at {@code start}, in order.
+         *
+         * @return null if a key is not a string or is repeated
+         */
+        Map<String, int[]> entries(int start) throws BinPackException {
+            Map<String, int[]> entries = new LinkedHashMap<String, int[]>();
+            ctx.pos = start;
+            _unpackTag(ctx);
+            int pos = ctx.pos;
+            while (buf[pos] != BIN_TAG_SHUT) {
+                ctx.pos = pos;
+                if (_unpackTag(ctx) < 0 || ctx.type != BIN_TYPE_STRING || ctx.num > ctx.limit - ctx.pos) {
+                    return null;
+                }
+                String key = new String(buf, ctx.pos, (int) ctx.num, ctx.charset);
+                int valueStart = ctx.pos + (int) ctx.num;
+                int valueEnd = end(valueStart);
+                if (entries.put(key, new int[]{valueStart, valueEnd}) != null) {
+                    return null;
+                }
+                pos = valueEnd;
+                if (pos >= buf.length) {
+                    throw new BinPackException("Malformed data at " + start);
+                }
+            }
+            return entries;
+        }
+    }
+}
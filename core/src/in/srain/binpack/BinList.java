@@ -1,5 +1,6 @@
 package in.srain.binpack;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -13,7 +14,8 @@ import java.util.Map;
  */
 public class BinList {
 
-    private final List<Object> values;
+    // a LazyList until the first change
+    private List<Object> values;
 
     private BinList() {
         values = new ArrayList<Object>();
@@ -28,15 +30,93 @@ public class BinList {
         }
     }
 
+    private BinList(LazyList lazyList) {
+        values = lazyList;
+    }
+
+    /**
+     * Wrap a decoded collection. A lazily decoded one is used as is, copying it would decode every value.
+     */
+    static BinList wrap(Collection<?> collection) {
+        if (collection instanceof LazyList) {
+            return new BinList((LazyList) collection);
+        }
+        return new BinList(collection);
+    }
+
+    @SuppressWarnings("unchecked")
     public BinList(byte[] bs, String charsetName) throws BinPackException {
         Object object = BinPack.decode(bs, charsetName);
-        if (object instanceof BinList) {
-            values = ((BinList) object).values;
+        if (object instanceof List) {
+            values = (List<Object>) object;
         } else {
             throw BinPackType.typeMismatch(object, "BinList");
         }
     }
 
+    @SuppressWarnings("unchecked")
+    public BinList(byte[] bs, Charset charset) throws BinPackException {
+        Object object = BinPack.decode(bs, charset);
+        if (object instanceof List) {
+            values = (List<Object>) object;
+        } else {
+            throw BinPackType.typeMismatch(object, "BinList");
+        }
+    }
+
+    /**
+     * Append {@code value}.
+     * <p/>
+     * A lazily decoded list is copied into a list of its own on the first change; its nested lists and dicts are
+     * not decoded by that, so those left unchanged are still encoded from their original bytes.
+     * A dict or list got from this one is a wrapper of its own: put it back for a change to show here.
+     */
+    public BinList put(Object value) {
+        writable().add(value);
+        return this;
+    }
+
+    /**
+     * Set the value at {@code index}, padding with nulls if it is past the end, see {@link #put(Object)}.
+     */
+    public BinList put(int index, Object value) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index " + index);
+        }
+        List<Object> list = writable();
+        while (list.size() <= index) {
+            list.add(null);
+        }
+        list.set(index, value);
+        return this;
+    }
+
+    /**
+     * Remove the value at {@code index}, see {@link #put(Object)}.
+     *
+     * @return the value it had, or null if there is none
+     */
+    public Object remove(int index) {
+        if (index < 0 || index >= values.size()) {
+            return null;
+        }
+        return writable().remove(index);
+    }
+
+    private List<Object> writable() {
+        if (values instanceof LazyList) {
+            values = new ArrayList<Object>(values);
+        }
+        return values;
+    }
+
+    /**
+     * The wrapped list, for encoding.
+     */
+    List<Object> list() {
+        return values;
+    }
+
     /**
      * Returns the number of values in this array.
      */
@@ -320,6 +400,99 @@ public class BinList {
         return result != null ? result : fallback;
     }
 
+    /**
+     * Returns the value at {@code index} as an {@code int[]}, if it is a list of numbers.
+     * <p/>
+     * A list decoded by {@link BinPack#decodeLazy(byte[], java.nio.charset.Charset)} is read straight from its
+     * bytes, no {@code Integer} is boxed.
+     *
+     * @throws BinPackException if there is no such value or it is not a list of numbers
+     */
+    public int[] getIntArray(int index) throws BinPackException {
+        Object object = get(index);
+        int[] result = BinPackType.toIntArray(object);
+        if (result == null) {
+            throw BinPackType.typeMismatch(index, object, "int[]");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value at {@code index} as an {@code int[]} if it is a list of numbers, null otherwise.
+     */
+    public int[] optIntArray(int index) {
+        return BinPackType.toIntArray(opt(index));
+    }
+
+    /**
+     * Returns the value at {@code index} as a {@code long[]}, if it is a list of numbers.
+     * <p/>
+     * See {@link #getIntArray(int)}.
+     *
+     * @throws BinPackException if there is no such value or it is not a list of numbers
+     */
+    public long[] getLongArray(int index) throws BinPackException {
+        Object object = get(index);
+        long[] result = BinPackType.toLongArray(object);
+        if (result == null) {
+            throw BinPackType.typeMismatch(index, object, "long[]");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value at {@code index} as a {@code long[]} if it is a list of numbers, null otherwise.
+     */
+    public long[] optLongArray(int index) {
+        return BinPackType.toLongArray(opt(index));
+    }
+
+    /**
+     * Returns the value at {@code index} as a {@code double[]}, if it is a list of numbers.
+     * <p/>
+     * See {@link #getIntArray(int)}.
+     *
+     * @throws BinPackException if there is no such value or it is not a list of numbers
+     */
+    public double[] getDoubleArray(int index) throws BinPackException {
+        Object object = get(index);
+        double[] result = BinPackType.toDoubleArray(object);
+        if (result == null) {
+            throw BinPackType.typeMismatch(index, object, "double[]");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value at {@code index} as a {@code double[]} if it is a list of numbers, null otherwise.
+     */
+    public double[] optDoubleArray(int index) {
+        return BinPackType.toDoubleArray(opt(index));
+    }
+
+    /**
+     * Returns the value at {@code index} as a {@code float[]}, if it is a list of numbers.
+     * <p/>
+     * See {@link #getIntArray(int)}.
+     *
+     * @throws BinPackException if there is no such value or it is not a list of numbers
+     */
+    public float[] getFloatArray(int index) throws BinPackException {
+        Object object = get(index);
+        float[] result = BinPackType.toFloatArray(object);
+        if (result == null) {
+            throw BinPackType.typeMismatch(index, object, "float[]");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value at {@code index} as a {@code float[]} if it is a list of numbers, null otherwise.
+     */
+    public float[] optFloatArray(int index) {
+        return BinPackType.toFloatArray(opt(index));
+    }
+
     /**
      * Returns the value at {@code index} if it exists and is a {@code
      * BinList}.
@@ -331,6 +504,8 @@ public class BinList {
         Object object = get(index);
         if (object instanceof BinList) {
             return (BinList) object;
+        } else if (object instanceof Collection) {
+            return wrap((Collection) object);
         } else {
             throw BinPackType.typeMismatch(index, object, "BinList");
         }
@@ -342,13 +517,16 @@ public class BinList {
      */
     public BinList optList(int index) {
         Object object = opt(index);
+        if (object instanceof Collection) {
+            return wrap((Collection) object);
+        }
         return object instanceof BinList ? (BinList) object : null;
     }
 
     public BinDict getDict(int index) throws BinPackException {
         Object object = get(index);
         if (object instanceof Map<?, ?>) {
-            return new BinDict((Map) object);
+            return BinDict.wrap((Map) object);
         } else {
             throw BinPackType.typeMismatch(index, object, "BinDict");
         }
@@ -356,6 +534,9 @@ public class BinList {
 
     public BinDict optDict(int index) {
         Object object = opt(index);
+        if (object instanceof Map) {
+            return BinDict.wrap((Map) object);
+        }
         return object instanceof BinDict ? (BinDict) object : null;
     }
 
@@ -1,8 +1,12 @@
 package in.srain.binpack;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
 import java.util.*;
 
 /**
@@ -46,6 +50,10 @@ public class BinPack {
 
     public static final Object SHUT_OBJECT = new Object();
 
+    // a list or dict which can not be decoded
+    private static final Object FAILED = new Object();
+    private static final Object NO_KEY = new Object();
+
     /**
      * Encode data into byte array
      *
@@ -55,37 +63,65 @@ public class BinPack {
      */
     public static byte[] encode(Object obj, String charsetName) {
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            pack(out, obj, charsetName);
-            return out.toByteArray();
+            return encode(obj, BinPackEncoder.lookupCharset(charsetName));
         } catch (java.io.IOException ex) {
             byte[] bs = {};
             return bs;
         }
     }
 
-    public static void pack(OutputStream out, Object obj, String charsetName) throws java.io.IOException {
-        if (obj == null) {
-            packNull(out);
-        } else if (obj instanceof Integer || obj instanceof Long || obj instanceof Short || obj instanceof Byte) {
-            packInteger(out, (Number) obj);
-        } else if (obj instanceof String) {
-            packString(out, obj.toString(), charsetName);
-        } else if (obj instanceof Boolean) {
-            packBool(out, ((Boolean) obj).booleanValue());
-        } else if (obj instanceof byte[]) {
-            packBlob(out, (byte[]) obj);
-        } else if (obj instanceof Double) {
-            packDouble(out, ((Double) obj));
-        } else if (obj instanceof Float) {
-            packFloat(out, ((Float) obj));
-        } else if (obj instanceof Collection) {
-            packList(out, (Collection) obj, charsetName);
-        } else if (obj instanceof Map) {
-            packMap(out, (Map) obj, charsetName);
-        } else {
-            packString(out, "unsupported-type-" + obj.getClass().getName(), "UTF-8");
+    /**
+     * Encode data into byte array, the charset is not looked up by name for every string.
+     *
+     * @param obj
+     * @param charset
+     * @return byte[]
+     */
+    public static byte[] encode(Object obj, Charset charset) {
+        BinPackEncoder encoder = new BinPackEncoder(charset);
+        encoder.pack(obj);
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Encode data into a byte array of exactly the encoded size.
+     * <p/>
+     * The size is computed first by {@link #encodedSize(Object, Charset)}, so the output is allocated once
+     * and never resized or copied; the price is a second walk of the object tree.
+     *
+     * @param obj
+     * @param charset
+     * @return byte[]
+     */
+    public static byte[] encodeExact(Object obj, Charset charset) {
+        long size = encodedSize(obj, charset);
+        if (size > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Encoded data exceeds 2 GB: " + size);
         }
+        BinPackEncoder encoder = new BinPackEncoder(charset, (int) size);
+        encoder.pack(obj);
+        return encoder.getBuffer();
+    }
+
+    /**
+     * The exact number of bytes {@code obj} encodes to, without encoding it.
+     *
+     * @param obj
+     * @param charset
+     * @return the size in bytes
+     */
+    public static long encodedSize(Object obj, Charset charset) {
+        return BinPackEncoder.sizeOf(obj, charset);
+    }
+
+    public static void pack(OutputStream out, Object obj, String charsetName) throws java.io.IOException {
+        pack(out, obj, BinPackEncoder.lookupCharset(charsetName));
+    }
+
+    public static void pack(OutputStream out, Object obj, Charset charset) throws java.io.IOException {
+        BinPackEncoder encoder = new BinPackEncoder(charset);
+        encoder.pack(obj);
+        encoder.writeTo(out);
     }
 
     /**
@@ -99,7 +135,14 @@ public class BinPack {
         DecodeCtx ctx = new DecodeCtx();
         ctx.buf = bs;
         ctx.pos = 0;
-        ctx.charsetName = charsetName;
+        ctx.limit = bs.length;
+        try {
+            // looked up once here, not for every string
+            ctx.charset = BinPackEncoder.lookupCharset(charsetName);
+        } catch (UnsupportedEncodingException ex) {
+            // every string decodes to null, as it always did
+            ctx.charsetName = charsetName;
+        }
         Object obj = doDecode(ctx);
         if (obj == SHUT_OBJECT) {
             return null;
@@ -107,19 +150,202 @@ public class BinPack {
         return obj;
     }
 
-    private static int _unpackTag(DecodeCtx ctx, TagInfo info) {
-        if (ctx.pos >= ctx.buf.length) {
+    /**
+     * Decode from byte array
+     *
+     * @param bs
+     * @param charset
+     * @return
+     */
+    public static Object decode(byte[] bs, Charset charset) {
+        DecodeCtx ctx = new DecodeCtx();
+        ctx.buf = bs;
+        ctx.pos = 0;
+        ctx.limit = bs.length;
+        ctx.charset = charset;
+        Object obj = doDecode(ctx);
+        if (obj == SHUT_OBJECT) {
+            return null;
+        }
+        return obj;
+    }
+
+    /**
+     * Decode into an instance of {@code type}, through its {@link BinPackCodec}, see {@link BinPackCodecs}.
+     *
+     * @param bs
+     * @param type
+     * @param charset
+     * @return the object, or null if the data is a null
+     * @throws BinPackException if {@code type} has no codec or the data does not match it
+     */
+    public static <T> T decode(byte[] bs, Class<T> type, Charset charset) throws BinPackException {
+        return BinPackCodecs.decode(new BinPackReader(bs, charset), type);
+    }
+
+    /**
+     * Decode one value from a heap or direct buffer, starting at its position.
+     * <p/>
+     * Only the bytes between position and limit are read, no intermediate array is made. The position is
+     * moved past the decoded value.
+     *
+     * @param bb
+     * @param charset
+     * @return
+     */
+    public static Object decode(ByteBuffer bb, Charset charset) {
+        DecodeCtx ctx = newDecodeCtx(bb, charset);
+        Object obj = doDecode(ctx);
+        bb.position(ctx.pos - ctx.base);
+        if (obj == SHUT_OBJECT) {
+            return null;
+        }
+        return obj;
+    }
+
+    /**
+     * Decode from byte array lazily.
+     * <p/>
+     * A list or dict is returned as a read-only view over {@code bs}: only the offsets of its children are
+     * recorded, and each child is decoded on first access, a nested list or dict being a view again. This is
+     * cheap when only a few fields of a large message are read. The views keep {@code bs}, which must not be
+     * modified, and are not thread safe. {@link BinDict} and {@link BinList} wrap them without copying.
+     *
+     * @param bs
+     * @param charset
+     * @return
+     */
+    public static Object decodeLazy(byte[] bs, Charset charset) {
+        return decodeLazy(bs, 0, bs.length, charset);
+    }
+
+    static Object decodeLazy(byte[] bs, int start, int limit, Charset charset) {
+        DecodeCtx ctx = new DecodeCtx();
+        ctx.buf = bs;
+        ctx.pos = start;
+        ctx.limit = limit;
+        ctx.charset = charset;
+        if (_unpackTag(ctx) < 0) {
+            return null;
+        }
+        switch (ctx.type) {
+            case BIN_TAG_SHUT:
+                return null;
+            case BIN_TYPE_LIST:
+                return LazyList.scan(ctx, start);
+            case BIN_TYPE_DICT:
+                return LazyDict.scan(ctx, start);
+        }
+        return makeValue(ctx);
+    }
+
+    /**
+     * Decode only the value at {@code path} in the encoded data, see {@link BinPath#compile(String, Charset)}
+     * for the syntax. Use a compiled {@link BinPath} to extract the same path from many messages.
+     *
+     * @param bs
+     * @param path  such as {@code user.devices[2].token}
+     * @param charset
+     * @return the value, or null if there is no such value
+     */
+    public static Object extract(byte[] bs, String path, Charset charset) {
+        return BinPath.compile(path, charset).extract(bs);
+    }
+
+    /**
+     * Encode each of {@code values} in parallel on the common fork-join pool, through one {@link BinPackBatch} per
+     * charset whose workers keep their encoder from one call to the next; see {@link BinPackBatch} to choose the
+     * pool or the settings.
+     *
+     * @param values
+     * @param charset
+     * @return the encoded values, in the same order
+     */
+    public static List<byte[]> encodeAll(List<?> values, Charset charset) {
+        return BinPackBatch.shared(charset).encodeAll(values);
+    }
+
+    /**
+     * Decode each of {@code messages} in parallel on the common fork-join pool, through one {@link BinPackBatch}
+     * per charset whose workers keep their decoder and key cache from one call to the next; see
+     * {@link BinPackBatch} to choose the pool or the settings.
+     *
+     * @param messages
+     * @param charset
+     * @return the decoded values, in the same order
+     */
+    public static List<Object> decodeAll(List<byte[]> messages, Charset charset) {
+        return BinPackBatch.shared(charset).decodeAll(messages);
+    }
+
+    /**
+     * A decode state over the bytes between position and limit of {@code bb}.
+     */
+    static DecodeCtx newDecodeCtx(ByteBuffer bb, Charset charset) {
+        DecodeCtx ctx;
+        if (bb.hasArray()) {
+            ctx = new DecodeCtx();
+            ctx.buf = bb.array();
+            ctx.base = bb.arrayOffset();
+            ctx.pos = ctx.base + bb.position();
+            ctx.limit = ctx.base + bb.limit();
+        } else {
+            ctx = new BufferDecodeCtx(bb);
+        }
+        ctx.charset = charset;
+        return ctx;
+    }
+
+    /**
+     * Encode data into a heap or direct buffer, starting at its position.
+     * <p/>
+     * On success the position is moved past the written bytes. If the data does not fit between position and
+     * limit, the position is left unchanged and -1 is returned; use {@link #encodedSize(Object, Charset)} to size
+     * the buffer for a retry. The bytes after the position may have been overwritten in that case.
+     *
+     * @param obj
+     * @param bb
+     * @param charset
+     * @return the number of bytes written, or -1 on overflow
+     */
+    public static int encode(Object obj, ByteBuffer bb, Charset charset) {
+        int start = bb.position();
+        try {
+            new BufferEncoder(bb, charset).pack(obj);
+        } catch (BufferOverflowException ex) {
+            bb.position(start);
+            return -1;
+        }
+        return bb.position() - start;
+    }
+
+    /**
+     * Read one tag into {@code ctx.type} and {@code ctx.num}.
+     * <p/>
+     * A tag never has more than 9 length bytes before its type byte, and a blob or string length is never negative;
+     * data which breaks either is malformed, and is not read as a length an {@code int} cast would turn into garbage.
+     *
+     * @return 0, -1 if the tag is malformed, or -2 if the input ends inside it
+     */
+    static int _unpackTag(DecodeCtx ctx) {
+        if (ctx.pos >= ctx.limit) {
             return -2;
         }
-        long x = (long) ctx.buf[ctx.pos++];
+        long x = (long) ctx.next();
 
         int shift = 0;
         long num = 0;
         if (x < 0) {
             while (x < 0) {
+                if (shift > 56) {
+                    return -1;
+                }
+                if (ctx.pos >= ctx.limit) {
+                    return -2;
+                }
                 x &= 0x7f;
                 num |= x << shift;
-                x = (long) ctx.buf[ctx.pos++];
+                x = (long) ctx.next();
                 shift += 7;
             }
         }
@@ -128,53 +354,141 @@ public class BinPack {
         byte type = (byte) x;
         if (type < 0x10) {
 
-            info.type = type;
+            ctx.type = type;
         } else {
 
             if (type < BIN_TYPE_INTEGER) {
-                info.type = (byte) (type & 0x70);
+                ctx.type = (byte) (type & 0x70);
                 num |= (x & 0x0f) << shift;
+                if (num < 0) {
+                    return -1;
+                }
             } else {
-                info.type = type;
+                ctx.type = type;
                 num |= (x & 0x07) << shift;
             }
 
-            info.num = num;
+            ctx.num = num;
         }
 
         return 0;
     }
 
-    private static Object doDecode(DecodeCtx ctx) {
-        TagInfo info = new TagInfo();
-        if (_unpackTag(ctx, info) < 0) {
-            return null;
-        }
-
-        if (info.type >= BIN_TYPE_INTEGER) {
-            return makeInteger(info);
-        }
-
-        switch (info.type) {
-
-            case BIN_TAG_SHUT:
-                return SHUT_OBJECT;
+    /**
+     * Decode one value.
+     * <p/>
+     * Lists and dicts are decoded with an explicit stack instead of recursion, so the depth of the data is only
+     * bounded by {@code ctx.maxDepth}, not by the thread stack. A list or dict which is truncated, has a null key or
+     * a key without value decodes to null. So does the whole value if it is nested deeper than the limit, which like a
+     * truncated payload consumes the rest of the input: the position ends at the limit.
+     *
+     * @return the value, or {@link #SHUT_OBJECT} for a stray shut tag
+     */
+    static Object doDecode(DecodeCtx ctx) {
+        // the open containers, and for dicts the key waiting for its value
+        Object[] containers = null;
+        Object[] keys = null;
+        int depth = 0;
 
-            case BIN_TYPE_LIST: {
-                ArrayList list = new ArrayList();
-                if (makeList(ctx, list) < 0) {
-                    return null;
+        while (true) {
+            Object value;
+            if (depth > 0 && ctx.pos >= ctx.limit) {
+                // truncated, the shut tag is missing
+                value = FAILED;
+            } else if (_unpackTag(ctx) < 0) {
+                // malformed, or truncated inside the tag
+                value = truncated(ctx);
+            } else {
+                switch (ctx.type) {
+                    case BIN_TAG_SHUT:
+                        value = SHUT_OBJECT;
+                        break;
+
+                    case BIN_TYPE_LIST:
+                    case BIN_TYPE_DICT:
+                        if (depth >= ctx.maxDepth) {
+                            return truncated(ctx);
+                        }
+                        if (containers == null) {
+                            containers = new Object[8];
+                            keys = new Object[8];
+                        } else if (depth == containers.length) {
+                            containers = Arrays.copyOf(containers, depth << 1);
+                            keys = Arrays.copyOf(keys, depth << 1);
+                        }
+                        containers[depth] = ctx.type == BIN_TYPE_LIST ? new ArrayList() : new HashMap();
+                        keys[depth] = NO_KEY;
+                        depth++;
+                        continue;
+
+                    default:
+                        if (ctx.type == BIN_TYPE_STRING && (ctx.keyCache != null || ctx.stringViews)
+                                && depth > 0 && keys[depth - 1] == NO_KEY
+                                && containers[depth - 1] instanceof Map && ctx.charset != null) {
+                            value = makeKey(ctx);
+                        } else {
+                            value = makeValue(ctx);
+                        }
+                        break;
                 }
-                return list;
             }
 
-            case BIN_TYPE_DICT: {
-                Map map = new HashMap();
-                if (makeDict(ctx, map) < 0) {
-                    return null;
+            // hand the value to the innermost container, closing containers as their shut tags come
+            while (true) {
+                if (depth == 0) {
+                    return value;
+                }
+                if (value == FAILED) {
+                    // the innermost container fails, which is just a null value in its parent
+                    depth--;
+                    if (depth == 0) {
+                        return null;
+                    }
+                    value = null;
+                    continue;
                 }
-                return map;
+                Object container = containers[depth - 1];
+                Object key = keys[depth - 1];
+                if (container instanceof List) {
+                    if (value == SHUT_OBJECT) {
+                        value = container;
+                        depth--;
+                        continue;
+                    }
+                    ((List) container).add(value);
+                } else if (key == NO_KEY) {
+                    if (value == SHUT_OBJECT) {
+                        value = container;
+                        depth--;
+                        continue;
+                    }
+                    if (value == null) {
+                        value = FAILED;
+                        continue;
+                    }
+                    keys[depth - 1] = value;
+                } else {
+                    if (value == SHUT_OBJECT) {
+                        value = FAILED;
+                        continue;
+                    }
+                    ((Map) container).put(key, value);
+                    keys[depth - 1] = NO_KEY;
+                }
+                break;
             }
+        }
+    }
+
+    /**
+     * Decode a value which is neither a container nor a shut tag, its tag has just been read into {@code ctx}.
+     */
+    static Object makeValue(DecodeCtx ctx) {
+        if (ctx.type >= BIN_TYPE_INTEGER) {
+            return makeInteger(ctx);
+        }
+
+        switch (ctx.type) {
 
             case BIN_TYPE_BOOL:
                 return true;
@@ -185,217 +499,327 @@ public class BinPack {
                 return null;
 
             case BIN_TYPE_BLOB: {
-                if (info.num > ctx.buf.length - ctx.pos) {
-                    return null;
+                if (ctx.num > ctx.limit - ctx.pos) {
+                    return truncated(ctx);
+                }
+                if (ctx.blobViews) {
+                    return ctx.readBlobView((int) ctx.num);
                 }
-                int start = ctx.pos;
-                ctx.pos += info.num;
-                return Arrays.copyOfRange(ctx.buf, start, ctx.pos);
+                return ctx.readBlob((int) ctx.num);
             }
 
             case BIN_TYPE_STRING: {
-                int start = ctx.pos;
-                ctx.pos += info.num;
+                if (ctx.num > ctx.limit - ctx.pos) {
+                    return truncated(ctx);
+                }
+                if (ctx.stringViews && ctx.charset != null) {
+                    return ctx.readStringView((int) ctx.num);
+                }
                 try {
-                    return new String(ctx.buf, start, (int) info.num, ctx.charsetName);
+                    return ctx.readString((int) ctx.num);
                 } catch (Exception ex) {
                     return null;
                 }
             }
             case BIN_TYPE_REAL_DOUBLE: {
-                return makeDouble(ctx);
+                if (ctx.limit - ctx.pos < 8) {
+                    return truncated(ctx);
+                }
+                return Double.longBitsToDouble(ctx.readLongLE());
             }
             case BIN_TYPE_REAL_FLOAT: {
-                return makeFloat(ctx);
+                if (ctx.limit - ctx.pos < 4) {
+                    return truncated(ctx);
+                }
+                return Float.intBitsToFloat(ctx.readIntLE());
             }
         }
 
         return null;
     }
 
-    private static int makeList(DecodeCtx ctx, List list) {
-        while (true) {
-            Object value = doDecode(ctx);
-            if (value == SHUT_OBJECT) {
-                return 0;
-            }
-            list.add(value);
+    /**
+     * A string dict key, through {@code ctx.keyCache} if set; a key is a String even with string views.
+     */
+    private static Object makeKey(DecodeCtx ctx) {
+        if (ctx.num > ctx.limit - ctx.pos) {
+            return truncated(ctx);
+        }
+        if (ctx.keyCache != null) {
+            return ctx.readKey((int) ctx.num);
+        }
+        try {
+            return ctx.readString((int) ctx.num);
+        } catch (Exception ex) {
+            return null;
         }
     }
 
-    private static int makeDict(DecodeCtx ctx, Map map) {
-        while (true) {
-            Object key = doDecode(ctx);
-            if (key == SHUT_OBJECT) {
-                return 0;
-            }
+    /**
+     * A payload running past the end consumes the rest of the input, so that the enclosing list or dict fails too.
+     */
+    private static Object truncated(DecodeCtx ctx) {
+        ctx.pos = ctx.limit;
+        return null;
+    }
 
-            if (key == null) {
-                return -1;
+    /**
+     * Skip one value, including the content of a list or dict, without decoding it.
+     *
+     * @return 0, or a negative value if the input is truncated
+     */
+    static int skipValue(DecodeCtx ctx) {
+        int depth = 0;
+        do {
+            if (_unpackTag(ctx) < 0) {
+                return -2;
             }
-
-            Object value = doDecode(ctx);
-            if (value == SHUT_OBJECT) {
-                return -1;
+            switch (ctx.type) {
+                case BIN_TYPE_LIST:
+                case BIN_TYPE_DICT:
+                    depth++;
+                    break;
+                case BIN_TAG_SHUT:
+                    depth--;
+                    break;
+                default:
+                    long size = payloadSize(ctx);
+                    if (size > ctx.limit - ctx.pos) {
+                        return -2;
+                    }
+                    ctx.pos += size;
+                    break;
             }
+        } while (depth > 0);
+        return 0;
+    }
 
-            map.put(key, value);
+    /**
+     * The number of bytes following the tag just read into {@code ctx}.
+     */
+    static long payloadSize(DecodeCtx ctx) {
+        switch (ctx.type) {
+            case BIN_TYPE_BLOB:
+            case BIN_TYPE_STRING:
+                return ctx.num;
+            case BIN_TYPE_REAL_DOUBLE:
+                return 8;
+            case BIN_TYPE_REAL_FLOAT:
+                return 4;
         }
+        return 0;
     }
 
-    private static Object makeInteger(TagInfo info) {
-        int type = info.type & BIN_INTEGER_TYPE_MASK;
-        if ((info.type & BIN_TYPE_INTEGER_NEGATIVE_MASK) != 0) {
-            info.num = -info.num;
-        }
-        switch (type) {
+    private static Object makeInteger(DecodeCtx ctx) {
+        long num = makeLong(ctx);
+        switch (ctx.type & BIN_INTEGER_TYPE_MASK) {
             case BIN_INTEGER_TYPE_Byte:
-                return (byte) info.num;
+                return (byte) num;
             case BIN_INTEGER_TYPE_Short:
-                return (short) info.num;
+                return (short) num;
             case BIN_INTEGER_TYPE_Int:
-                return (int) info.num;
+                return (int) num;
             case BIN_INTEGER_TYPE_Long:
-                return info.num;
+                return num;
             default:
                 break;
         }
         return null;
     }
 
-    private static Double makeDouble(DecodeCtx ctx) {
+    /**
+     * The value of the integer tag just read into {@code ctx}, without boxing.
+     */
+    static long makeLong(DecodeCtx ctx) {
+        return (ctx.type & BIN_TYPE_INTEGER_NEGATIVE_MASK) != 0 ? -ctx.num : ctx.num;
+    }
 
-        long x = 0;
-        byte shift = 0;
-        long n;
-        while (shift < 64) {
-            n = (long) ctx.buf[ctx.pos++];
-            x |= (n & 0xff) << shift;
-            shift += 8;
-        }
-        return Double.longBitsToDouble(x);
+    public static void packBool(OutputStream out, boolean v) throws IOException {
+        out.write((v ? BIN_TYPE_BOOL : BIN_TYPE_BOOL_FALSE));
     }
 
-    private static Float makeFloat(DecodeCtx ctx) {
+    /**
+     * The decode state over a byte array; {@code pos} and {@code limit} index into {@code buf}.
+     * <p/>
+     * {@code type} and {@code num} hold the last tag read by {@link #_unpackTag(DecodeCtx)}, so decoding a value
+     * allocates nothing but the value itself.
+     */
+    static class DecodeCtx {
+        byte[] buf;
+        // the index of a buffer's position 0
+        int base;
+        int pos;
+        int limit;
+        String charsetName;
+        Charset charset;
+
+        int maxDepth = Integer.MAX_VALUE;
+        // string dict keys are looked up here if not null
+        BinPackKeyCache keyCache;
+        // blobs and strings as views over buf instead of copies
+        boolean blobViews;
+        boolean stringViews;
 
-        int x = 0;
-        byte shift = 0;
-        int n;
-        while (shift < 32) {
-            n = (int) ctx.buf[ctx.pos++];
-            x |= (n & 0xff) << shift;
-            shift += 8;
+        // the last tag read
+        byte type;
+        long num;
+
+        byte next() {
+            return buf[pos++];
         }
-        return Float.intBitsToFloat(x);
-    }
 
-    private static void packDouble(OutputStream out, Double d) throws IOException {
-        long x = Double.doubleToLongBits(d);
-        out.write(BIN_TYPE_REAL_DOUBLE);
+        byte[] readBlob(int len) {
+            int start = pos;
+            pos += len;
+            return Arrays.copyOfRange(buf, start, pos);
+        }
 
-        byte shift = 64;
+        BinBlob readBlobView(int len) {
+            int start = pos;
+            pos += len;
+            return new BinBlob(buf, start, len);
+        }
 
-        while (shift > 0) {
-            out.write((byte) (x & 0xff));
-            x = x >> 8;
-            shift -= 8;
+        BinString readStringView(int len) {
+            int start = pos;
+            pos += len;
+            return new BinString(buf, start, len, charset);
         }
-    }
 
-    private static void packFloat(OutputStream out, Float f) throws IOException {
-        int x = Float.floatToIntBits(f);
-        out.write(BIN_TYPE_REAL_FLOAT);
+        /**
+         * Decode with the charset resolved up front; the name is only kept for a charset this JVM does not have.
+         */
+        String readString(int len) throws UnsupportedEncodingException {
+            int start = pos;
+            pos += len;
+            if (charset != null) {
+                return new String(buf, start, len, charset);
+            }
+            return new String(buf, start, len, charsetName);
+        }
 
-        byte shift = 32;
-        while (shift > 0) {
-            out.write((byte) (x & 0xff));
-            x = x >> 8;
-            shift -= 8;
+        String readKey(int len) {
+            int start = pos;
+            pos += len;
+            return keyCache.get(buf, start, len, charset);
         }
-    }
 
-    private static void packList(OutputStream out, Collection list, String charsetName) throws IOException {
-        out.write(BIN_TYPE_LIST);
-        Iterator it = list.iterator();
-        while (it.hasNext()) {
-            Object obj = it.next();
-            pack(out, obj, charsetName);
+        long readLongLE() {
+            byte[] buf = this.buf;
+            int p = pos;
+            pos = p + 8;
+            return (buf[p] & 0xffL)
+                    | (buf[p + 1] & 0xffL) << 8
+                    | (buf[p + 2] & 0xffL) << 16
+                    | (buf[p + 3] & 0xffL) << 24
+                    | (buf[p + 4] & 0xffL) << 32
+                    | (buf[p + 5] & 0xffL) << 40
+                    | (buf[p + 6] & 0xffL) << 48
+                    | (buf[p + 7] & 0xffL) << 56;
         }
-        out.write(BIN_TAG_SHUT);
-    }
 
-    private static void packMap(OutputStream out, Map map, String charsetName) throws IOException {
-        out.write(BIN_TYPE_DICT);
-        Iterator it = map.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry entry = (Map.Entry) it.next();
-            pack(out, entry.getKey(), charsetName);
-            pack(out, entry.getValue(), charsetName);
+        int readIntLE() {
+            byte[] buf = this.buf;
+            int p = pos;
+            pos = p + 4;
+            return (buf[p] & 0xff)
+                    | (buf[p + 1] & 0xff) << 8
+                    | (buf[p + 2] & 0xff) << 16
+                    | (buf[p + 3] & 0xff) << 24;
         }
-        out.write(BIN_TAG_SHUT);
     }
 
-    private static void packString(OutputStream out, String s, String charsetName) throws IOException {
-        byte[] bs = s.getBytes(charsetName);
-        packNum(out, bs.length, BIN_TYPE_STRING);
-        out.write(bs);
-    }
+    /**
+     * The decode state over a direct buffer; {@code pos} and {@code limit} are absolute buffer indexes.
+     */
+    private static final class BufferDecodeCtx extends DecodeCtx {
+        private static final int MAX_SCRATCH_SIZE = 8192;
 
-    private static void packNum(OutputStream out, int len, byte type) throws IOException {
-        // last number byte: 0000 xxxx
-        while (len > BIN_TAG_PACK_NUM) {
-            out.write((byte) (BIN_NUM_SIGN_BIT | (len & BIN_NUM_MASK)));
-            len = len >>> 7;
+        private final ByteBuffer bb;
+        private byte[] scratch;
+
+        BufferDecodeCtx(ByteBuffer bb) {
+            // a private view, so reading does not touch the caller's byte order or position
+            this.bb = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.pos = bb.position();
+            this.limit = bb.limit();
         }
-        out.write(type | len);
-    }
 
-    private static void packBlob(OutputStream out, byte[] bs) throws IOException {
-        packNum(out, bs.length, BIN_TYPE_BLOB);
-        out.write(bs);
-    }
+        @Override
+        byte next() {
+            return bb.get(pos++);
+        }
 
-    private static void packNull(OutputStream out) throws IOException {
-        out.write(BIN_TYPE_NULL);
-    }
+        @Override
+        byte[] readBlob(int len) {
+            byte[] bs = new byte[len];
+            bb.position(pos);
+            bb.get(bs);
+            pos += len;
+            return bs;
+        }
 
-    public static void packBool(OutputStream out, boolean v) throws IOException {
-        out.write((v ? BIN_TYPE_BOOL : BIN_TYPE_BOOL_FALSE));
-    }
+        @Override
+        BinBlob readBlobView(int len) {
+            return new BinBlob(slice(len));
+        }
 
-    private static void packInteger(OutputStream out, Number n) throws IOException {
-        byte tag = BIN_TYPE_INTEGER;
-        if (n instanceof Byte) {
-            tag |= BIN_INTEGER_TYPE_Byte;
-        } else if (n instanceof Short) {
-            tag |= BIN_INTEGER_TYPE_Short;
-        } else if (n instanceof Integer) {
-            tag |= BIN_INTEGER_TYPE_Int;
-        } else if (n instanceof Long) {
-            tag |= BIN_INTEGER_TYPE_Long;
-        }
-        long l = n.longValue();
-        if (l < 0) {
-            l = -l;
-            tag |= BIN_TYPE_INTEGER_NEGATIVE_MASK;
-        }
-
-        // last number byte: 0000 0xxx
-        while (l > BIN_TAG_PACK_INTEGER || l >>> 3 > 0) {
-            out.write((byte) (BIN_NUM_SIGN_BIT | (l & BIN_NUM_MASK)));
-            l = l >>> 7;
-        }
-        out.write((byte) (tag | l));
-    }
+        @Override
+        BinString readStringView(int len) {
+            return new BinString(slice(len), charset);
+        }
 
-    private static class DecodeCtx {
-        byte[] buf;
-        int pos;
-        String charsetName;
-    }
+        private ByteBuffer slice(int len) {
+            ByteBuffer view = bb.duplicate();
+            view.limit(pos + len);
+            view.position(pos);
+            pos += len;
+            return view.slice();
+        }
 
-    private static class TagInfo {
-        byte type;
-        long num;
+        @Override
+        String readString(int len) throws UnsupportedEncodingException {
+            byte[] bs = readScratch(len);
+            if (charset != null) {
+                return new String(bs, 0, len, charset);
+            }
+            return new String(bs, 0, len, charsetName);
+        }
+
+        @Override
+        String readKey(int len) {
+            return keyCache.get(readScratch(len), 0, len, charset);
+        }
+
+        /**
+         * Strings are copied out through a scratch array, which the String copies again anyway.
+         */
+        private byte[] readScratch(int len) {
+            byte[] bs = scratch;
+            if (bs == null || bs.length < len) {
+                bs = new byte[Math.max(len, 64)];
+                if (len <= MAX_SCRATCH_SIZE) {
+                    scratch = bs;
+                }
+            }
+            bb.position(pos);
+            bb.get(bs, 0, len);
+            pos += len;
+            return bs;
+        }
+
+        @Override
+        long readLongLE() {
+            long x = bb.getLong(pos);
+            pos += 8;
+            return x;
+        }
+
+        @Override
+        int readIntLE() {
+            int x = bb.getInt(pos);
+            pos += 4;
+            return x;
+        }
     }
 }
@@ -0,0 +1,397 @@
+package in.srain.binpack;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Encodes or decodes large batches of independent values in parallel, on a {@link ForkJoinPool}.
+ * <p/>
+ * A batch is split into chunks of {@link #setChunkSize(int)} values, each run on one worker. A worker keeps its
+ * own {@link BinPackEncoder}, whose buffer is reused from one value to the next, and its own
+ * {@link BinPackDecoder} with a {@link BinPackKeyCache}, so the workers share nothing while they run.
+ * <p/>
+ * {@link #encode(Object)} splits a single large list or dict instead: its elements are encoded in segments, one
+ * per worker, which are then joined between the list or dict tag and the shut tag.
+ * <pre>
+ * BinPackBatch batch = new BinPackBatch(charset);
+ * List&lt;Object&gt; messages = batch.decodeAll(payloads);
+ * // or, streaming
+ * payloads.parallelStream().map(batch.decoder()).forEach(...);
+ * </pre>
+ * A batch can be shared between threads once configured.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class BinPackBatch {
+
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+
+    // a worker does not keep an encoder buffer grown larger than this
+    private static final int MAX_KEPT_BUFFER = 1 << 20;
+
+    private final Charset charset;
+    private final ForkJoinPool pool;
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile int maxDepth = Integer.MAX_VALUE;
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    // the batches behind BinPack.encodeAll() and decodeAll(), so their workers keep one encoder and decoder each
+    private static final ConcurrentMap<Charset, BinPackBatch> SHARED = new ConcurrentHashMap<Charset, BinPackBatch>();
+
+    private final ThreadLocal<BinPackEncoder> encoders = new ThreadLocal<BinPackEncoder>();
+    private final ThreadLocal<BinPackDecoder> decoders = new ThreadLocal<BinPackDecoder>();
+
+    /**
+     * A batch running on {@link ForkJoinPool#commonPool()}.
+     */
+    public BinPackBatch(Charset charset) {
+        this(charset, ForkJoinPool.commonPool());
+    }
+
+    public BinPackBatch(Charset charset, ForkJoinPool pool) {
+        this.charset = charset;
+        this.pool = pool;
+    }
+
+    /**
+     * The batch of {@code charset} on the common pool, with the default settings, created once.
+     */
+    static BinPackBatch shared(Charset charset) {
+        BinPackBatch batch = SHARED.get(charset);
+        if (batch == null) {
+            batch = new BinPackBatch(charset);
+            BinPackBatch existing = SHARED.putIfAbsent(charset, batch);
+            if (existing != null) {
+                batch = existing;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * The number of values a worker handles at a time, 256 by default.
+     */
+    public BinPackBatch setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * See {@link BinPackDecoder#setMaxDepth(int)}; takes effect for workers which have not decoded yet.
+     */
+    public BinPackBatch setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * The number of elements from which {@link #encode(Object)} splits a list or dict, 10000 by default.
+     */
+    public BinPackBatch setParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold <= 0) {
+            throw new IllegalArgumentException("parallelThreshold: " + parallelThreshold);
+        }
+        this.parallelThreshold = parallelThreshold;
+        return this;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Encode one value, the same bytes as {@link BinPack#encode(Object, Charset)}. A {@link Collection} or
+     * {@link Map} of at least {@link #setParallelThreshold(int)} elements is encoded in parallel segments; the
+     * elements themselves are encoded on one worker each.
+     */
+    public byte[] encode(Object value) {
+        Segments segments = split(value);
+        if (segments == null) {
+            return BinPack.encode(value, charset);
+        }
+        long size = 2;
+        for (BinPackEncoder segment : segments.encoders) {
+            size += segment.size();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Encoded data exceeds 2 GB: " + size + ", use pack()");
+        }
+        byte[] bs = new byte[(int) size];
+        int pos = 0;
+        bs[pos++] = segments.tag;
+        for (BinPackEncoder segment : segments.encoders) {
+            System.arraycopy(segment.getBuffer(), 0, bs, pos, segment.size());
+            pos += segment.size();
+        }
+        bs[pos] = BinPack.BIN_TAG_SHUT;
+        return bs;
+    }
+
+    /**
+     * Encode one value to {@code out}, like {@link #encode(Object)} but without joining the segments in memory,
+     * so the result may also exceed 2 GB.
+     */
+    public void pack(OutputStream out, Object value) throws IOException {
+        Segments segments = split(value);
+        if (segments == null) {
+            BinPack.pack(out, value, charset);
+            return;
+        }
+        out.write(segments.tag);
+        for (BinPackEncoder segment : segments.encoders) {
+            segment.writeTo(out);
+        }
+        out.write(BinPack.BIN_TAG_SHUT);
+    }
+
+    /**
+     * Encode each of {@code values}, in parallel.
+     *
+     * @return the encoded values, in the same order
+     */
+    public List<byte[]> encodeAll(List<?> values) {
+        final Object[] in = values.toArray();
+        final byte[][] out = new byte[in.length][];
+        run(new Work(in.length) {
+            @Override
+            void run(int index) {
+                out[index] = encodeOne(in[index]);
+            }
+        });
+        return Arrays.asList(out);
+    }
+
+    /**
+     * Decode each of {@code messages}, in parallel. A malformed message decodes to null, as with
+     * {@link BinPackDecoder#decode(byte[])}.
+     *
+     * @return the decoded values, in the same order
+     */
+    public List<Object> decodeAll(List<byte[]> messages) {
+        final byte[][] in = messages.toArray(new byte[messages.size()][]);
+        final Object[] out = new Object[in.length];
+        run(new Work(in.length) {
+            @Override
+            void run(int index) {
+                out[index] = decodeOne(in[index]);
+            }
+        });
+        return Arrays.asList(out);
+    }
+
+    /**
+     * Map each of {@code values} to its encoded form as the stream is consumed; the stream decides whether this
+     * is done in parallel.
+     */
+    public Stream<byte[]> encodeAll(Stream<?> values) {
+        return values.map(encoder());
+    }
+
+    /**
+     * Map each of {@code messages} to its decoded value as the stream is consumed; the stream decides whether this
+     * is done in parallel.
+     */
+    public Stream<Object> decodeAll(Stream<byte[]> messages) {
+        return messages.map(decoder());
+    }
+
+    /**
+     * A function encoding a value with the encoder of the calling thread, for {@link Stream#map(Function)}.
+     */
+    public Function<Object, byte[]> encoder() {
+        return new Function<Object, byte[]>() {
+            @Override
+            public byte[] apply(Object value) {
+                return encodeOne(value);
+            }
+        };
+    }
+
+    /**
+     * A function decoding a message with the decoder of the calling thread, for {@link Stream#map(Function)}.
+     */
+    public Function<byte[], Object> decoder() {
+        return new Function<byte[], Object>() {
+            @Override
+            public Object apply(byte[] message) {
+                return decodeOne(message);
+            }
+        };
+    }
+
+    private byte[] encodeOne(Object value) {
+        BinPackEncoder encoder = encoders.get();
+        if (encoder == null) {
+            encoder = new BinPackEncoder(charset);
+            encoders.set(encoder);
+        }
+        encoder.reset();
+        encoder.pack(value);
+        byte[] bs = encoder.toByteArray();
+        if (encoder.getBuffer().length > MAX_KEPT_BUFFER) {
+            encoders.remove();
+        }
+        return bs;
+    }
+
+    private Object decodeOne(byte[] message) {
+        BinPackDecoder decoder = decoders.get();
+        if (decoder == null || decoder.getMaxDepth() != maxDepth) {
+            decoder = new BinPackDecoder(charset).setMaxDepth(maxDepth).setKeyCache(new BinPackKeyCache());
+            decoders.set(decoder);
+        }
+        return decoder.decode(message);
+    }
+
+    /**
+     * Encode the elements of a large list, or the keys and values of a large dict, in segments.
+     *
+     * @return null if {@code value} is not a list or dict above the threshold
+     */
+    @SuppressWarnings("rawtypes")
+    private Segments split(Object value) {
+        final Object[] elements;
+        final int unit;
+        byte tag;
+        if (value instanceof BinDict) {
+            value = ((BinDict) value).map();
+        } else if (value instanceof BinList) {
+            value = ((BinList) value).list();
+        }
+        if (value instanceof LazyList || value instanceof LazyDict) {
+            // copied as they were read, see BinPackEncoder#packList(Collection)
+            return null;
+        } else if (value instanceof Collection && ((Collection) value).size() >= parallelThreshold) {
+            elements = ((Collection) value).toArray();
+            unit = 1;
+            tag = BinPack.BIN_TYPE_LIST;
+        } else if (value instanceof Map && ((Map) value).size() >= parallelThreshold) {
+            Map map = (Map) value;
+            elements = new Object[map.size() * 2];
+            int i = 0;
+            for (Object o : map.entrySet()) {
+                Map.Entry entry = (Map.Entry) o;
+                elements[i++] = entry.getKey();
+                elements[i++] = entry.getValue();
+            }
+            unit = 2;
+            tag = BinPack.BIN_TYPE_DICT;
+        } else {
+            return null;
+        }
+        // a few segments per worker, so that a slow one does not hold the others up
+        int units = elements.length / unit;
+        int perSegment = Math.max(chunkSize, (units + pool.getParallelism() * 4 - 1) / (pool.getParallelism() * 4));
+        final int step = perSegment * unit;
+        final BinPackEncoder[] encoders = new BinPackEncoder[(units + perSegment - 1) / perSegment];
+        run(new Work(encoders.length) {
+            @Override
+            void run(int index) {
+                BinPackEncoder encoder = new BinPackEncoder(charset);
+                int end = Math.min(elements.length, (index + 1) * step);
+                for (int i = index * step; i < end; i++) {
+                    encoder.pack(elements[i]);
+                }
+                encoders[index] = encoder;
+            }
+        }, 1);
+        return new Segments(tag, encoders);
+    }
+
+    private static final class Segments {
+
+        final byte tag;
+        final BinPackEncoder[] encoders;
+
+        Segments(byte tag, BinPackEncoder[] encoders) {
+            this.tag = tag;
+            this.encoders = encoders;
+        }
+    }
+
+    private void run(Work work) {
+        run(work, chunkSize);
+    }
+
+    private void run(Work work, int chunkSize) {
+        Chunk all = new Chunk(work, 0, work.size, chunkSize);
+        if (work.size <= chunkSize) {
+            all.compute();
+        } else {
+            pool.invoke(all);
+        }
+    }
+
+    private abstract static class Work {
+
+        final int size;
+
+        Work(int size) {
+            this.size = size;
+        }
+
+        abstract void run(int index);
+    }
+
+    /**
+     * The values from lo to hi, split in halves down to the chunk size.
+     */
+    private static final class Chunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Work work;
+        private final int lo;
+        private final int hi;
+        private final int chunkSize;
+
+        Chunk(Work work, int lo, int hi, int chunkSize) {
+            this.work = work;
+            this.lo = lo;
+            this.hi = hi;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= chunkSize) {
+                for (int i = lo; i < hi; i++) {
+                    work.run(i);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Chunk(work, lo, mid, chunkSize), new Chunk(work, mid, hi, chunkSize));
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package in.srain.binpack;
+
+/**
+ * Encodes and decodes instances of one class, see {@link BinPackCodecs}.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public interface BinPackCodec<T> {
+
+    /**
+     * Append the encoded form of {@code value}, which is not null.
+     */
+    void encode(BinPackEncoder encoder, T value);
+
+    /**
+     * Read the next value, which is not null, as a {@code T}.
+     */
+    T decode(BinPackReader reader) throws BinPackException;
+}
@@ -0,0 +1,144 @@
+package in.srain.binpack;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The registry of {@link BinPackCodec}s, consulted by {@link BinPackEncoder#pack(Object)} for any object which is
+ * not a plain value, list or dict, and by {@link BinPack#decode(byte[], Class, java.nio.charset.Charset)}.
+ * <p/>
+ * A codec is either registered by hand, or generated at build time for a {@link BinPackable} class and loaded
+ * here the first time the class is looked up. A {@link BinPackable} class compiled without the processor, and a
+ * class passed to {@link #registerRuntimeCodec(Class[])}, such as a third-party class or a record, get a codec built
+ * at runtime from their fields, which writes the same dict. Any other class has no codec, and is encoded as the
+ * string {@code "unsupported-type-"} followed by its class name. Lookups, including misses, are cached with the class
+ * itself, so that a class loader which is no longer used can be unloaded.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public final class BinPackCodecs {
+
+    /**
+     * The generated codec of {@code a.b.C} is {@code a.b.C$$BinPackCodec}.
+     */
+    public static final String GENERATED_SUFFIX = "$$BinPackCodec";
+
+    // a class without codec
+    private static final Object NONE = new Object();
+
+    private static final ClassValue<Slot> codecs = new ClassValue<Slot>() {
+        @Override
+        protected Slot computeValue(Class<?> type) {
+            return new Slot();
+        }
+    };
+
+    // the codec of one class: null until it is looked up or registered, then NONE or the codec
+    private static final class Slot {
+        volatile Object codec;
+    }
+
+    private BinPackCodecs() {
+    }
+
+    /**
+     * Use {@code codec} for the instances of exactly {@code type}, not of its subclasses.
+     */
+    public static <T> void register(Class<T> type, BinPackCodec<T> codec) {
+        if (codec == null) {
+            throw new NullPointerException("codec");
+        }
+        Slot slot = codecs.get(type);
+        synchronized (slot) {
+            slot.codec = codec;
+        }
+    }
+
+    /**
+     * Encode and decode the instances of each of {@code types} as a dict of their fields, or of their components
+     * for a record, with a codec built at runtime. Static, transient and synthetic fields are left out, and so are
+     * final fields when decoding; fields of the superclasses are included. Decoding a class other than a record
+     * needs a constructor without arguments.
+     * <p/>
+     * A field may refer to any of {@code types}, so classes which refer to each other are registered together.
+     *
+     * @throws IllegalArgumentException if a class is not a concrete class outside the JDK, or a field has a type
+     *                                  which does not decode back, such as an enum, a {@code Character}, a JDK class
+     *                                  other than a string, a boxed primitive, a list or a dict, or a class which has
+     *                                  no codec
+     */
+    public static void registerRuntimeCodec(Class<?>... types) {
+        List<Class> group = Arrays.<Class>asList(types);
+        RuntimeCodec[] created = new RuntimeCodec[types.length];
+        // all or nothing: check every class before registering any
+        for (int i = 0; i < types.length; i++) {
+            created[i] = RuntimeCodec.create(types[i], group);
+        }
+        for (int i = 0; i < types.length; i++) {
+            register((Class) types[i], created[i]);
+        }
+    }
+
+    /**
+     * The codec of {@code type}, or null if there is none.
+     */
+    public static <T> BinPackCodec<T> lookup(Class<T> type) {
+        Slot slot = codecs.get(type);
+        Object codec = slot.codec;
+        if (codec == null) {
+            codec = loadGenerated(type);
+            if (codec == null && type.isAnnotationPresent(BinPackable.class)) {
+                codec = RuntimeCodec.create(type, Arrays.<Class>asList(type));
+            }
+            synchronized (slot) {
+                if (slot.codec == null) {
+                    slot.codec = codec == null ? NONE : codec;
+                }
+                codec = slot.codec;
+            }
+        }
+        return codec == NONE ? null : (BinPackCodec<T>) codec;
+    }
+
+    /**
+     * True if {@code type} has a codec registered by hand or already looked up, without looking it up.
+     */
+    static boolean isRegistered(Class type) {
+        Object codec = codecs.get(type).codec;
+        return codec != null && codec != NONE;
+    }
+
+    /**
+     * Read the next value as a {@code type}, for generated codecs of classes with {@link BinPackable} fields.
+     *
+     * @throws BinPackException if {@code type} has no codec
+     */
+    public static <T> T decode(BinPackReader reader, Class<T> type) throws BinPackException {
+        if (reader.nextToken() == BinPack.BIN_TYPE_NULL) {
+            reader.readNull();
+            return null;
+        }
+        BinPackCodec<T> codec = lookup(type);
+        if (codec == null) {
+            throw new BinPackException("No codec for " + type.getName());
+        }
+        return codec.decode(reader);
+    }
+
+    private static Object loadGenerated(Class type) {
+        if (!type.isAnnotationPresent(BinPackable.class)) {
+            return null;
+        }
+        String name = type.getName() + GENERATED_SUFFIX;
+        try {
+            Class codecClass = Class.forName(name, true, type.getClassLoader());
+            return codecClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException ex) {
+            // binpack-processor is not on the annotation processor path
+            return null;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Can not create " + name, ex);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package in.srain.binpack;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * A decoder with its own settings, decoding the same way {@link BinPack#decode(byte[], String)} does.
+ * <p/>
+ * Lists and dicts are decoded with an explicit stack, never by recursion, so any depth can be decoded on a thread
+ * with a small stack. {@link #setMaxDepth(int)} bounds the nesting accepted from untrusted input: a value nested
+ * deeper decodes to null, like any other malformed data. {@link #setKeyCache(BinPackKeyCache)} saves decoding the
+ * same dict keys over and over. {@link #setBlobViews(boolean)} and {@link #setStringViews(boolean)} return blobs and
+ * strings as views over the input instead of copies, for data which is mostly passed on.
+ * <p/>
+ * A decoder can be shared between threads once configured.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class BinPackDecoder {
+
+    private final Charset charset;
+    private volatile int maxDepth = Integer.MAX_VALUE;
+    private volatile BinPackKeyCache keyCache;
+    private volatile boolean blobViews;
+    private volatile boolean stringViews;
+
+    public BinPackDecoder(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * The maximum number of nested lists and dicts, unlimited by default.
+     */
+    public BinPackDecoder setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Look up string dict keys in {@code keyCache}, or decode each of them afresh if null, the default.
+     */
+    public BinPackDecoder setKeyCache(BinPackKeyCache keyCache) {
+        this.keyCache = keyCache;
+        return this;
+    }
+
+    public BinPackKeyCache getKeyCache() {
+        return keyCache;
+    }
+
+    /**
+     * Decode blobs to {@link BinBlob} views over the input instead of {@code byte[]} copies, false by default. The
+     * input must then be left unchanged while the views are in use.
+     */
+    public BinPackDecoder setBlobViews(boolean blobViews) {
+        this.blobViews = blobViews;
+        return this;
+    }
+
+    public boolean isBlobViews() {
+        return blobViews;
+    }
+
+    /**
+     * Decode strings, other than dict keys, to lazily decoded {@link BinString} views over the input instead of
+     * {@code String}s, false by default. The input must then be left unchanged while the views are in use.
+     */
+    public BinPackDecoder setStringViews(boolean stringViews) {
+        this.stringViews = stringViews;
+        return this;
+    }
+
+    public boolean isStringViews() {
+        return stringViews;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public Object decode(byte[] bs) {
+        return decode(bs, 0, bs.length);
+    }
+
+    public Object decode(byte[] bs, int offset, int length) {
+        if ((offset | length) < 0 || length > bs.length - offset) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + bs.length);
+        }
+        DecodeCtx ctx = newDecodeCtx();
+        ctx.buf = bs;
+        ctx.pos = offset;
+        ctx.limit = offset + length;
+        return finish(doDecode(ctx));
+    }
+
+    /**
+     * Decode the value at the position of a heap or direct buffer, and move the position past it.
+     */
+    public Object decode(ByteBuffer bb) {
+        DecodeCtx ctx = BinPack.newDecodeCtx(bb, charset);
+        configure(ctx);
+        Object obj = doDecode(ctx);
+        bb.position(ctx.pos - ctx.base);
+        return finish(obj);
+    }
+
+    DecodeCtx newDecodeCtx() {
+        DecodeCtx ctx = new DecodeCtx();
+        ctx.charset = charset;
+        configure(ctx);
+        return ctx;
+    }
+
+    private void configure(DecodeCtx ctx) {
+        ctx.maxDepth = maxDepth;
+        ctx.keyCache = keyCache;
+        ctx.blobViews = blobViews;
+        ctx.stringViews = stringViews;
+    }
+
+    private static Object finish(Object obj) {
+        return obj == SHUT_OBJECT ? null : obj;
+    }
+}
@@ -0,0 +1,741 @@
+package in.srain.binpack;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * Encode data into an internal growable byte array.
+ * <p/>
+ * Tags, varints and reals are written straight into the array, so there is no per-byte
+ * {@link OutputStream#write(int)} call and no lock. The result can be read in place via
+ * {@link #getBuffer()} / {@link #size()}, written out via {@link #writeTo(OutputStream)},
+ * or copied via {@link #toByteArray()}.
+ * <p/>
+ * An encoder is not thread safe, but can be reused after {@link #reset()}.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class BinPackEncoder {
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    // the longest varint: 64 bits, 7 bits per byte
+    static final int MAX_VARINT_SIZE = 10;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final Charset UNSUPPORTED_TYPE_CHARSET = UTF_8;
+
+    // the charsets strings are encoded by hand, without String.getBytes()
+    private static final int CHARSET_OTHER = 0;
+    private static final int CHARSET_UTF_8 = 1;
+    private static final int CHARSET_LATIN_1 = 2;
+    private static final int CHARSET_ASCII = 3;
+
+    // objects with a codec may only nest this deep, which stops a cycle of references
+    static final int MAX_CODEC_DEPTH = 512;
+
+    final Charset charset;
+    private final int charsetKind;
+    byte[] buf;
+    int count;
+    // the objects with a codec being encoded, one inside another
+    private int codecDepth;
+
+    public BinPackEncoder(String charsetName) throws UnsupportedEncodingException {
+        this(lookupCharset(charsetName), DEFAULT_CAPACITY);
+    }
+
+    public BinPackEncoder(Charset charset) {
+        this(charset, DEFAULT_CAPACITY);
+    }
+
+    public BinPackEncoder(Charset charset, int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Negative initial capacity: " + initialCapacity);
+        }
+        this.charset = charset;
+        this.charsetKind = charsetKind(charset);
+        this.buf = new byte[initialCapacity];
+    }
+
+    private static int charsetKind(Charset charset) {
+        if (UTF_8.equals(charset)) {
+            return CHARSET_UTF_8;
+        }
+        if (ISO_8859_1.equals(charset)) {
+            return CHARSET_LATIN_1;
+        }
+        if (US_ASCII.equals(charset)) {
+            return CHARSET_ASCII;
+        }
+        return CHARSET_OTHER;
+    }
+
+    static Charset lookupCharset(String charsetName) throws UnsupportedEncodingException {
+        try {
+            return Charset.forName(charsetName);
+        } catch (IllegalArgumentException ex) {
+            throw new UnsupportedEncodingException(charsetName);
+        }
+    }
+
+    /**
+     * Append the encoded form of {@code obj}.
+     *
+     * @throws IllegalArgumentException caused by a {@link BinPackException} if objects encoded by
+     *                                  {@link BinPackCodec}s nest deeper than 512, as they do in a cycle
+     */
+    public void pack(Object obj) {
+        if (obj == null || obj == BinDict.NULL) {
+            packNull();
+        } else if (obj instanceof Integer || obj instanceof Long || obj instanceof Short || obj instanceof Byte) {
+            packInteger((Number) obj);
+        } else if (obj instanceof String) {
+            packString((String) obj);
+        } else if (obj instanceof Boolean) {
+            packBool((Boolean) obj);
+        } else if (obj instanceof byte[]) {
+            packBlob((byte[]) obj);
+        } else if (obj instanceof BinBlob) {
+            packBlob((BinBlob) obj);
+        } else if (obj instanceof BinString) {
+            packString((BinString) obj);
+        } else if (obj instanceof Double) {
+            packDouble((Double) obj);
+        } else if (obj instanceof Float) {
+            packFloat((Float) obj);
+        } else if (obj instanceof Collection) {
+            packList((Collection) obj);
+        } else if (obj instanceof Map) {
+            packMap((Map) obj);
+        } else if (obj instanceof int[]) {
+            packIntArray((int[]) obj);
+        } else if (obj instanceof long[]) {
+            packLongArray((long[]) obj);
+        } else if (obj instanceof double[]) {
+            packDoubleArray((double[]) obj);
+        } else if (obj instanceof float[]) {
+            packFloatArray((float[]) obj);
+        } else if (obj instanceof BinDict) {
+            packMap(((BinDict) obj).map());
+        } else if (obj instanceof BinList) {
+            packList(((BinList) obj).list());
+        } else if (obj instanceof BinData) {
+            pack(((BinData) obj).getRawData());
+        } else {
+            BinPackCodec codec = BinPackCodecs.lookup(obj.getClass());
+            if (codec != null) {
+                if (codecDepth == MAX_CODEC_DEPTH) {
+                    // pack() throws no checked exception, the BinPackException is the cause
+                    BinPackException cause = new BinPackException("Objects nested deeper than " + MAX_CODEC_DEPTH
+                            + " at " + obj.getClass().getName() + ", the references may form a cycle");
+                    throw new IllegalArgumentException(cause.getMessage(), cause);
+                }
+                codecDepth++;
+                try {
+                    codec.encode(this, obj);
+                } finally {
+                    codecDepth--;
+                }
+            } else {
+                packString("unsupported-type-" + obj.getClass().getName(), UNSUPPORTED_TYPE_CHARSET);
+            }
+        }
+    }
+
+    public void packNull() {
+        writeTag(BIN_TYPE_NULL);
+    }
+
+    public void packBool(boolean v) {
+        writeTag(v ? BIN_TYPE_BOOL : BIN_TYPE_BOOL_FALSE);
+    }
+
+    public void packInteger(Number n) {
+        int tag = BIN_TYPE_INTEGER;
+        if (n instanceof Byte) {
+            tag |= BIN_INTEGER_TYPE_Byte;
+        } else if (n instanceof Short) {
+            tag |= BIN_INTEGER_TYPE_Short;
+        } else if (n instanceof Integer) {
+            tag |= BIN_INTEGER_TYPE_Int;
+        } else if (n instanceof Long) {
+            tag |= BIN_INTEGER_TYPE_Long;
+        }
+        writeInteger(n.longValue(), tag);
+    }
+
+    public void packByte(byte v) {
+        writeInteger(v, BIN_TYPE_INTEGER | BIN_INTEGER_TYPE_Byte);
+    }
+
+    public void packShort(short v) {
+        writeInteger(v, BIN_TYPE_INTEGER | BIN_INTEGER_TYPE_Short);
+    }
+
+    public void packInt(int v) {
+        writeInteger(v, BIN_TYPE_INTEGER | BIN_INTEGER_TYPE_Int);
+    }
+
+    public void packLong(long v) {
+        writeInteger(v, BIN_TYPE_INTEGER | BIN_INTEGER_TYPE_Long);
+    }
+
+    public void packDouble(double d) {
+        writeTag(BIN_TYPE_REAL_DOUBLE);
+        writeLongLE(Double.doubleToLongBits(d));
+    }
+
+    public void packFloat(float f) {
+        writeTag(BIN_TYPE_REAL_FLOAT);
+        writeIntLE(Float.floatToIntBits(f));
+    }
+
+    /**
+     * UTF-8, ISO-8859-1 and US-ASCII strings are encoded straight into the output, other charsets go through
+     * {@link String#getBytes(Charset)}.
+     */
+    public void packString(String s) {
+        switch (charsetKind) {
+            case CHARSET_UTF_8:
+                packUtf8(s);
+                return;
+            case CHARSET_LATIN_1:
+                if (isInRange(s, 0xff)) {
+                    writeNum(s.length(), BIN_TYPE_STRING);
+                    writeChars(s);
+                    return;
+                }
+                break;
+            case CHARSET_ASCII:
+                if (isInRange(s, 0x7f)) {
+                    writeNum(s.length(), BIN_TYPE_STRING);
+                    writeChars(s);
+                    return;
+                }
+                break;
+        }
+        packString(s, charset);
+    }
+
+    private void packString(String s, Charset charset) {
+        if (charset == UTF_8) {
+            packUtf8(s);
+            return;
+        }
+        byte[] bs = s.getBytes(charset);
+        writeNum(bs.length, BIN_TYPE_STRING);
+        writeBytes(bs, 0, bs.length);
+    }
+
+    private void packUtf8(String s) {
+        int len = utf8Length(s);
+        writeNum(len, BIN_TYPE_STRING);
+        writeUtf8(s, len);
+    }
+
+    /**
+     * True if every char of {@code s} is at most {@code max}, so it maps to the one byte of the same value.
+     */
+    private static boolean isInRange(String s, int max) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            if (s.charAt(i) > max) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void packBlob(byte[] bs) {
+        packBlob(bs, 0, bs.length);
+    }
+
+    public void packBlob(byte[] bs, int off, int len) {
+        writeNum(len, BIN_TYPE_BLOB);
+        writeBytes(bs, off, len);
+    }
+
+    /**
+     * A blob view, written from its source.
+     */
+    public void packBlob(BinBlob blob) {
+        if (blob.array != null) {
+            packBlob(blob.array, blob.offset, blob.length);
+        } else {
+            packBlob(blob.copy());
+        }
+    }
+
+    /**
+     * A string view, whose bytes are written as they are if it was decoded with the charset of this encoder.
+     */
+    public void packString(BinString s) {
+        if (!s.charset.equals(charset)) {
+            packString(s.toString());
+        } else if (s.array != null) {
+            writeNum(s.byteLength, BIN_TYPE_STRING);
+            writeBytes(s.array, s.offset, s.byteLength);
+        } else {
+            byte[] bs = new byte[s.byteLength];
+            s.copyTo(bs, 0);
+            writeNum(bs.length, BIN_TYPE_STRING);
+            writeBytes(bs, 0, bs.length);
+        }
+    }
+
+    /**
+     * Open a list, its elements follow and {@link #packEnd()} closes it. Nothing checks the nesting, see
+     * {@link BinPackWriter} for that.
+     */
+    public void packListBegin() {
+        writeTag(BIN_TYPE_LIST);
+    }
+
+    /**
+     * Open a dict, its keys and values follow one after the other and {@link #packEnd()} closes it.
+     */
+    public void packDictBegin() {
+        writeTag(BIN_TYPE_DICT);
+    }
+
+    public void packEnd() {
+        writeTag(BIN_TAG_SHUT);
+    }
+
+    /**
+     * A list; one decoded lazily with the charset of this encoder is copied as it was read.
+     */
+    public void packList(Collection list) {
+        if (list instanceof LazyList) {
+            LazyList lazy = (LazyList) list;
+            if (lazy.charset.equals(charset)) {
+                writeBytes(lazy.buf, lazy.start, lazy.end - lazy.start);
+                return;
+            }
+        }
+        writeTag(BIN_TYPE_LIST);
+        Iterator it = list.iterator();
+        while (it.hasNext()) {
+            pack(it.next());
+        }
+        writeTag(BIN_TAG_SHUT);
+    }
+
+    /**
+     * A dict; one decoded lazily with the charset of this encoder is copied as it was read.
+     */
+    public void packMap(Map map) {
+        if (map instanceof LazyDict) {
+            LazyDict lazy = (LazyDict) map;
+            if (lazy.charset.equals(charset)) {
+                writeBytes(lazy.buf, lazy.start, lazy.end - lazy.start);
+                return;
+            }
+        }
+        writeTag(BIN_TYPE_DICT);
+        Iterator it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry) it.next();
+            pack(entry.getKey());
+            pack(entry.getValue());
+        }
+        writeTag(BIN_TAG_SHUT);
+    }
+
+    /**
+     * A list of ints, the same bytes as a {@code List<Integer>} without boxing.
+     */
+    public void packIntArray(int[] values) {
+        writeTag(BIN_TYPE_LIST);
+        for (int v : values) {
+            writeInteger(v, BIN_TYPE_INTEGER | BIN_INTEGER_TYPE_Int);
+        }
+        writeTag(BIN_TAG_SHUT);
+    }
+
+    public void packLongArray(long[] values) {
+        writeTag(BIN_TYPE_LIST);
+        for (long v : values) {
+            writeInteger(v, BIN_TYPE_INTEGER | BIN_INTEGER_TYPE_Long);
+        }
+        writeTag(BIN_TAG_SHUT);
+    }
+
+    public void packDoubleArray(double[] values) {
+        // all the elements have a fixed size, reserve them at once
+        reserve(9L * values.length + 2);
+        writeTag(BIN_TYPE_LIST);
+        for (double v : values) {
+            packDouble(v);
+        }
+        writeTag(BIN_TAG_SHUT);
+    }
+
+    public void packFloatArray(float[] values) {
+        reserve(5L * values.length + 2);
+        writeTag(BIN_TYPE_LIST);
+        for (float v : values) {
+            packFloat(v);
+        }
+        writeTag(BIN_TAG_SHUT);
+    }
+
+    /**
+     * The exact number of bytes {@link #pack(Object)} would append for {@code obj}.
+     * <p/>
+     * UTF-8 string lengths are counted without encoding; strings in any other charset are encoded
+     * once to measure them.
+     */
+    static long sizeOf(Object obj, Charset charset) {
+        if (obj == null || obj == BinDict.NULL || obj instanceof Boolean) {
+            return 1;
+        } else if (obj instanceof LazyList && ((LazyList) obj).charset.equals(charset)) {
+            return ((LazyList) obj).end - ((LazyList) obj).start;
+        } else if (obj instanceof LazyDict && ((LazyDict) obj).charset.equals(charset)) {
+            return ((LazyDict) obj).end - ((LazyDict) obj).start;
+        } else if (obj instanceof Integer || obj instanceof Long || obj instanceof Short || obj instanceof Byte) {
+            return integerSize(((Number) obj).longValue());
+        } else if (obj instanceof String) {
+            return stringSize((String) obj, charset);
+        } else if (obj instanceof byte[]) {
+            int len = ((byte[]) obj).length;
+            return numSize(len) + len;
+        } else if (obj instanceof BinBlob) {
+            int len = ((BinBlob) obj).length;
+            return numSize(len) + len;
+        } else if (obj instanceof BinString) {
+            BinString s = (BinString) obj;
+            if (!s.charset.equals(charset)) {
+                return stringSize(s.toString(), charset);
+            }
+            return numSize(s.byteLength) + s.byteLength;
+        } else if (obj instanceof Double) {
+            return 9;
+        } else if (obj instanceof Float) {
+            return 5;
+        } else if (obj instanceof Collection) {
+            long size = 2;
+            Iterator it = ((Collection) obj).iterator();
+            while (it.hasNext()) {
+                size += sizeOf(it.next(), charset);
+            }
+            return size;
+        } else if (obj instanceof Map) {
+            long size = 2;
+            Iterator it = ((Map) obj).entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry) it.next();
+                size += sizeOf(entry.getKey(), charset);
+                size += sizeOf(entry.getValue(), charset);
+            }
+            return size;
+        } else if (obj instanceof int[]) {
+            long size = 2;
+            for (int v : (int[]) obj) {
+                size += integerSize(v);
+            }
+            return size;
+        } else if (obj instanceof long[]) {
+            long size = 2;
+            for (long v : (long[]) obj) {
+                size += integerSize(v);
+            }
+            return size;
+        } else if (obj instanceof double[]) {
+            return 2 + 9L * ((double[]) obj).length;
+        } else if (obj instanceof float[]) {
+            return 2 + 5L * ((float[]) obj).length;
+        } else if (obj instanceof BinDict) {
+            return sizeOf(((BinDict) obj).map(), charset);
+        } else if (obj instanceof BinList) {
+            return sizeOf(((BinList) obj).list(), charset);
+        } else if (obj instanceof BinData) {
+            return sizeOf(((BinData) obj).getRawData(), charset);
+        } else {
+            BinPackCodec codec = BinPackCodecs.lookup(obj.getClass());
+            if (codec != null) {
+                // a codec can only tell by encoding
+                BinPackEncoder encoder = new BinPackEncoder(charset);
+                codec.encode(encoder, obj);
+                return encoder.size();
+            }
+            return stringSize("unsupported-type-" + obj.getClass().getName(), UNSUPPORTED_TYPE_CHARSET);
+        }
+    }
+
+    private static long stringSize(String s, Charset charset) {
+        int len = UTF_8.equals(charset) ? utf8Length(s) : s.getBytes(charset).length;
+        return numSize(len) + len;
+    }
+
+    /**
+     * The length of {@code s} in UTF-8, unpaired surrogates count as the one byte replacement.
+     */
+    static int utf8Length(String s) {
+        int n = s.length();
+        int len = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                len += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // 2 chars, 4 bytes
+                len += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                len += 2;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * The size of the tag written by {@link #writeNum(int, int)}.
+     */
+    static int numSize(int len) {
+        int size = 1;
+        while (len > BIN_TAG_PACK_NUM) {
+            size++;
+            len >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * The size of the tag written by {@link #writeInteger(long, int)}.
+     */
+    static int integerSize(long l) {
+        if (l < 0) {
+            l = -l;
+        }
+        int size = 1;
+        while (l >>> 3 != 0) {
+            size++;
+            l >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * The internal buffer, only the first {@link #size()} bytes are valid.
+     * <p/>
+     * The array is shared, not copied: it is overwritten by subsequent writes after {@link #reset()}.
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * The number of bytes encoded so far.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Discard the encoded bytes but keep the buffer, so the encoder can be reused.
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * A copy of the encoded bytes, which later writes do not change; see {@link #getBuffer()} for the bytes in place.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * {@link #ensureCapacity(int)} for a size computed in {@code long}, which may exceed what an array holds.
+     */
+    private void reserve(long n) {
+        if (n > Integer.MAX_VALUE - count) {
+            throw new OutOfMemoryError("Encoded data exceeds 2 GB: " + (count + n));
+        }
+        ensureCapacity((int) n);
+    }
+
+    void ensureCapacity(int n) {
+        if (n > buf.length - count) {
+            grow(n);
+        }
+    }
+
+    private void grow(int n) {
+        int minCapacity = count + n;
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError("Encoded data exceeds 2 GB");
+        }
+        int newCapacity = buf.length << 1;
+        if (newCapacity - minCapacity < 0) {
+            newCapacity = minCapacity;
+        }
+        if (newCapacity < 0) {
+            newCapacity = Integer.MAX_VALUE - 8;
+            if (newCapacity - minCapacity < 0) {
+                newCapacity = minCapacity;
+            }
+        }
+        buf = Arrays.copyOf(buf, newCapacity);
+    }
+
+    void writeTag(int tag) {
+        ensureCapacity(1);
+        buf[count++] = (byte) tag;
+    }
+
+    /**
+     * A length prefixed tag, the last byte is: {@code type | 0000 xxxx}
+     */
+    void writeNum(int len, int type) {
+        if (buf.length - count < MAX_VARINT_SIZE) {
+            // near the end, reserve only what is needed so an exactly sized buffer never grows
+            ensureCapacity(numSize(len));
+        }
+        byte[] buf = this.buf;
+        int pos = count;
+        if (len <= BIN_TAG_PACK_NUM) {
+            buf[pos++] = (byte) (type | len);
+        } else {
+            buf[pos++] = (byte) (BIN_NUM_SIGN_BIT | (len & BIN_NUM_MASK));
+            len >>>= 7;
+            while (len > BIN_TAG_PACK_NUM) {
+                buf[pos++] = (byte) (BIN_NUM_SIGN_BIT | (len & BIN_NUM_MASK));
+                len >>>= 7;
+            }
+            buf[pos++] = (byte) (type | len);
+        }
+        count = pos;
+    }
+
+    /**
+     * An integer tag, the last byte is: {@code tag | 0000 0xxx}
+     */
+    void writeInteger(long l, int tag) {
+        if (l < 0) {
+            l = -l;
+            tag |= BIN_TYPE_INTEGER_NEGATIVE_MASK;
+        }
+        if (buf.length - count < MAX_VARINT_SIZE) {
+            ensureCapacity(integerSize(l));
+        }
+        byte[] buf = this.buf;
+        int pos = count;
+        if (l >>> 3 == 0) {
+            buf[pos++] = (byte) (tag | l);
+        } else {
+            buf[pos++] = (byte) (BIN_NUM_SIGN_BIT | (l & BIN_NUM_MASK));
+            l >>>= 7;
+            while (l >>> 3 != 0) {
+                buf[pos++] = (byte) (BIN_NUM_SIGN_BIT | (l & BIN_NUM_MASK));
+                l >>>= 7;
+            }
+            buf[pos++] = (byte) (tag | l);
+        }
+        count = pos;
+    }
+
+    void writeLongLE(long x) {
+        ensureCapacity(8);
+        byte[] buf = this.buf;
+        int pos = count;
+        buf[pos] = (byte) x;
+        buf[pos + 1] = (byte) (x >> 8);
+        buf[pos + 2] = (byte) (x >> 16);
+        buf[pos + 3] = (byte) (x >> 24);
+        buf[pos + 4] = (byte) (x >> 32);
+        buf[pos + 5] = (byte) (x >> 40);
+        buf[pos + 6] = (byte) (x >> 48);
+        buf[pos + 7] = (byte) (x >> 56);
+        count = pos + 8;
+    }
+
+    void writeIntLE(int x) {
+        ensureCapacity(4);
+        byte[] buf = this.buf;
+        int pos = count;
+        buf[pos] = (byte) x;
+        buf[pos + 1] = (byte) (x >> 8);
+        buf[pos + 2] = (byte) (x >> 16);
+        buf[pos + 3] = (byte) (x >> 24);
+        count = pos + 4;
+    }
+
+    void writeBytes(byte[] bs, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(bs, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Write each char of {@code s} as one byte, all of them are known to be below 0x100.
+     */
+    void writeChars(String s) {
+        int n = s.length();
+        ensureCapacity(n);
+        byte[] buf = this.buf;
+        int pos = count;
+        for (int i = 0; i < n; i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+        count = pos;
+    }
+
+    /**
+     * Write {@code s} in UTF-8, {@code len} is its {@link #utf8Length(String)}. An unpaired surrogate is written
+     * as {@code '?'}, as {@link String#getBytes(Charset)} does.
+     */
+    void writeUtf8(String s, int len) {
+        ensureCapacity(len);
+        byte[] buf = this.buf;
+        int pos = count;
+        int n = s.length();
+        int i = 0;
+        // the ASCII prefix, often the whole string
+        for (char c; i < n && (c = s.charAt(i)) < 0x80; i++) {
+            buf[pos++] = (byte) c;
+        }
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xe0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        count = pos;
+    }
+}
@@ -0,0 +1,454 @@
+package in.srain.binpack;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * A read-only view of a file holding one or more concatenated values, of any size.
+ * <p/>
+ * The file is memory-mapped in chunks, of 1 GB by default, instead of being read into the heap, and values are
+ * addressed by their {@code long} offset in the file. Any value of less than 2 GB is decoded straight from the
+ * mapping with {@link BinPackDecoder#decode(ByteBuffer)}; a larger list or dict is accessed through
+ * {@link #list(long)} and {@link #dict(long)}, which only record the offsets of its elements.
+ * <pre>
+ * BinPackFile file = BinPackFile.open(new File("snapshot.bp"), charset);
+ * for (long offset = 0; offset &lt; file.size(); offset = file.next(offset)) {
+ *     BinPackFile.DictIndex dict = file.dict(offset);
+ *     Object user = dict.get("user");
+ * }
+ * file.close();
+ * </pre>
+ * A file can be shared between threads. Closing it closes the channel; the mappings themselves are released when
+ * they are garbage collected, and must not be used after the file is modified.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class BinPackFile implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final BinPackDecoder decoder;
+    private final long size;
+    private final MappedByteBuffer[] chunks;
+    private final int chunkShift;
+    private final long chunkMask;
+
+    /**
+     * Map the whole of {@code channel} in chunks of 1 GB, decoding values with {@code decoder}.
+     */
+    public BinPackFile(FileChannel channel, BinPackDecoder decoder) throws IOException {
+        this(channel, decoder, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Map the whole of {@code channel} in chunks of {@code chunkSize} bytes, a power of two; a value spanning two
+     * chunks is mapped on its own when decoded.
+     */
+    public BinPackFile(FileChannel channel, BinPackDecoder decoder, int chunkSize) throws IOException {
+        if (chunkSize <= 0 || (chunkSize & (chunkSize - 1)) != 0) {
+            throw new IllegalArgumentException("chunkSize: " + chunkSize);
+        }
+        this.channel = channel;
+        this.decoder = decoder;
+        this.size = channel.size();
+        this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+        this.chunkMask = chunkSize - 1;
+        int count = (int) ((size + chunkSize - 1) >>> chunkShift);
+        chunks = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << chunkShift;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+        }
+    }
+
+    public static BinPackFile open(File file, Charset charset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new BinPackFile(raf.getChannel(), new BinPackDecoder(charset));
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * The size of the file, in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * The type of the value at {@code offset}, as {@link BinPackReader#nextToken()} reports it.
+     */
+    public byte type(long offset) throws BinPackException {
+        Cursor cursor = new Cursor(offset);
+        readTag(cursor);
+        byte type = cursor.type;
+        if (type >= BIN_TYPE_INTEGER) {
+            return BIN_TYPE_INTEGER;
+        }
+        if (type == BIN_TYPE_BOOL_FALSE) {
+            return BIN_TYPE_BOOL;
+        }
+        return type;
+    }
+
+    /**
+     * The offset right after the value at {@code offset}, which is the offset of the next value in a file of
+     * concatenated values, or {@link #size()} after the last one.
+     */
+    public long next(long offset) throws BinPackException {
+        Cursor cursor = new Cursor(offset);
+        skip(cursor);
+        return cursor.pos;
+    }
+
+    /**
+     * Decode the value at {@code offset}.
+     *
+     * @throws BinPackException if the value is truncated, or not smaller than 2 GB
+     */
+    public Object decode(long offset) throws BinPackException {
+        long end = next(offset);
+        long length = end - offset;
+        if (length > Integer.MAX_VALUE) {
+            throw new BinPackException("Value at " + offset + " is " + length + " bytes, use list() or dict()");
+        }
+        ByteBuffer bb;
+        int chunk = (int) (offset >>> chunkShift);
+        if (chunk == (int) ((end - 1) >>> chunkShift)) {
+            bb = chunks[chunk].duplicate();
+            int start = (int) (offset & chunkMask);
+            bb.limit(start + (int) length);
+            bb.position(start);
+        } else {
+            // across chunks
+            try {
+                bb = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            } catch (IOException ex) {
+                throw new BinPackException("Can not map " + length + " bytes at " + offset + ": " + ex.getMessage());
+            }
+        }
+        return decoder.decode(bb);
+    }
+
+    /**
+     * Index the list at {@code offset}.
+     *
+     * @throws BinPackException if it is not a list, or is truncated
+     */
+    public ListIndex list(long offset) throws BinPackException {
+        Cursor cursor = new Cursor(offset);
+        readTag(cursor);
+        if (cursor.type != BIN_TYPE_LIST) {
+            throw new BinPackException("Expected list at " + offset);
+        }
+        long[] offsets = new long[16];
+        int n = 0;
+        while (true) {
+            if (n == offsets.length) {
+                offsets = grow(offsets);
+            }
+            offsets[n] = cursor.pos;
+            if (isShut(cursor)) {
+                return new ListIndex(offsets, n);
+            }
+            skip(cursor);
+            n++;
+        }
+    }
+
+    /**
+     * Index the dict at {@code offset}.
+     *
+     * @throws BinPackException if it is not a dict, or is truncated
+     */
+    public DictIndex dict(long offset) throws BinPackException {
+        Cursor cursor = new Cursor(offset);
+        readTag(cursor);
+        if (cursor.type != BIN_TYPE_DICT) {
+            throw new BinPackException("Expected dict at " + offset);
+        }
+        long[] keyOffsets = new long[16];
+        long[] valueOffsets = new long[16];
+        int n = 0;
+        while (!isShut(cursor)) {
+            if (n == keyOffsets.length) {
+                keyOffsets = grow(keyOffsets);
+                valueOffsets = grow(valueOffsets);
+            }
+            keyOffsets[n] = cursor.pos;
+            skip(cursor);
+            valueOffsets[n] = cursor.pos;
+            if (isShut(cursor)) {
+                throw new BinPackException("Key without value at " + keyOffsets[n]);
+            }
+            skip(cursor);
+            n++;
+        }
+        return new DictIndex(keyOffsets, valueOffsets, n);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * The offsets of the elements of a list, see {@link #list(long)}.
+     */
+    public class ListIndex {
+
+        // offsets[size] is the shut tag
+        private final long[] offsets;
+        private final int size;
+
+        ListIndex(long[] offsets, int size) {
+            this.offsets = offsets;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * The offset of element {@code index}, to pass to {@link BinPackFile#list(long)} for a nested list, or
+         * {@link BinPackFile#dict(long)} for a nested dict.
+         */
+        public long offset(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of range [0.." + size + ")");
+            }
+            return offsets[index];
+        }
+
+        public Object get(int index) throws BinPackException {
+            return decode(offset(index));
+        }
+    }
+
+    /**
+     * The offsets of the keys and values of a dict, see {@link #dict(long)}.
+     * <p/>
+     * String keys are looked up through a hash of their encoded bytes, so no key is decoded.
+     */
+    public class DictIndex {
+
+        private final long[] keyOffsets;
+        private final long[] valueOffsets;
+        private final int size;
+        // entry index + 1 by hash of the encoded key, open addressing, 0 is empty
+        private final int[] table;
+
+        DictIndex(long[] keyOffsets, long[] valueOffsets, int size) throws BinPackException {
+            this.keyOffsets = keyOffsets;
+            this.valueOffsets = valueOffsets;
+            this.size = size;
+            int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 + 1);
+            table = new int[capacity];
+            Cursor cursor = new Cursor(0);
+            for (int i = 0; i < size; i++) {
+                cursor.pos = keyOffsets[i];
+                readTag(cursor);
+                if (cursor.type != BIN_TYPE_STRING) {
+                    continue;
+                }
+                int slot = hash(cursor.pos, (int) cursor.num) & (capacity - 1);
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                table[slot] = i + 1;
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Object key(int index) throws BinPackException {
+            checkIndex(index);
+            return decode(keyOffsets[index]);
+        }
+
+        /**
+         * The offset of the value of entry {@code index}.
+         */
+        public long valueOffset(int index) {
+            checkIndex(index);
+            return valueOffsets[index];
+        }
+
+        /**
+         * The offset of the value of {@code key}, or -1 if there is no such key. Of a key which repeats, the last
+         * counts, as when decoding.
+         */
+        public long offset(String key) throws BinPackException {
+            byte[] bytes = key.getBytes(decoder.getCharset());
+            int mask = table.length - 1;
+            Cursor cursor = new Cursor(0);
+            int last = -1;
+            for (int slot = hash(bytes) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                int i = table[slot] - 1;
+                cursor.pos = keyOffsets[i];
+                readTag(cursor);
+                if (i > last && cursor.num == bytes.length && equalBytes(cursor.pos, bytes)) {
+                    last = i;
+                }
+            }
+            return last < 0 ? -1 : valueOffsets[last];
+        }
+
+        public boolean containsKey(String key) throws BinPackException {
+            return offset(key) >= 0;
+        }
+
+        /**
+         * The value of {@code key}, or null if there is no such key.
+         */
+        public Object get(String key) throws BinPackException {
+            long offset = offset(key);
+            return offset < 0 ? null : decode(offset);
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of range [0.." + size + ")");
+            }
+        }
+    }
+
+    // a position in the file, and the tag last read there
+    private static final class Cursor {
+        long pos;
+        byte type;
+        long num;
+
+        Cursor(long pos) {
+            this.pos = pos;
+        }
+    }
+
+    private byte get(long pos) throws BinPackException {
+        if (pos < 0 || pos >= size) {
+            throw new BinPackException("Truncated at " + pos);
+        }
+        return chunks[(int) (pos >>> chunkShift)].get((int) (pos & chunkMask));
+    }
+
+    /**
+     * Read a tag the way BinPack._unpackTag() does, with a {@code long} position.
+     */
+    private void readTag(Cursor cursor) throws BinPackException {
+        long x = get(cursor.pos++);
+        int shift = 0;
+        long num = 0;
+        while (x < 0) {
+            if (shift > 56) {
+                throw new BinPackException("Malformed tag at " + (cursor.pos - 1));
+            }
+            x &= 0x7f;
+            num |= x << shift;
+            x = get(cursor.pos++);
+            shift += 7;
+        }
+        byte type = (byte) x;
+        if (type < 0x10) {
+            cursor.type = type;
+            cursor.num = 0;
+        } else if (type < BIN_TYPE_INTEGER) {
+            cursor.type = (byte) (type & 0x70);
+            cursor.num = num | (x & 0x0f) << shift;
+        } else {
+            cursor.type = type;
+            cursor.num = num | (x & 0x07) << shift;
+        }
+    }
+
+    /**
+     * Move the cursor past the value at its position.
+     */
+    private void skip(Cursor cursor) throws BinPackException {
+        long start = cursor.pos;
+        int depth = 0;
+        do {
+            readTag(cursor);
+            switch (cursor.type) {
+                case BIN_TYPE_LIST:
+                case BIN_TYPE_DICT:
+                    depth++;
+                    break;
+                case BIN_TAG_SHUT:
+                    depth--;
+                    break;
+                case BIN_TYPE_BLOB:
+                case BIN_TYPE_STRING:
+                    cursor.pos += cursor.num;
+                    break;
+                case BIN_TYPE_REAL_DOUBLE:
+                    cursor.pos += 8;
+                    break;
+                case BIN_TYPE_REAL_FLOAT:
+                    cursor.pos += 4;
+                    break;
+            }
+            if (cursor.pos > size || cursor.pos < start) {
+                throw new BinPackException("Truncated value at " + start);
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * True, with the cursor past it, if the tag at the cursor is a shut tag; the cursor is not moved otherwise.
+     */
+    private boolean isShut(Cursor cursor) throws BinPackException {
+        if (get(cursor.pos) != BIN_TAG_SHUT) {
+            return false;
+        }
+        cursor.pos++;
+        return true;
+    }
+
+    private int hash(long pos, int length) throws BinPackException {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + get(pos + i);
+        }
+        return mix(h);
+    }
+
+    private static int hash(byte[] bytes) {
+        return mix(Arrays.hashCode(bytes));
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private boolean equalBytes(long pos, byte[] bytes) throws BinPackException {
+        for (int i = 0; i < bytes.length; i++) {
+            if (get(pos + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long[] grow(long[] a) {
+        if (a.length >= Integer.MAX_VALUE - 8) {
+            throw new OutOfMemoryError("More than " + a.length + " elements");
+        }
+        return Arrays.copyOf(a, (int) Math.min((long) a.length << 1, Integer.MAX_VALUE - 8));
+    }
+}
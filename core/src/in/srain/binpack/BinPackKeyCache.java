@@ -0,0 +1,144 @@
+package in.srain.binpack;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of decoded dict keys, looked up by their encoded bytes.
+ * <p/>
+ * On a hit the key is compared in place and the cached {@code String} is returned, so no {@code String} or
+ * {@code byte[]} is allocated, and the {@code String} already has its hash code for the {@code HashMap} it goes
+ * into. The cache is direct mapped: each slot holds one key, and a new key simply replaces the one in its slot, so
+ * it never grows beyond its capacity.
+ * <p/>
+ * A cache is thread safe, and is meant to be shared by all the decoders of an application, see
+ * {@link BinPackDecoder#setKeyCache(BinPackKeyCache)}.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class BinPackKeyCache {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int DEFAULT_MAX_KEY_LENGTH = 64;
+
+    private final Entry[] table;
+    private final int mask;
+    private final int maxKeyLength;
+
+    // striped, so that decoders on many threads do not contend on one counter
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public BinPackKeyCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_KEY_LENGTH);
+    }
+
+    /**
+     * @param capacity     the number of slots, rounded up to a power of 2
+     * @param maxKeyLength keys longer than this, in bytes, are not cached
+     */
+    public BinPackKeyCache(int capacity, int maxKeyLength) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        if (maxKeyLength < 0) {
+            throw new IllegalArgumentException("maxKeyLength: " + maxKeyLength);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.table = new Entry[size];
+        this.mask = size - 1;
+        this.maxKeyLength = maxKeyLength;
+    }
+
+    /**
+     * The key encoded in {@code buf[off, off + len)}.
+     */
+    String get(byte[] buf, int off, int len, Charset charset) {
+        if (len > maxKeyLength) {
+            misses.increment();
+            return new String(buf, off, len, charset);
+        }
+        int h = hash(buf, off, len);
+        int index = (h ^ (h >>> 16)) & mask;
+        // entries are immutable, so a racy read sees either a whole entry or null
+        Entry e = table[index];
+        if (e != null && e.hash == h && e.matches(buf, off, len)
+                && (e.charset == charset || e.charset.equals(charset))) {
+            hits.increment();
+            return e.value;
+        }
+        misses.increment();
+        String value = new String(buf, off, len, charset);
+        byte[] bytes = new byte[len];
+        System.arraycopy(buf, off, bytes, 0, len);
+        table[index] = new Entry(bytes, h, charset, value);
+        return value;
+    }
+
+    /**
+     * The number of keys found in the cache so far; like {@link #getMissCount()}, not a snapshot while decoders run.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public int getCapacity() {
+        return table.length;
+    }
+
+    /**
+     * Drop every cached key, the counters are kept.
+     */
+    public void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BinPackKeyCache{capacity=" + table.length + ", hits=" + hits.sum() + ", misses=" + misses.sum() + "}";
+    }
+
+    private static int hash(byte[] buf, int off, int len) {
+        int h = 1;
+        for (int i = off, end = off + len; i < end; i++) {
+            h = 31 * h + buf[i];
+        }
+        return h;
+    }
+
+    private static final class Entry {
+        final byte[] bytes;
+        final int hash;
+        final Charset charset;
+        final String value;
+
+        Entry(byte[] bytes, int hash, Charset charset, String value) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.charset = charset;
+            this.value = value;
+        }
+
+        boolean matches(byte[] buf, int off, int len) {
+            byte[] bytes = this.bytes;
+            if (bytes.length != len) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (bytes[i] != buf[off + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
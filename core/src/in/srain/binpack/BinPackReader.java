@@ -0,0 +1,390 @@
+package in.srain.binpack;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * A pull parser over encoded data, for reading values without building a tree of objects.
+ * <p/>
+ * {@link #nextToken()} tells the type of the next value without consuming it, as one of the {@code BIN_TYPE_*}
+ * constants of {@link BinPack}: integers of any width are {@link BinPack#BIN_TYPE_INTEGER}, true and false are
+ * {@link BinPack#BIN_TYPE_BOOL}, the end of a list or dict is {@link BinPack#BIN_TAG_SHUT} and the end of input
+ * is {@link #END_OF_INPUT}. The {@code read*} methods then consume the value.
+ * <pre>
+ * reader.beginDict();
+ * while (reader.hasNext()) {
+ *     String name = reader.readString();
+ *     if ("id".equals(name)) {
+ *         id = reader.readLong();
+ *     } else {
+ *         reader.skipValue();
+ *     }
+ * }
+ * reader.endDict();
+ * </pre>
+ * A reader is not thread safe.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class BinPackReader {
+
+    public static final byte END_OF_INPUT = -1;
+
+    private final DecodeCtx ctx;
+
+    // the tag of the next value has been read into ctx, and ctx.pos is past it
+    private boolean peeked;
+    private int tagStart;
+
+    // the open containers
+    private byte[] stack = new byte[16];
+    private int depth;
+
+    public BinPackReader(byte[] bs, Charset charset) {
+        this(bs, 0, bs.length, charset);
+    }
+
+    public BinPackReader(byte[] bs, int offset, int length, Charset charset) {
+        if ((offset | length) < 0 || length > bs.length - offset) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + bs.length);
+        }
+        ctx = new DecodeCtx();
+        ctx.buf = bs;
+        ctx.pos = offset;
+        ctx.limit = offset + length;
+        ctx.charset = charset;
+    }
+
+    /**
+     * Read from position to limit of a heap or direct buffer; the buffer itself is not moved.
+     */
+    public BinPackReader(ByteBuffer bb, Charset charset) {
+        ctx = newDecodeCtx(bb, charset);
+    }
+
+    /**
+     * The type of the next value, see the class comment.
+     */
+    public byte nextToken() throws BinPackException {
+        if (!peeked) {
+            if (ctx.pos >= ctx.limit) {
+                return END_OF_INPUT;
+            }
+            tagStart = ctx.pos;
+            int result = _unpackTag(ctx);
+            if (result == -1) {
+                throw new BinPackException("Malformed tag at " + (tagStart - ctx.base));
+            }
+            if (result < 0) {
+                throw truncated();
+            }
+            peeked = true;
+        }
+        byte type = ctx.type;
+        if (type >= BIN_TYPE_INTEGER) {
+            return BIN_TYPE_INTEGER;
+        }
+        if (type == BIN_TYPE_BOOL_FALSE) {
+            return BIN_TYPE_BOOL;
+        }
+        return type;
+    }
+
+    /**
+     * True if the current list or dict, or the input at the top level, has more values.
+     */
+    public boolean hasNext() throws BinPackException {
+        byte token = nextToken();
+        return token != BIN_TAG_SHUT && token != END_OF_INPUT;
+    }
+
+    /**
+     * The nesting level, 0 at the top level.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * The offset of the next value, in the array or buffer.
+     */
+    public int position() {
+        return (peeked ? tagStart : ctx.pos) - ctx.base;
+    }
+
+    public void beginList() throws BinPackException {
+        expect(BIN_TYPE_LIST, "list");
+        push(BIN_TYPE_LIST);
+    }
+
+    public void endList() throws BinPackException {
+        pop(BIN_TYPE_LIST, "list");
+    }
+
+    public void beginDict() throws BinPackException {
+        expect(BIN_TYPE_DICT, "dict");
+        push(BIN_TYPE_DICT);
+    }
+
+    public void endDict() throws BinPackException {
+        pop(BIN_TYPE_DICT, "dict");
+    }
+
+    public boolean readBoolean() throws BinPackException {
+        expect(BIN_TYPE_BOOL, "boolean");
+        return ctx.type == BIN_TYPE_BOOL;
+    }
+
+    public void readNull() throws BinPackException {
+        expect(BIN_TYPE_NULL, "null");
+    }
+
+    /**
+     * Read an integer of any width, or a real truncated to a long.
+     */
+    public long readLong() throws BinPackException {
+        byte token = nextToken();
+        if (token == BIN_TYPE_INTEGER) {
+            peeked = false;
+            return makeLong(ctx);
+        }
+        if (token == BIN_TYPE_REAL_DOUBLE || token == BIN_TYPE_REAL_FLOAT) {
+            return (long) readDouble();
+        }
+        throw mismatch("long");
+    }
+
+    public int readInt() throws BinPackException {
+        return (int) readLong();
+    }
+
+    public short readShort() throws BinPackException {
+        return (short) readLong();
+    }
+
+    public byte readByte() throws BinPackException {
+        return (byte) readLong();
+    }
+
+    /**
+     * Read a real or an integer as a double.
+     */
+    public double readDouble() throws BinPackException {
+        byte token = nextToken();
+        if (token == BIN_TYPE_REAL_DOUBLE) {
+            requirePayload(8);
+            peeked = false;
+            return Double.longBitsToDouble(ctx.readLongLE());
+        }
+        if (token == BIN_TYPE_REAL_FLOAT) {
+            requirePayload(4);
+            peeked = false;
+            return Float.intBitsToFloat(ctx.readIntLE());
+        }
+        if (token == BIN_TYPE_INTEGER) {
+            return readLong();
+        }
+        throw mismatch("double");
+    }
+
+    public float readFloat() throws BinPackException {
+        return (float) readDouble();
+    }
+
+    public String readString() throws BinPackException {
+        if (nextToken() != BIN_TYPE_STRING) {
+            throw mismatch("String");
+        }
+        requirePayload(ctx.num);
+        peeked = false;
+        try {
+            return ctx.readString((int) ctx.num);
+        } catch (Exception ex) {
+            throw new BinPackException("Can not decode string: " + ex);
+        }
+    }
+
+    /**
+     * Read a string of one character, as a {@code char} is encoded.
+     */
+    public char readChar() throws BinPackException {
+        String s = readString();
+        if (s.length() != 1) {
+            throw new BinPackException("Expected a single character, got a string of " + s.length());
+        }
+        return s.charAt(0);
+    }
+
+    public byte[] readBlob() throws BinPackException {
+        if (nextToken() != BIN_TYPE_BLOB) {
+            throw mismatch("byte[]");
+        }
+        requirePayload(ctx.num);
+        peeked = false;
+        return ctx.readBlob((int) ctx.num);
+    }
+
+    /**
+     * Read a list of numbers into an array, without boxing them.
+     */
+    public int[] readIntArray() throws BinPackException {
+        beginList();
+        int[] result = new int[16];
+        int n = 0;
+        while (hasNext()) {
+            if (n == result.length) {
+                result = Arrays.copyOf(result, n << 1);
+            }
+            result[n++] = readInt();
+        }
+        endList();
+        return Arrays.copyOf(result, n);
+    }
+
+    public long[] readLongArray() throws BinPackException {
+        beginList();
+        long[] result = new long[16];
+        int n = 0;
+        while (hasNext()) {
+            if (n == result.length) {
+                result = Arrays.copyOf(result, n << 1);
+            }
+            result[n++] = readLong();
+        }
+        endList();
+        return Arrays.copyOf(result, n);
+    }
+
+    public double[] readDoubleArray() throws BinPackException {
+        beginList();
+        double[] result = new double[16];
+        int n = 0;
+        while (hasNext()) {
+            if (n == result.length) {
+                result = Arrays.copyOf(result, n << 1);
+            }
+            result[n++] = readDouble();
+        }
+        endList();
+        return Arrays.copyOf(result, n);
+    }
+
+    public float[] readFloatArray() throws BinPackException {
+        beginList();
+        float[] result = new float[16];
+        int n = 0;
+        while (hasNext()) {
+            if (n == result.length) {
+                result = Arrays.copyOf(result, n << 1);
+            }
+            result[n++] = readFloat();
+        }
+        endList();
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Read the next value as an object tree, like {@link BinPack#decode(byte[], String)} does.
+     */
+    public Object readValue() throws BinPackException {
+        byte token = nextToken();
+        if (token == END_OF_INPUT || token == BIN_TAG_SHUT) {
+            throw mismatch("value");
+        }
+        int start = tagStart;
+        ctx.pos = start;
+        peeked = false;
+        Object value = doDecode(ctx);
+        if (value == null && token != BIN_TYPE_NULL) {
+            throw new BinPackException("Malformed value at " + (start - ctx.base));
+        }
+        return value;
+    }
+
+    /**
+     * Skip the next value, a list or dict is skipped as a whole.
+     */
+    public void skipValue() throws BinPackException {
+        byte token = nextToken();
+        if (token == END_OF_INPUT || token == BIN_TAG_SHUT) {
+            throw mismatch("value");
+        }
+        ctx.pos = tagStart;
+        peeked = false;
+        if (BinPack.skipValue(ctx) < 0) {
+            throw truncated();
+        }
+    }
+
+    private void expect(byte token, String name) throws BinPackException {
+        if (nextToken() != token) {
+            throw mismatch(name);
+        }
+        peeked = false;
+    }
+
+    private void requirePayload(long size) throws BinPackException {
+        if (size > ctx.limit - ctx.pos) {
+            throw truncated();
+        }
+    }
+
+    private void push(byte type) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth << 1);
+        }
+        stack[depth++] = type;
+    }
+
+    private void pop(byte type, String name) throws BinPackException {
+        if (depth == 0 || stack[depth - 1] != type) {
+            throw new BinPackException("Not in a " + name + " at " + position());
+        }
+        if (nextToken() != BIN_TAG_SHUT) {
+            throw new BinPackException("Expected end of " + name + " but was " + tokenName(nextToken())
+                    + " at " + position());
+        }
+        peeked = false;
+        depth--;
+    }
+
+    private BinPackException mismatch(String requiredType) throws BinPackException {
+        return new BinPackException("Expected " + requiredType + " but was " + tokenName(nextToken())
+                + " at " + position());
+    }
+
+    private BinPackException truncated() {
+        return new BinPackException("Unexpected end of input at " + (ctx.pos - ctx.base));
+    }
+
+    private static String tokenName(byte token) {
+        switch (token) {
+            case END_OF_INPUT:
+                return "end of input";
+            case BIN_TAG_SHUT:
+                return "end of container";
+            case BIN_TYPE_LIST:
+                return "list";
+            case BIN_TYPE_DICT:
+                return "dict";
+            case BIN_TYPE_BOOL:
+                return "boolean";
+            case BIN_TYPE_NULL:
+                return "null";
+            case BIN_TYPE_INTEGER:
+                return "integer";
+            case BIN_TYPE_REAL_DOUBLE:
+                return "double";
+            case BIN_TYPE_REAL_FLOAT:
+                return "float";
+            case BIN_TYPE_STRING:
+                return "string";
+            case BIN_TYPE_BLOB:
+                return "blob";
+        }
+        return "unknown type " + token;
+    }
+}
@@ -0,0 +1,300 @@
+package in.srain.binpack;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * A resumable decoder for a stream of concatenated values, fed in arbitrary chunks.
+ * <p/>
+ * Values are decoded as their bytes arrive: scalars are materialized as soon as they are complete, and lists and
+ * dicts are kept on an explicit stack until their shut tag is seen. A tag or a string split across two chunks is
+ * simply resumed from its start when more bytes come in, and consumed bytes are dropped, so the buffer only ever
+ * holds the value being read, not the whole document.
+ * <pre>
+ * BinPackStreamDecoder decoder = new BinPackStreamDecoder(charset);
+ * while (channel.read(...) ...) {
+ *     decoder.feed(chunk);
+ *     while (decoder.hasNext()) {
+ *         handle(decoder.next());
+ *     }
+ * }
+ * </pre>
+ * A decoder is not thread safe.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class BinPackStreamDecoder {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private static final Object NO_KEY = new Object();
+
+    // a list or dict which decodes to null, see emit()
+    private static final Object FAILED = new Object();
+
+    // ArrayDeque does not take null
+    private static final Object NULL_VALUE = new Object();
+
+    private final DecodeCtx ctx = new DecodeCtx();
+    private final ArrayDeque<Object> ready = new ArrayDeque<Object>();
+
+    // the open containers and, for dicts, the key waiting for its value
+    private Object[] containers = new Object[16];
+    private Object[] keys = new Object[16];
+    private int depth;
+
+    public BinPackStreamDecoder(Charset charset) {
+        ctx.buf = new byte[DEFAULT_CAPACITY];
+        ctx.charset = charset;
+    }
+
+    /**
+     * Append bytes to the input.
+     */
+    public void feed(byte[] bs, int off, int len) {
+        ensureSpace(len);
+        System.arraycopy(bs, off, ctx.buf, ctx.limit, len);
+        ctx.limit += len;
+    }
+
+    /**
+     * Append all the remaining bytes of {@code src} to the input.
+     */
+    public void feed(ByteBuffer src) {
+        int len = src.remaining();
+        ensureSpace(len);
+        src.get(ctx.buf, ctx.limit, len);
+        ctx.limit += len;
+    }
+
+    /**
+     * Read one chunk from {@code in}.
+     *
+     * @return the number of bytes read, or -1 at end of stream
+     */
+    public int readFrom(InputStream in) throws IOException {
+        ensureSpace(1);
+        int n = in.read(ctx.buf, ctx.limit, ctx.buf.length - ctx.limit);
+        if (n > 0) {
+            ctx.limit += n;
+        }
+        return n;
+    }
+
+    /**
+     * Read what is available from {@code ch}, which may be non-blocking.
+     *
+     * @return the number of bytes read, possibly 0, or -1 at end of stream
+     */
+    public int readFrom(ReadableByteChannel ch) throws IOException {
+        ensureSpace(1);
+        ByteBuffer bb = ByteBuffer.wrap(ctx.buf, ctx.limit, ctx.buf.length - ctx.limit);
+        int n = ch.read(bb);
+        if (n > 0) {
+            ctx.limit += n;
+        }
+        return n;
+    }
+
+    /**
+     * Read from {@code in} until one value is complete, and return it.
+     *
+     * @throws EOFException if the stream ends first
+     */
+    public Object read(InputStream in) throws IOException, BinPackException {
+        while (!hasNext()) {
+            if (readFrom(in) < 0) {
+                throw new EOFException(isIdle() ? "End of stream" : "End of stream inside a value");
+            }
+        }
+        return next();
+    }
+
+    /**
+     * Read from a blocking channel until one value is complete, and return it.
+     *
+     * @throws EOFException if the channel ends first
+     */
+    public Object read(ReadableByteChannel ch) throws IOException, BinPackException {
+        while (!hasNext()) {
+            if (readFrom(ch) < 0) {
+                throw new EOFException(isIdle() ? "End of stream" : "End of stream inside a value");
+            }
+        }
+        return next();
+    }
+
+    /**
+     * Decode as much of the input as possible, and tell whether a complete value is ready.
+     *
+     * @throws BinPackException if the input is malformed; the decoder can not be used afterwards
+     */
+    public boolean hasNext() throws BinPackException {
+        while (ready.isEmpty()) {
+            if (!step()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The next complete value.
+     *
+     * @throws NoSuchElementException if no value is complete yet
+     */
+    public Object next() throws BinPackException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object value = ready.poll();
+        return value == NULL_VALUE ? null : value;
+    }
+
+    /**
+     * True if no value is partially decoded and no input is left over.
+     */
+    public boolean isIdle() {
+        return depth == 0 && ctx.pos == ctx.limit;
+    }
+
+    /**
+     * Decode one tag and its payload.
+     *
+     * @return false if more input is needed
+     */
+    private boolean step() throws BinPackException {
+        DecodeCtx ctx = this.ctx;
+        int start = ctx.pos;
+        int result = _unpackTag(ctx);
+        if (result == -1) {
+            throw new BinPackException("Malformed tag");
+        }
+        if (result < 0) {
+            // incomplete tag, resume from its first byte
+            ctx.pos = start;
+            return false;
+        }
+
+        switch (ctx.type) {
+            case BIN_TAG_SHUT:
+                if (depth == 0) {
+                    // a stray shut tag decodes to null, like BinPack.decode
+                    emit(null);
+                    return true;
+                }
+                if (keys[depth - 1] != NO_KEY) {
+                    // a key without value
+                    emit(FAILED);
+                    return true;
+                }
+                Object container = containers[--depth];
+                containers[depth] = null;
+                keys[depth] = null;
+                emit(container);
+                return true;
+
+            case BIN_TYPE_LIST:
+                push(new ArrayList());
+                return true;
+
+            case BIN_TYPE_DICT:
+                push(new HashMap());
+                return true;
+        }
+
+        if (payloadSize(ctx) > ctx.limit - ctx.pos) {
+            ctx.pos = start;
+            return false;
+        }
+        emit(makeValue(ctx));
+        return true;
+    }
+
+    private void push(Object container) {
+        if (depth == containers.length) {
+            containers = Arrays.copyOf(containers, depth << 1);
+            keys = Arrays.copyOf(keys, depth << 1);
+        }
+        containers[depth] = container;
+        keys[depth] = NO_KEY;
+        depth++;
+    }
+
+    /**
+     * Add a complete value to the innermost container, or hand it out if it is at the top level.
+     * <p/>
+     * As in {@link BinPack#doDecode}, a dict with a null key or a key without value fails: it is dropped from the
+     * stack and its parent gets a null, while the bytes after the failure are read on in the parent.
+     */
+    private void emit(Object value) {
+        while (true) {
+            if (value == FAILED) {
+                depth--;
+                containers[depth] = null;
+                keys[depth] = null;
+                value = null;
+                if (depth == 0) {
+                    break;
+                }
+                continue;
+            }
+            if (depth == 0) {
+                break;
+            }
+            Object container = containers[depth - 1];
+            if (container instanceof List) {
+                ((List) container).add(value);
+            } else if (keys[depth - 1] == NO_KEY) {
+                if (value == null) {
+                    value = FAILED;
+                    continue;
+                }
+                keys[depth - 1] = value;
+            } else {
+                ((Map) container).put(keys[depth - 1], value);
+                keys[depth - 1] = NO_KEY;
+            }
+            return;
+        }
+        ready.add(value == null ? NULL_VALUE : value);
+    }
+
+    /**
+     * Make room for {@code len} more bytes, dropping what has been consumed.
+     */
+    private void ensureSpace(int len) {
+        byte[] buf = ctx.buf;
+        if (len <= buf.length - ctx.limit) {
+            return;
+        }
+        int pending = ctx.limit - ctx.pos;
+        if (len > buf.length - pending) {
+            int newCapacity = Math.max(buf.length << 1, pending + len);
+            if (newCapacity < 0) {
+                throw new OutOfMemoryError("Buffered data exceeds 2 GB");
+            }
+            byte[] newBuf = new byte[newCapacity];
+            System.arraycopy(buf, ctx.pos, newBuf, 0, pending);
+            ctx.buf = newBuf;
+        } else {
+            System.arraycopy(buf, ctx.pos, buf, 0, pending);
+        }
+        ctx.pos = 0;
+        ctx.limit = pending;
+    }
+}
@@ -1,10 +1,13 @@
 package in.srain.binpack;
 
+import java.util.Collection;
+
 /**
  * An util tool for data conversion.
  *
  * @author http://www.liaohuqiu.net
  */
+@SuppressWarnings("rawtypes")
 public class BinPackType {
 
     static Boolean toBoolean(Object value) {
@@ -93,6 +96,111 @@ public class BinPackType {
         return null;
     }
 
+    /**
+     * A lazily decoded list is read straight from its bytes; any other collection is unboxed element by element.
+     * An array put in as it is comes back as a copy, like the other paths give a new array, so changing the result
+     * does not change the dict or list it was read from.
+     */
+    static int[] toIntArray(Object value) {
+        if (value instanceof int[]) {
+            return ((int[]) value).clone();
+        }
+        if (value instanceof LazyList) {
+            int[] result = ((LazyList) value).toIntArray();
+            if (result != null) {
+                return result;
+            }
+        }
+        if (value instanceof Collection) {
+            int[] result = new int[((Collection) value).size()];
+            int i = 0;
+            for (Object element : (Collection) value) {
+                Integer x = toInteger(element);
+                if (x == null) {
+                    return null;
+                }
+                result[i++] = x;
+            }
+            return result;
+        }
+        return null;
+    }
+
+    static long[] toLongArray(Object value) {
+        if (value instanceof long[]) {
+            return ((long[]) value).clone();
+        }
+        if (value instanceof LazyList) {
+            long[] result = ((LazyList) value).toLongArray();
+            if (result != null) {
+                return result;
+            }
+        }
+        if (value instanceof Collection) {
+            long[] result = new long[((Collection) value).size()];
+            int i = 0;
+            for (Object element : (Collection) value) {
+                Long x = toLong(element);
+                if (x == null) {
+                    return null;
+                }
+                result[i++] = x;
+            }
+            return result;
+        }
+        return null;
+    }
+
+    static double[] toDoubleArray(Object value) {
+        if (value instanceof double[]) {
+            return ((double[]) value).clone();
+        }
+        if (value instanceof LazyList) {
+            double[] result = ((LazyList) value).toDoubleArray();
+            if (result != null) {
+                return result;
+            }
+        }
+        if (value instanceof Collection) {
+            double[] result = new double[((Collection) value).size()];
+            int i = 0;
+            for (Object element : (Collection) value) {
+                Double x = toDouble(element);
+                if (x == null) {
+                    return null;
+                }
+                result[i++] = x;
+            }
+            return result;
+        }
+        return null;
+    }
+
+    static float[] toFloatArray(Object value) {
+        if (value instanceof float[]) {
+            return ((float[]) value).clone();
+        }
+        if (value instanceof LazyList) {
+            float[] result = ((LazyList) value).toFloatArray();
+            if (result != null) {
+                return result;
+            }
+        }
+        if (value instanceof Collection) {
+            float[] result = new float[((Collection) value).size()];
+            int i = 0;
+            for (Object element : (Collection) value) {
+                Double x = toDouble(element);
+                if (x == null) {
+                    return null;
+                }
+                result[i++] = x.floatValue();
+            }
+            return result;
+        }
+        return null;
+    }
+
     public static BinPackException typeMismatch(Object indexOrName, Object actual, String requiredType) throws BinPackException {
         if (actual == null) {
             throw new BinPackException("Value at " + indexOrName + " is null.");
@@ -0,0 +1,235 @@
+package in.srain.binpack;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * A streaming writer, for encoding straight from your own objects without building a {@code Map} /
+ * {@code Collection} tree first.
+ * <p/>
+ * It emits the same bytes {@link BinPack#encode(Object, String)} does for the equivalent tree:
+ * <pre>
+ * writer.beginDict();
+ * writer.writeString("id").writeLong(id);
+ * writer.writeString("tags").beginList();
+ * for (String tag : tags) {
+ *     writer.writeString(tag);
+ * }
+ * writer.end();
+ * writer.end();
+ * </pre>
+ * In a dict, keys and values are simply written one after the other. Misplaced calls, such as a null key, a key
+ * without a value or an {@link #end()} too many, throw {@link IllegalStateException}.
+ * <p/>
+ * A writer over an {@link OutputStream} flushes its buffer every few KB, so an unbounded list can be written in
+ * constant memory. A writer over a {@link BinPackEncoder} leaves the bytes in the encoder. A writer is not thread
+ * safe.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class BinPackWriter implements Closeable, Flushable {
+
+    private static final int FLUSH_THRESHOLD = 8192;
+
+    private final BinPackEncoder encoder;
+    private final OutputStream out;
+
+    // the open containers, and the number of values written in each
+    private byte[] stack = new byte[16];
+    private int[] counts = new int[16];
+    private int depth;
+
+    public BinPackWriter(OutputStream out, Charset charset) {
+        this.encoder = new BinPackEncoder(charset, FLUSH_THRESHOLD + FLUSH_THRESHOLD / 2);
+        this.out = out;
+    }
+
+    public BinPackWriter(BinPackEncoder encoder) {
+        this.encoder = encoder;
+        this.out = null;
+    }
+
+    public BinPackWriter beginList() throws IOException {
+        encoder.writeTag(BIN_TYPE_LIST);
+        push(BIN_TYPE_LIST);
+        return this;
+    }
+
+    public BinPackWriter beginDict() throws IOException {
+        encoder.writeTag(BIN_TYPE_DICT);
+        push(BIN_TYPE_DICT);
+        return this;
+    }
+
+    /**
+     * Close the innermost list or dict.
+     */
+    public BinPackWriter end() throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("Nothing to end");
+        }
+        if (stack[depth - 1] == BIN_TYPE_DICT && (counts[depth - 1] & 1) != 0) {
+            throw new IllegalStateException("Dict key without a value");
+        }
+        depth--;
+        encoder.writeTag(BIN_TAG_SHUT);
+        return afterValue();
+    }
+
+    public BinPackWriter writeNull() throws IOException {
+        checkNullKey();
+        encoder.packNull();
+        return afterValue();
+    }
+
+    public BinPackWriter writeBoolean(boolean v) throws IOException {
+        encoder.packBool(v);
+        return afterValue();
+    }
+
+    public BinPackWriter writeByte(byte v) throws IOException {
+        encoder.packByte(v);
+        return afterValue();
+    }
+
+    public BinPackWriter writeShort(short v) throws IOException {
+        encoder.packShort(v);
+        return afterValue();
+    }
+
+    public BinPackWriter writeInt(int v) throws IOException {
+        encoder.packInt(v);
+        return afterValue();
+    }
+
+    public BinPackWriter writeLong(long v) throws IOException {
+        encoder.packLong(v);
+        return afterValue();
+    }
+
+    public BinPackWriter writeDouble(double v) throws IOException {
+        encoder.packDouble(v);
+        return afterValue();
+    }
+
+    public BinPackWriter writeFloat(float v) throws IOException {
+        encoder.packFloat(v);
+        return afterValue();
+    }
+
+    public BinPackWriter writeString(CharSequence s) throws IOException {
+        encoder.packString(s.toString());
+        return afterValue();
+    }
+
+    public BinPackWriter writeBlob(byte[] bs) throws IOException {
+        return writeBlob(bs, 0, bs.length);
+    }
+
+    public BinPackWriter writeBlob(byte[] bs, int off, int len) throws IOException {
+        encoder.packBlob(bs, off, len);
+        return afterValue();
+    }
+
+    /**
+     * Write a list of ints, as {@link BinPackEncoder#packIntArray(int[])} does.
+     */
+    public BinPackWriter writeIntArray(int[] values) throws IOException {
+        encoder.packIntArray(values);
+        return afterValue();
+    }
+
+    public BinPackWriter writeLongArray(long[] values) throws IOException {
+        encoder.packLongArray(values);
+        return afterValue();
+    }
+
+    public BinPackWriter writeDoubleArray(double[] values) throws IOException {
+        encoder.packDoubleArray(values);
+        return afterValue();
+    }
+
+    public BinPackWriter writeFloatArray(float[] values) throws IOException {
+        encoder.packFloatArray(values);
+        return afterValue();
+    }
+
+    /**
+     * Write a whole object tree, as {@link BinPack#pack(OutputStream, Object, String)} does.
+     */
+    public BinPackWriter writeValue(Object obj) throws IOException {
+        if (obj == null) {
+            checkNullKey();
+        }
+        encoder.pack(obj);
+        return afterValue();
+    }
+
+    /**
+     * The nesting level, 0 at the top level.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Write the buffered bytes to the output stream, if any.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            encoder.writeTo(out);
+            encoder.reset();
+            out.flush();
+        }
+    }
+
+    /**
+     * Flush and close the output stream, if any.
+     *
+     * @throws IllegalStateException if a list or dict is still open
+     */
+    @Override
+    public void close() throws IOException {
+        if (depth != 0) {
+            throw new IllegalStateException("Unclosed list or dict, depth: " + depth);
+        }
+        if (out != null) {
+            flush();
+            out.close();
+        }
+    }
+
+    private void checkNullKey() {
+        if (depth > 0 && stack[depth - 1] == BIN_TYPE_DICT && (counts[depth - 1] & 1) == 0) {
+            throw new IllegalStateException("Dict key can not be null");
+        }
+    }
+
+    private BinPackWriter afterValue() throws IOException {
+        if (depth > 0) {
+            counts[depth - 1]++;
+        }
+        if (out != null && encoder.size() >= FLUSH_THRESHOLD) {
+            encoder.writeTo(out);
+            encoder.reset();
+        }
+        return this;
+    }
+
+    private void push(byte type) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth << 1);
+            counts = Arrays.copyOf(counts, depth << 1);
+        }
+        stack[depth] = type;
+        counts[depth] = 0;
+        depth++;
+    }
+}
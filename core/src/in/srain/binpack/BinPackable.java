@@ -0,0 +1,24 @@
+package in.srain.binpack;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class to be encoded as a dict of its fields, by a {@link BinPackCodec} generated at build time.
+ * <p/>
+ * With the {@code binpack-processor} module on the annotation processor path, the compiler generates the codec
+ * {@code <ClassName>$$BinPackCodec} next to the class; {@link BinPackCodecs} finds it the first time an instance
+ * is packed. Every non-static, non-transient field is a key of the dict, under the field name. A field is read and
+ * written directly unless it is private, in which case its getter and setter are used. The class needs a non-private
+ * constructor without arguments.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface BinPackable {
+}
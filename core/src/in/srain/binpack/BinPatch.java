@@ -0,0 +1,469 @@
+package in.srain.binpack;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * Changes to encoded data, applied by splicing bytes instead of decoding and encoding again.
+ * <p/>
+ * Each operation walks the encoded bytes along its path like {@link BinPath#extract(byte[])}, splitting only the
+ * lists and dicts on its way into their elements, and then replaces, removes or inserts one value. The patched data
+ * is built once, after the last operation, with the bytes of every subtree the operations did not reach copied as
+ * they are. A patch reads the lists and dicts on the paths of its operations once, skipping the elements off the
+ * paths tag by tag, however many operations it has; nothing else is read, the value itself is not measured in
+ * advance. New values are encoded once, when the operation is added.
+ * <pre>
+ * BinPatch patch = new BinPatch(charset)
+ *         .set("status", 3)
+ *         .append("events", event);
+ * byte[] patched = patch.apply(bs);
+ * </pre>
+ * The operations are applied in the order they were added. A patch can be applied to any number of messages, and
+ * shared between threads once built.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public final class BinPatch {
+
+    // the operation kinds, also written to deltas by BinDiff
+    static final int SET = 0;
+    static final int REMOVE = 1;
+    static final int APPEND = 2;
+
+    // reads any bytes as a String of as many chars, so that dict keys are looked up by their encoded bytes
+    private static final Charset KEY_CHARSET = Charset.forName("ISO-8859-1");
+
+    private final Charset charset;
+    private final List<Op> ops = new ArrayList<Op>();
+
+    public BinPatch(Charset charset) {
+        this.charset = charset;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * See {@link #set(BinPath, Object)}.
+     */
+    public BinPatch set(String path, Object value) {
+        return set(BinPath.compile(path, charset), value);
+    }
+
+    /**
+     * Set the value at {@code path}. A key missing from its dict is added at the end of the dict, and of a key
+     * repeated in its dict the last occurrence is set, the one decoding keeps; a list index must be in range. The
+     * empty path replaces the whole value.
+     */
+    public BinPatch set(BinPath path, Object value) {
+        byte[] bs = BinPack.encode(value, charset);
+        return add(SET, path, bs, 0, bs.length);
+    }
+
+    /**
+     * See {@link #remove(BinPath)}.
+     */
+    public BinPatch remove(String path) {
+        return remove(BinPath.compile(path, charset));
+    }
+
+    /**
+     * Remove the dict key, every occurrence of it if it is repeated, or the list element at {@code path}; nothing
+     * happens if there is none.
+     */
+    public BinPatch remove(BinPath path) {
+        if (path.depth() == 0) {
+            throw new IllegalArgumentException("Can not remove the root value");
+        }
+        return add(REMOVE, path, null, 0, 0);
+    }
+
+    /**
+     * See {@link #append(BinPath, Object)}.
+     */
+    public BinPatch append(String path, Object value) {
+        return append(BinPath.compile(path, charset), value);
+    }
+
+    /**
+     * Add {@code value} at the end of the list at {@code path}.
+     */
+    public BinPatch append(BinPath path, Object value) {
+        byte[] bs = BinPack.encode(value, charset);
+        return add(APPEND, path, bs, 0, bs.length);
+    }
+
+    /**
+     * Add an operation whose value is already encoded, from {@code start} to {@code end} of {@code value}.
+     */
+    BinPatch add(int kind, BinPath path, byte[] value, int start, int end) {
+        if (kind == REMOVE) {
+            ops.add(new Op(REMOVE, path, null, 0));
+            return this;
+        }
+        BinPackEncoder encoder = new BinPackEncoder(charset, end - start + 16);
+        int keySize = 0;
+        // the key goes in front, for a key missing from its dict
+        if (kind == SET && path.depth() > 0 && path.lastKey() != null) {
+            encoder.packString((String) path.last());
+            keySize = encoder.size();
+        }
+        encoder.writeBytes(value, start, end - start);
+        ops.add(new Op(kind, path, encoder.toByteArray(), keySize));
+        return this;
+    }
+
+    /**
+     * Apply the operations to {@code bs}, which is left as it is.
+     *
+     * @return the patched data, or {@code bs} itself if nothing changed
+     * @throws BinPackException if a path leads to no dict or list, a list index is out of range, or the data is
+     *                          malformed
+     */
+    public byte[] apply(byte[] bs) throws BinPackException {
+        if (ops.isEmpty()) {
+            return bs;
+        }
+        // the end of the value is only known once it is split or measured, see split()
+        Node root = new Node(bs, 0, bs.length);
+        int end = -1;
+        boolean changed = false;
+        for (Op op : ops) {
+            if (op.kind == SET && op.path.depth() == 0) {
+                if (end < 0) {
+                    end = root.type != 0 ? root.end : skip(context(bs, 0), BinPath.of(charset));
+                }
+                root = new Node(op.value, 0, op.value.length);
+                changed = true;
+            } else {
+                changed |= apply(op, root);
+            }
+        }
+        if (!changed) {
+            return bs;
+        }
+        if (end < 0) {
+            // changed below the original value, which is split
+            end = root.end;
+        }
+        byte[] out = new byte[root.size() + bs.length - end];
+        int pos = root.writeTo(out, 0);
+        System.arraycopy(bs, end, out, pos, bs.length - end);
+        return out;
+    }
+
+    /**
+     * Apply the operations to the encoded value in {@code bs} from {@code offset} to {@code offset + length}.
+     *
+     * @return the patched value alone
+     */
+    public byte[] apply(byte[] bs, int offset, int length) throws BinPackException {
+        byte[] value = new byte[length];
+        System.arraycopy(bs, offset, value, 0, length);
+        return apply(value);
+    }
+
+    /**
+     * Apply {@code op} to the tree under {@code root}, other than a set of the whole value.
+     *
+     * @return false if nothing changed
+     */
+    private boolean apply(Op op, Node root) throws BinPackException {
+        BinPath path = op.path;
+        if (op.kind == APPEND) {
+            Node list = locate(root, path);
+            if (list == null || !split(list, path) || list.type != BIN_TYPE_LIST) {
+                throw new BinPackException("No list at " + path);
+            }
+            list.elements.add(new Node(op.value, 0, op.value.length));
+            return true;
+        }
+
+        BinPath parentPath = path.parent();
+        Node parent = locate(root, parentPath);
+        if (parent == null) {
+            if (op.kind == REMOVE) {
+                return false;
+            }
+            throw new BinPackException("No dict or list at " + parentPath);
+        }
+        byte[] key = path.lastKey();
+        if (key != null) {
+            if (!split(parent, path) || parent.type != BIN_TYPE_DICT) {
+                if (op.kind == REMOVE) {
+                    return false;
+                }
+                throw new BinPackException("No dict at " + parentPath);
+            }
+            String k = new String(key, KEY_CHARSET);
+            if (op.kind == REMOVE) {
+                List<Entry> removed = parent.byKey.remove(k);
+                if (removed == null) {
+                    return false;
+                }
+                for (Entry entry : removed) {
+                    entry.removed = true;
+                }
+                return true;
+            }
+            Node value = new Node(op.value, op.keySize, op.value.length);
+            List<Entry> same = parent.byKey.get(k);
+            if (same != null) {
+                same.get(same.size() - 1).value = value;
+            } else {
+                // a new key, at the end
+                Entry entry = new Entry(new Node(op.value, 0, op.keySize), value);
+                parent.entries.add(entry);
+                same = new ArrayList<Entry>(1);
+                same.add(entry);
+                parent.byKey.put(k, same);
+            }
+            return true;
+        }
+
+        int index = (Integer) path.last();
+        if (!split(parent, path) || parent.type != BIN_TYPE_LIST) {
+            if (op.kind == REMOVE) {
+                return false;
+            }
+            throw new BinPackException("No list at " + parentPath);
+        }
+        int size = parent.elements.size();
+        if (index >= size) {
+            if (op.kind == REMOVE) {
+                return false;
+            }
+            throw new BinPackException("Index " + index + " out of range [0.." + size + ") at " + parentPath);
+        }
+        if (op.kind == REMOVE) {
+            parent.elements.remove(index);
+        } else {
+            parent.elements.set(index, new Node(op.value, 0, op.value.length));
+        }
+        return true;
+    }
+
+    /**
+     * The node at {@code path} under {@code node}, splitting the lists and dicts on the way, or null if there is
+     * none.
+     */
+    private Node locate(Node node, BinPath path) throws BinPackException {
+        for (int s = 0; s < path.depth(); s++) {
+            if (!split(node, path)) {
+                return null;
+            }
+            byte[] key = path.key(s);
+            if (key != null) {
+                List<Entry> same = node.type == BIN_TYPE_DICT ? node.byKey.get(new String(key, KEY_CHARSET)) : null;
+                if (same == null) {
+                    return null;
+                }
+                // the last of a repeated key, as decoding keeps
+                node = same.get(same.size() - 1).value;
+            } else {
+                int index = (Integer) path.segment(s);
+                if (node.type != BIN_TYPE_LIST || index >= node.elements.size()) {
+                    return null;
+                }
+                node = node.elements.get(index);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Split a node which is a list or dict into its elements, or its entries indexed by key.
+     *
+     * @return false if the node is neither
+     */
+    private boolean split(Node node, BinPath path) throws BinPackException {
+        if (node.type != 0) {
+            return true;
+        }
+        DecodeCtx ctx = context(node.buf, node.start);
+        ctx.limit = node.end;
+        if (_unpackTag(ctx) < 0 || (ctx.type != BIN_TYPE_LIST && ctx.type != BIN_TYPE_DICT)) {
+            return false;
+        }
+        byte type = ctx.type;
+        List<Node> elements = new ArrayList<Node>();
+        List<Entry> entries = new ArrayList<Entry>();
+        Map<String, List<Entry>> byKey = new HashMap<String, List<Entry>>();
+        while (true) {
+            int start = ctx.pos;
+            if (_unpackTag(ctx) < 0) {
+                throw truncated(path);
+            }
+            if (ctx.type == BIN_TAG_SHUT) {
+                break;
+            }
+            if (type == BIN_TYPE_LIST) {
+                ctx.pos = start;
+                elements.add(new Node(node.buf, start, skip(ctx, path)));
+                continue;
+            }
+            String k = null;
+            if (ctx.type == BIN_TYPE_STRING && ctx.num <= ctx.limit - ctx.pos) {
+                k = new String(node.buf, ctx.pos, (int) ctx.num, KEY_CHARSET);
+            }
+            ctx.pos = start;
+            Node keyNode = new Node(node.buf, start, skip(ctx, path));
+            int valueStart = ctx.pos;
+            Entry entry = new Entry(keyNode, new Node(node.buf, valueStart, skip(ctx, path)));
+            entries.add(entry);
+            if (k != null) {
+                List<Entry> same = byKey.get(k);
+                if (same == null) {
+                    same = new ArrayList<Entry>(1);
+                    byKey.put(k, same);
+                }
+                same.add(entry);
+            }
+        }
+        node.type = type;
+        // the end of the root is only known here
+        node.end = ctx.pos;
+        if (type == BIN_TYPE_LIST) {
+            node.elements = elements;
+        } else {
+            node.entries = entries;
+            node.byKey = byKey;
+        }
+        return true;
+    }
+
+    /**
+     * A decode state over {@code buf} from {@code pos} to its end.
+     */
+    private DecodeCtx context(byte[] buf, int pos) {
+        DecodeCtx ctx = new DecodeCtx();
+        ctx.buf = buf;
+        ctx.pos = pos;
+        ctx.limit = buf.length;
+        ctx.charset = charset;
+        return ctx;
+    }
+
+    /**
+     * Skip the value at the position of {@code ctx}.
+     *
+     * @return the position after it
+     */
+    private static int skip(DecodeCtx ctx, BinPath path) throws BinPackException {
+        int start = ctx.pos;
+        if (_unpackTag(ctx) < 0 || ctx.type == BIN_TAG_SHUT) {
+            throw truncated(path);
+        }
+        ctx.pos = start;
+        if (skipValue(ctx) < 0) {
+            throw truncated(path);
+        }
+        return ctx.pos;
+    }
+
+    private static BinPackException truncated(BinPath path) {
+        return new BinPackException("Malformed data along " + path);
+    }
+
+    /**
+     * A value of the data being patched: bytes as they are, or a list or dict split into its elements, each a node
+     * of its own, once an operation reaches into it.
+     */
+    private static final class Node {
+
+        final byte[] buf;
+        final int start;
+        int end;
+        // BIN_TYPE_LIST or BIN_TYPE_DICT once split, 0 before
+        byte type;
+        List<Node> elements;
+        // the entries of a dict in order, including the removed ones, and the others by key
+        List<Entry> entries;
+        Map<String, List<Entry>> byKey;
+
+        Node(byte[] buf, int start, int end) {
+            this.buf = buf;
+            this.start = start;
+            this.end = end;
+        }
+
+        int size() {
+            if (type == 0) {
+                return end - start;
+            }
+            // the tag and the shut tag
+            int size = 2;
+            if (type == BIN_TYPE_LIST) {
+                for (Node element : elements) {
+                    size += element.size();
+                }
+            } else {
+                for (Entry entry : entries) {
+                    if (!entry.removed) {
+                        size += entry.key.size() + entry.value.size();
+                    }
+                }
+            }
+            return size;
+        }
+
+        /**
+         * @return the position after the node
+         */
+        int writeTo(byte[] out, int pos) {
+            if (type == 0) {
+                System.arraycopy(buf, start, out, pos, end - start);
+                return pos + end - start;
+            }
+            out[pos++] = type;
+            if (type == BIN_TYPE_LIST) {
+                for (Node element : elements) {
+                    pos = element.writeTo(out, pos);
+                }
+            } else {
+                for (Entry entry : entries) {
+                    if (!entry.removed) {
+                        pos = entry.key.writeTo(out, pos);
+                        pos = entry.value.writeTo(out, pos);
+                    }
+                }
+            }
+            out[pos++] = BIN_TAG_SHUT;
+            return pos;
+        }
+    }
+
+    private static final class Entry {
+
+        final Node key;
+        Node value;
+        boolean removed;
+
+        Entry(Node key, Node value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Op {
+
+        final int kind;
+        final BinPath path;
+        // the encoded value, after the encoded key of a set on a dict key
+        final byte[] value;
+        final int keySize;
+
+        Op(int kind, BinPath path, byte[] value, int keySize) {
+            this.kind = kind;
+            this.path = path;
+            this.value = value;
+            this.keySize = keySize;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package in.srain.binpack;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * A compiled path into encoded data, such as {@code user.devices[2].token}.
+ * <p/>
+ * {@link #extract(byte[])} walks the encoded bytes along the path, skipping every unrelated subtree without
+ * decoding it, and decodes only the target value. Dict keys are matched by comparing their raw bytes with the
+ * key encoded once at compile time, and the walk stops at the first match, so reading the first field of a large
+ * dict costs no more than in a small one.
+ * <p/>
+ * A dict encoded from a {@code Map} never repeats a key. For data which may, {@link #lastOfRepeatedKeys()} gives a
+ * path taking the last of a repeated key, the one {@link BinPack#decode(byte[], Charset)} keeps; it has to scan
+ * every dict on the way to its shut tag.
+ * <p/>
+ * A path is immutable and can be shared between threads.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public final class BinPath {
+
+    private final Charset charset;
+    // String for a dict key, Integer for a list index
+    private final Object[] segments;
+    // the encoded dict keys, null for list indexes
+    private final byte[][] keys;
+    // take the last of a repeated key rather than the first
+    private final boolean lastOfRepeated;
+
+    private BinPath(Object[] segments, Charset charset) {
+        this(segments, charset, false);
+    }
+
+    private BinPath(Object[] segments, Charset charset, boolean lastOfRepeated) {
+        this.charset = charset;
+        this.segments = segments;
+        this.lastOfRepeated = lastOfRepeated;
+        this.keys = new byte[segments.length][];
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] instanceof String) {
+                keys[i] = ((String) segments[i]).getBytes(charset);
+            }
+        }
+    }
+
+    /**
+     * Compile a path made of dict keys separated by {@code .} and list indexes in brackets:
+     * {@code a.b[0][1].c}. Keys containing {@code .} or {@code [} can be given to {@link #of} instead.
+     *
+     * @throws IllegalArgumentException if the path is malformed
+     */
+    public static BinPath compile(String path, Charset charset) {
+        List<Object> segments = new ArrayList<Object>();
+        int i = 0;
+        int n = path.length();
+        boolean expectKey = true;
+        while (i < n) {
+            char c = path.charAt(i);
+            if (c == '[') {
+                int close = path.indexOf(']', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed [ at " + i + " in " + path);
+                }
+                try {
+                    int index = Integer.parseInt(path.substring(i + 1, close));
+                    if (index < 0) {
+                        throw new NumberFormatException();
+                    }
+                    segments.add(index);
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("Bad index at " + i + " in " + path);
+                }
+                i = close + 1;
+                expectKey = false;
+            } else if (c == '.') {
+                if (expectKey) {
+                    throw new IllegalArgumentException("Empty key at " + i + " in " + path);
+                }
+                i++;
+                expectKey = true;
+            } else {
+                if (!expectKey) {
+                    throw new IllegalArgumentException("Missing . at " + i + " in " + path);
+                }
+                int end = i;
+                while (end < n && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                segments.add(path.substring(i, end));
+                i = end;
+                expectKey = false;
+            }
+        }
+        if (expectKey && n > 0) {
+            throw new IllegalArgumentException("Path ends with . : " + path);
+        }
+        return new BinPath(segments.toArray(), charset);
+    }
+
+    /**
+     * A path from its segments: a {@code String} for a dict key, an {@code Integer} for a list index.
+     */
+    public static BinPath of(Charset charset, Object... segments) {
+        for (Object segment : segments) {
+            if (!(segment instanceof String) && !(segment instanceof Integer && (Integer) segment >= 0)) {
+                throw new IllegalArgumentException("Invalid path segment: " + segment);
+            }
+        }
+        return new BinPath(segments.clone(), charset);
+    }
+
+    /**
+     * This path, taking the last of a key repeated in a dict instead of the first, as decoding does. Every dict on
+     * the way is then scanned to its end.
+     */
+    public BinPath lastOfRepeatedKeys() {
+        return lastOfRepeated ? this : new BinPath(segments, charset, true);
+    }
+
+    public boolean isLastOfRepeatedKeys() {
+        return lastOfRepeated;
+    }
+
+    /**
+     * Decode the value at this path, or return null if there is no such value.
+     */
+    public Object extract(byte[] bs) {
+        return extract(bs, 0, bs.length);
+    }
+
+    public Object extract(byte[] bs, int offset, int length) {
+        DecodeCtx ctx = new DecodeCtx();
+        ctx.buf = bs;
+        ctx.pos = offset;
+        ctx.limit = offset + length;
+        ctx.charset = charset;
+        if (locate(ctx) < 0) {
+            return null;
+        }
+        Object obj = doDecode(ctx);
+        return obj == SHUT_OBJECT ? null : obj;
+    }
+
+    int depth() {
+        return segments.length;
+    }
+
+    /**
+     * The dict key or list index of segment {@code i}.
+     */
+    Object segment(int i) {
+        return segments[i];
+    }
+
+    /**
+     * The encoded key of segment {@code i}, null if it is a list index.
+     */
+    byte[] key(int i) {
+        return keys[i];
+    }
+
+    /**
+     * The dict key or list index of the last segment.
+     */
+    Object last() {
+        return segments[segments.length - 1];
+    }
+
+    /**
+     * The encoded key of the last segment, null if it is a list index.
+     */
+    byte[] lastKey() {
+        return keys[keys.length - 1];
+    }
+
+    /**
+     * This path without its last segment.
+     */
+    BinPath parent() {
+        return new BinPath(Arrays.copyOf(segments, segments.length - 1), charset, lastOfRepeated);
+    }
+
+    /**
+     * Move {@code ctx} to the first byte of the value at this path.
+     *
+     * @return 0, or -1 if there is no such value
+     */
+    int locate(DecodeCtx ctx) {
+        for (int s = 0; s < segments.length; s++) {
+            if (_unpackTag(ctx) < 0) {
+                return -1;
+            }
+            byte[] key = keys[s];
+            if (key != null) {
+                if (ctx.type != BIN_TYPE_DICT || findKey(ctx, key, lastOfRepeated) < 0) {
+                    return -1;
+                }
+            } else {
+                if (ctx.type != BIN_TYPE_LIST || skipElements(ctx, (Integer) segments[s]) < 0) {
+                    return -1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Move to the value of the key equal to {@code key}: the first match, or with {@code last} the last one, which
+     * takes a scan of the whole dict.
+     */
+    private static int findKey(DecodeCtx ctx, byte[] key, boolean last) {
+        byte[] buf = ctx.buf;
+        int found = -1;
+        while (true) {
+            int keyStart = ctx.pos;
+            if (_unpackTag(ctx) < 0) {
+                return -1;
+            }
+            if (ctx.type == BIN_TAG_SHUT) {
+                if (found < 0) {
+                    return -1;
+                }
+                ctx.pos = found;
+                return 0;
+            }
+            boolean match = false;
+            if (ctx.type == BIN_TYPE_STRING) {
+                if (ctx.num > ctx.limit - ctx.pos) {
+                    return -1;
+                }
+                int start = ctx.pos;
+                ctx.pos += ctx.num;
+                match = ctx.num == key.length && rangeEquals(buf, start, key);
+            } else {
+                ctx.pos = keyStart;
+                if (skipValue(ctx) < 0) {
+                    return -1;
+                }
+            }
+            int valueStart = ctx.pos;
+            if (_unpackTag(ctx) < 0 || ctx.type == BIN_TAG_SHUT) {
+                return -1;
+            }
+            ctx.pos = valueStart;
+            if (match && !last) {
+                return 0;
+            }
+            if (skipValue(ctx) < 0) {
+                return -1;
+            }
+            if (match) {
+                found = valueStart;
+            }
+        }
+    }
+
+    private static int skipElements(DecodeCtx ctx, int count) {
+        for (int i = 0; i < count; i++) {
+            int start = ctx.pos;
+            if (_unpackTag(ctx) < 0 || ctx.type == BIN_TAG_SHUT) {
+                return -1;
+            }
+            ctx.pos = start;
+            if (skipValue(ctx) < 0) {
+                return -1;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean rangeEquals(byte[] buf, int start, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (buf[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Object segment : segments) {
+            if (segment instanceof Integer) {
+                sb.append('[').append(segment).append(']');
+            } else {
+                if (sb.length() > 0) {
+                    sb.append('.');
+                }
+                sb.append(segment);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BinPath && Arrays.equals(segments, ((BinPath) o).segments)
+                && charset.equals(((BinPath) o).charset) && lastOfRepeated == ((BinPath) o).lastOfRepeated;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(segments);
+    }
+}
@@ -0,0 +1,120 @@
+package in.srain.binpack;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A string decoded lazily, a view over the encoded bytes it was decoded from; see
+ * {@link BinPackDecoder#setStringViews(boolean)}.
+ * <p/>
+ * The characters are decoded on the first call to {@link #toString()}, {@link #length()} or {@link #charAt(int)},
+ * and kept from then on; the source must not be modified until then. A view which is only passed on is never
+ * decoded: encoding it in the same charset writes its bytes straight from the source.
+ * <p/>
+ * Like any {@link CharSequence}, a view is not equal to a {@link String} with the same characters; compare
+ * {@link #toString()}.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public final class BinString implements CharSequence {
+
+    // a range of a heap array, or else a direct buffer from position 0 to limit
+    final byte[] array;
+    final int offset;
+    final int byteLength;
+    final ByteBuffer buffer;
+    final Charset charset;
+
+    private volatile String decoded;
+
+    BinString(byte[] array, int offset, int byteLength, Charset charset) {
+        this.array = array;
+        this.offset = offset;
+        this.byteLength = byteLength;
+        this.buffer = null;
+        this.charset = charset;
+    }
+
+    BinString(ByteBuffer buffer, Charset charset) {
+        this.array = null;
+        this.offset = 0;
+        this.byteLength = buffer.remaining();
+        this.buffer = buffer;
+        this.charset = charset;
+    }
+
+    /**
+     * The number of encoded bytes, known without decoding.
+     */
+    public int byteLength() {
+        return byteLength;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * A read-only buffer over the encoded bytes, from position 0 to its limit.
+     */
+    public ByteBuffer asByteBuffer() {
+        if (array != null) {
+            return ByteBuffer.wrap(array, offset, byteLength).slice().asReadOnlyBuffer();
+        }
+        return buffer.asReadOnlyBuffer();
+    }
+
+    void copyTo(byte[] dst, int dstOffset) {
+        if (array != null) {
+            System.arraycopy(array, offset, dst, dstOffset, byteLength);
+        } else {
+            ByteBuffer bb = buffer.duplicate();
+            bb.position(0);
+            bb.get(dst, dstOffset, byteLength);
+        }
+    }
+
+    @Override
+    public int length() {
+        return toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    /**
+     * The decoded string, which does not refer to the source.
+     */
+    @Override
+    public String toString() {
+        String s = decoded;
+        if (s == null) {
+            if (array != null) {
+                s = new String(array, offset, byteLength, charset);
+            } else {
+                byte[] bs = new byte[byteLength];
+                copyTo(bs, 0);
+                s = new String(bs, charset);
+            }
+            decoded = s;
+        }
+        return s;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof BinString && toString().equals(o.toString()));
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -0,0 +1,114 @@
+package in.srain.binpack;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * Encode data straight into a heap or direct {@link ByteBuffer}, from its position up to its limit.
+ * <p/>
+ * Writing past the limit throws {@link BufferOverflowException}.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+final class BufferEncoder extends BinPackEncoder {
+
+    private final ByteBuffer bb;
+    private final boolean littleEndian;
+
+    BufferEncoder(ByteBuffer bb, Charset charset) {
+        super(charset, 0);
+        this.bb = bb;
+        this.littleEndian = bb.order() == ByteOrder.LITTLE_ENDIAN;
+    }
+
+    @Override
+    void ensureCapacity(int n) {
+        if (n > bb.remaining()) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    @Override
+    void writeTag(int tag) {
+        bb.put((byte) tag);
+    }
+
+    @Override
+    void writeNum(int len, int type) {
+        ensureCapacity(numSize(len));
+        while (len > BIN_TAG_PACK_NUM) {
+            bb.put((byte) (BIN_NUM_SIGN_BIT | (len & BIN_NUM_MASK)));
+            len >>>= 7;
+        }
+        bb.put((byte) (type | len));
+    }
+
+    @Override
+    void writeInteger(long l, int tag) {
+        if (l < 0) {
+            l = -l;
+            tag |= BIN_TYPE_INTEGER_NEGATIVE_MASK;
+        }
+        ensureCapacity(integerSize(l));
+        while (l >>> 3 != 0) {
+            bb.put((byte) (BIN_NUM_SIGN_BIT | (l & BIN_NUM_MASK)));
+            l >>>= 7;
+        }
+        bb.put((byte) (tag | l));
+    }
+
+    @Override
+    void writeLongLE(long x) {
+        bb.putLong(littleEndian ? x : Long.reverseBytes(x));
+    }
+
+    @Override
+    void writeIntLE(int x) {
+        bb.putInt(littleEndian ? x : Integer.reverseBytes(x));
+    }
+
+    @Override
+    void writeBytes(byte[] bs, int off, int len) {
+        bb.put(bs, off, len);
+    }
+
+    @Override
+    void writeChars(String s) {
+        int n = s.length();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            bb.put((byte) s.charAt(i));
+        }
+    }
+
+    @Override
+    void writeUtf8(String s, int len) {
+        ensureCapacity(len);
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bb.put((byte) c);
+            } else if (c < 0x800) {
+                bb.put((byte) (0xc0 | (c >> 6)));
+                bb.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                bb.put((byte) (0xf0 | (cp >> 18)));
+                bb.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                bb.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                bb.put((byte) (0x80 | (cp & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                bb.put((byte) '?');
+            } else {
+                bb.put((byte) (0xe0 | (c >> 12)));
+                bb.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                bb.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+}
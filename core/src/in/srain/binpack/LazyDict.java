@@ -0,0 +1,265 @@
+package in.srain.binpack;
+
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * A read-only map over an encoded dict, see {@link BinPack#decodeLazy(byte[], Charset)}.
+ * <p/>
+ * Only the offsets of the keys and values are recorded up front. Looking up a string key compares its encoded
+ * bytes with the raw keys, so neither keys nor other values are decoded; a value is decoded on first access and
+ * then cached. A key may repeat in encoded data; as in the map {@link BinPack#decode(byte[], Charset)} gives, the
+ * last one wins, and {@link #size()} and {@link #entrySet()} count it once, at its last position, which decodes
+ * the keys but no value. Not thread safe.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+final class LazyDict extends AbstractMap<Object, Object> {
+
+    private static final Object UNDECODED = new Object();
+
+    final byte[] buf;
+    final Charset charset;
+    // the first byte of the dict tag, and the byte after the shut tag
+    final int start;
+    final int end;
+
+    // offsets[2 * i] is the first byte of key i, offsets[2 * i + 1] of value i, offsets[2 * size] is the shut tag
+    private final int[] offsets;
+    private final int size;
+    private Object[] keys;
+    private Object[] values;
+    private Set<Map.Entry<Object, Object>> entrySet;
+    // the indexes of the entries whose key does not repeat later, null until needed
+    private int[] live;
+
+    private LazyDict(byte[] buf, Charset charset, int start, int end, int[] offsets, int size) {
+        this.buf = buf;
+        this.charset = charset;
+        this.start = start;
+        this.end = end;
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    /**
+     * Record the key and value offsets of the dict whose tag, starting at {@code start}, has just been read.
+     *
+     * @return null if the dict is truncated, or has a null key or a key without value
+     */
+    static LazyDict scan(DecodeCtx ctx, int start) {
+        int[] offsets = new int[16];
+        int n = 0;
+        while (true) {
+            if (ctx.pos >= ctx.limit) {
+                return null;
+            }
+            if (n + 2 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length << 1);
+            }
+            int keyStart = ctx.pos;
+            offsets[n] = keyStart;
+            if (_unpackTag(ctx) < 0) {
+                return null;
+            }
+            if (ctx.type == BIN_TAG_SHUT) {
+                return new LazyDict(ctx.buf, ctx.charset, start, ctx.pos, offsets, n >> 1);
+            }
+            if (ctx.type == BIN_TYPE_NULL) {
+                return null;
+            }
+            ctx.pos = keyStart;
+            if (skipValue(ctx) < 0) {
+                return null;
+            }
+
+            int valueStart = ctx.pos;
+            offsets[n + 1] = valueStart;
+            if (_unpackTag(ctx) < 0 || ctx.type == BIN_TAG_SHUT) {
+                return null;
+            }
+            ctx.pos = valueStart;
+            if (skipValue(ctx) < 0) {
+                return null;
+            }
+            n += 2;
+        }
+    }
+
+    @Override
+    public int size() {
+        return live().length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The indexes of the entries left once the earlier occurrences of repeated keys are dropped.
+     */
+    private int[] live() {
+        if (live == null) {
+            Map<Object, Integer> last = new HashMap<Object, Integer>(size * 2);
+            for (int i = 0; i < size; i++) {
+                last.put(keyAt(i), i);
+            }
+            int[] indexes = new int[last.size()];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (last.size() == size || last.get(keyAt(i)) == i) {
+                    indexes[n++] = i;
+                }
+            }
+            live = indexes;
+        }
+        return live;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * The index of the entry for {@code key}, the last one wins like in a HashMap filled in order.
+     */
+    private int indexOf(Object key) {
+        if (key instanceof String) {
+            byte[] name = ((String) key).getBytes(charset);
+            for (int i = size - 1; i >= 0; i--) {
+                int match = matchStringKey(i, name);
+                if (match > 0 || (match < 0 && key.equals(keyAt(i)))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            Object k = keyAt(i);
+            if (key == null ? k == null : key.equals(k)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the raw key {@code i} with an encoded name.
+     *
+     * @return 1 if equal, 0 if not, -1 if the key is not a string and has to be decoded to compare
+     */
+    private int matchStringKey(int i, byte[] name) {
+        byte[] buf = this.buf;
+        int pos = offsets[i << 1];
+        int limit = offsets[(i << 1) + 1];
+
+        // the string tag: length bytes 1xxx xxxx, then 0010 xxxx
+        int shift = 0;
+        long len = 0;
+        int x = buf[pos++];
+        while (x < 0) {
+            len |= (long) (x & BIN_NUM_MASK) << shift;
+            shift += 7;
+            x = buf[pos++];
+        }
+        if ((x & 0xf0) != BIN_TYPE_STRING) {
+            return -1;
+        }
+        len |= (long) (x & 0x0f) << shift;
+        if (len != name.length || pos + len != limit) {
+            return 0;
+        }
+        for (int j = 0; j < name.length; j++) {
+            if (buf[pos + j] != name[j]) {
+                return 0;
+            }
+        }
+        return 1;
+    }
+
+    private Object keyAt(int i) {
+        if (keys == null) {
+            keys = new Object[size];
+            Arrays.fill(keys, UNDECODED);
+        }
+        Object key = keys[i];
+        if (key == UNDECODED) {
+            key = decodeLazy(buf, offsets[i << 1], offsets[(i << 1) + 1], charset);
+            keys[i] = key;
+        }
+        return key;
+    }
+
+    private Object valueAt(int i) {
+        if (values == null) {
+            values = new Object[size];
+            Arrays.fill(values, UNDECODED);
+        }
+        Object value = values[i];
+        if (value == UNDECODED) {
+            value = decodeLazy(buf, offsets[(i << 1) + 1], offsets[(i << 1) + 2], charset);
+            values[i] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<Object, Object>> {
+
+        @Override
+        public Iterator<Map.Entry<Object, Object>> iterator() {
+            return new Iterator<Map.Entry<Object, Object>>() {
+                private final int[] indexes = live();
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < indexes.length;
+                }
+
+                @Override
+                public Map.Entry<Object, Object> next() {
+                    if (next >= indexes.length) {
+                        throw new NoSuchElementException();
+                    }
+                    int i = indexes[next++];
+                    return new SimpleImmutableEntry<Object, Object>(keyAt(i), valueAt(i));
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return live().length;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package in.srain.binpack;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import static in.srain.binpack.BinPack.*;
+
+/**
+ * A read-only list over an encoded list, see {@link BinPack#decodeLazy(byte[], Charset)}.
+ * <p/>
+ * Only the offsets of the elements are recorded up front; an element is decoded on first access and then cached.
+ * Not thread safe.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+final class LazyList extends AbstractList<Object> implements RandomAccess {
+
+    private static final Object UNDECODED = new Object();
+
+    final byte[] buf;
+    final Charset charset;
+    // the first byte of the list tag, and the byte after the shut tag
+    final int start;
+    final int end;
+
+    // offsets[i] is the first byte of element i, offsets[size] is the shut tag
+    private final int[] offsets;
+    private final int size;
+    private Object[] values;
+
+    private LazyList(byte[] buf, Charset charset, int start, int end, int[] offsets, int size) {
+        this.buf = buf;
+        this.charset = charset;
+        this.start = start;
+        this.end = end;
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    /**
+     * Record the element offsets of the list whose tag, starting at {@code start}, has just been read.
+     *
+     * @return null if the list is truncated
+     */
+    static LazyList scan(DecodeCtx ctx, int start) {
+        int[] offsets = new int[8];
+        int n = 0;
+        while (true) {
+            if (ctx.pos >= ctx.limit) {
+                return null;
+            }
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, n << 1);
+            }
+            int elementStart = ctx.pos;
+            offsets[n] = elementStart;
+            if (_unpackTag(ctx) < 0) {
+                return null;
+            }
+            if (ctx.type == BIN_TAG_SHUT) {
+                return new LazyList(ctx.buf, ctx.charset, start, ctx.pos, offsets, n);
+            }
+            ctx.pos = elementStart;
+            if (skipValue(ctx) < 0) {
+                return null;
+            }
+            n++;
+        }
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range [0.." + size + ")");
+        }
+        if (values == null) {
+            values = new Object[size];
+            Arrays.fill(values, UNDECODED);
+        }
+        Object value = values[index];
+        if (value == UNDECODED) {
+            value = decodeLazy(buf, offsets[index], offsets[index + 1], charset);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The elements read straight from the encoded bytes, without boxing them.
+     *
+     * @return null if an element is not a number
+     */
+    long[] toLongArray() {
+        long[] result = new long[size];
+        DecodeCtx ctx = numberCtx();
+        for (int i = 0; i < size; i++) {
+            if (readNumber(ctx, i) < 0) {
+                return null;
+            }
+            result[i] = numberAsLong(ctx);
+        }
+        return result;
+    }
+
+    int[] toIntArray() {
+        int[] result = new int[size];
+        DecodeCtx ctx = numberCtx();
+        for (int i = 0; i < size; i++) {
+            if (readNumber(ctx, i) < 0) {
+                return null;
+            }
+            result[i] = (int) numberAsLong(ctx);
+        }
+        return result;
+    }
+
+    double[] toDoubleArray() {
+        double[] result = new double[size];
+        DecodeCtx ctx = numberCtx();
+        for (int i = 0; i < size; i++) {
+            if (readNumber(ctx, i) < 0) {
+                return null;
+            }
+            result[i] = numberAsDouble(ctx);
+        }
+        return result;
+    }
+
+    float[] toFloatArray() {
+        float[] result = new float[size];
+        DecodeCtx ctx = numberCtx();
+        for (int i = 0; i < size; i++) {
+            if (readNumber(ctx, i) < 0) {
+                return null;
+            }
+            result[i] = (float) numberAsDouble(ctx);
+        }
+        return result;
+    }
+
+    private DecodeCtx numberCtx() {
+        DecodeCtx ctx = new DecodeCtx();
+        ctx.buf = buf;
+        ctx.limit = end;
+        ctx.charset = charset;
+        return ctx;
+    }
+
+    /**
+     * Read the tag of element {@code index}.
+     *
+     * @return 0 if it is an integer or a complete real, -1 otherwise
+     */
+    private int readNumber(DecodeCtx ctx, int index) {
+        ctx.pos = offsets[index];
+        _unpackTag(ctx);
+        byte type = ctx.type;
+        if (type >= BIN_TYPE_INTEGER) {
+            return 0;
+        }
+        if (type == BIN_TYPE_REAL_DOUBLE) {
+            return offsets[index + 1] - ctx.pos == 8 ? 0 : -1;
+        }
+        if (type == BIN_TYPE_REAL_FLOAT) {
+            return offsets[index + 1] - ctx.pos == 4 ? 0 : -1;
+        }
+        return -1;
+    }
+
+    private static long numberAsLong(DecodeCtx ctx) {
+        switch (ctx.type) {
+            case BIN_TYPE_REAL_DOUBLE:
+                return (long) Double.longBitsToDouble(ctx.readLongLE());
+            case BIN_TYPE_REAL_FLOAT:
+                return (long) Float.intBitsToFloat(ctx.readIntLE());
+        }
+        return makeLong(ctx);
+    }
+
+    private static double numberAsDouble(DecodeCtx ctx) {
+        switch (ctx.type) {
+            case BIN_TYPE_REAL_DOUBLE:
+                return Double.longBitsToDouble(ctx.readLongLE());
+            case BIN_TYPE_REAL_FLOAT:
+                return Float.intBitsToFloat(ctx.readIntLE());
+        }
+        return makeLong(ctx);
+    }
+}
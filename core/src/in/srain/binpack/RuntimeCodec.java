@@ -0,0 +1,557 @@
+package in.srain.binpack;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A codec built at runtime for a class which has no generated codec, such as a third-party class or a record; see
+ * {@link BinPackCodecs#registerRuntimeCodec(Class[])}.
+ * <p/>
+ * It encodes the object as a dict of its fields, or of its components for a record, like the codecs generated for
+ * {@link BinPackable} classes. The fields are read and written through {@link MethodHandle}s looked up once, typed
+ * so that primitive values are never boxed. A record is decoded through its canonical constructor.
+ * <p/>
+ * Every field must have a type which decodes back: a primitive, a boxed primitive other than {@code Character}, a
+ * {@code String}, a primitive array, a list or dict of such values, or a class with a codec of its own.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+final class RuntimeCodec implements BinPackCodec<Object> {
+
+    private static final int KIND_OBJECT = 0;
+    private static final int KIND_BOOLEAN = 1;
+    private static final int KIND_BYTE = 2;
+    private static final int KIND_SHORT = 3;
+    private static final int KIND_INT = 4;
+    private static final int KIND_LONG = 5;
+    private static final int KIND_FLOAT = 6;
+    private static final int KIND_DOUBLE = 7;
+    private static final int KIND_CHAR = 8;
+
+    // Class.isRecord() and Class.getRecordComponents(), null before Java 16
+    private static final Method IS_RECORD;
+    private static final Method GET_RECORD_COMPONENTS;
+
+    static {
+        Method isRecord = null;
+        Method getRecordComponents = null;
+        try {
+            isRecord = Class.class.getMethod("isRecord");
+            getRecordComponents = Class.class.getMethod("getRecordComponents");
+        } catch (NoSuchMethodException ignored) {
+        }
+        IS_RECORD = isRecord;
+        GET_RECORD_COMPONENTS = getRecordComponents;
+    }
+
+    private static final class Property {
+        final String name;
+        final Class type;
+        final Type genericType;
+        // the element type of a list of objects which have a codec, or null
+        final Class elementType;
+        final int kind;
+        // (Object) -> type
+        final MethodHandle getter;
+        // (Object, type) -> void, null for a record component
+        final MethodHandle setter;
+        // the index in the arguments of a record's canonical constructor
+        final int index;
+
+        Property(String name, Class type, Type genericType, MethodHandle getter, MethodHandle setter, int index) {
+            this.name = name;
+            this.type = type;
+            this.genericType = genericType;
+            this.elementType = elementType(genericType);
+            this.kind = kindOf(type);
+            Class exact = kind == KIND_OBJECT ? Object.class : type;
+            this.getter = getter.asType(MethodType.methodType(exact, Object.class));
+            this.setter = setter == null ? null : setter.asType(MethodType.methodType(void.class, Object.class, exact));
+            this.index = index;
+        }
+    }
+
+    private final Class type;
+    private final Property[] properties;
+    private final Map<String, Property> byName = new HashMap<String, Property>();
+    // () -> Object for a class, (Object[]) -> Object for a record, null if it can not be made
+    private final MethodHandle constructor;
+    private final boolean record;
+
+    private RuntimeCodec(Class type, Property[] properties, MethodHandle constructor, boolean record) {
+        this.type = type;
+        this.properties = properties;
+        this.constructor = constructor;
+        this.record = record;
+        for (Property property : properties) {
+            byName.put(property.name, property);
+        }
+    }
+
+    /**
+     * Build the codec of {@code type}.
+     *
+     * @param group the classes given a codec together, whose fields may refer to each other
+     * @throws IllegalArgumentException if {@code type} is not a concrete class outside the JDK, its fields can not be
+     *                                  accessed, or a field has a type which does not decode back
+     */
+    static RuntimeCodec create(Class type, Collection<Class> group) {
+        if (type.isInterface() || type.isArray() || type.isPrimitive() || type.isEnum() || type.isAnnotation()
+                || Modifier.isAbstract(type.getModifiers()) || isPlatformClass(type)) {
+            throw new IllegalArgumentException(type.getName() + " is not a concrete class outside the JDK");
+        }
+        RuntimeCodec codec;
+        try {
+            codec = isRecord(type) ? createForRecord(type) : createForClass(type);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Can not access the fields of " + type.getName(), ex);
+        } catch (IllegalArgumentException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            // InaccessibleObjectException from setAccessible() on Java 9+, SecurityException
+            throw new IllegalArgumentException("Can not access the fields of " + type.getName(), ex);
+        }
+        for (Property p : codec.properties) {
+            if (!isSupported(p, group)) {
+                throw new IllegalArgumentException("Field " + p.name + " of " + type.getName() + " is a "
+                        + p.genericType.getTypeName() + ", which does not decode back");
+            }
+        }
+        return codec;
+    }
+
+    private static boolean isSupported(Property p, Collection<Class> group) {
+        Class type = p.type;
+        if (type.isPrimitive() || type == Object.class || isDecodedValue(type)
+                || type == int[].class || type == long[].class || type == double[].class || type == float[].class) {
+            return true;
+        }
+        if (p.elementType != null && hasCodec(p.elementType, group)) {
+            return true;
+        }
+        if (type.isAssignableFrom(ArrayList.class) || type.isAssignableFrom(HashMap.class)) {
+            return isDecodedArguments(p.genericType);
+        }
+        return !isPlatformClass(type) && !type.isEnum() && hasCodec(type, group);
+    }
+
+    /**
+     * True for the classes which decoding makes for a plain value.
+     */
+    private static boolean isDecodedValue(Class type) {
+        return type == String.class || type == Integer.class || type == Long.class || type == Double.class
+                || type == Boolean.class || type == Float.class || type == Short.class || type == Byte.class
+                || type == byte[].class;
+    }
+
+    /**
+     * True if every type argument of a list or dict type is a class decoding makes, so that the decoded list or
+     * dict can be assigned to the field.
+     */
+    private static boolean isDecodedArguments(Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return true;
+        }
+        for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+            if (argument instanceof WildcardType) {
+                WildcardType wildcard = (WildcardType) argument;
+                if (wildcard.getLowerBounds().length > 0) {
+                    return false;
+                }
+                argument = wildcard.getUpperBounds()[0];
+            }
+            Class raw = argument instanceof Class ? (Class) argument
+                    : argument instanceof ParameterizedType ? (Class) ((ParameterizedType) argument).getRawType()
+                    : null;
+            if (raw == null) {
+                return false;
+            }
+            if (raw == Object.class || isDecodedValue(raw)) {
+                continue;
+            }
+            if (!(raw.isAssignableFrom(ArrayList.class) || raw.isAssignableFrom(HashMap.class))
+                    || !isDecodedArguments(argument)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasCodec(Class type, Collection<Class> group) {
+        return group.contains(type) || type.isAnnotationPresent(BinPackable.class) || BinPackCodecs.isRegistered(type);
+    }
+
+    private static RuntimeCodec createForClass(Class type) throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<Property> properties = new ArrayList<Property>();
+        List<String> names = new ArrayList<String>();
+        for (Class c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+                        || names.contains(field.getName())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                MethodHandle setter = Modifier.isFinal(modifiers) ? null : lookup.unreflectSetter(field);
+                names.add(field.getName());
+                properties.add(new Property(field.getName(), field.getType(), field.getGenericType(),
+                        lookup.unreflectGetter(field), setter, -1));
+            }
+        }
+        MethodHandle constructor = null;
+        try {
+            Constructor c = type.getDeclaredConstructor();
+            c.setAccessible(true);
+            constructor = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException ignored) {
+            // encode only
+        }
+        return new RuntimeCodec(type, properties.toArray(new Property[properties.size()]), constructor, false);
+    }
+
+    private static RuntimeCodec createForRecord(Class type) throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Object[] components;
+        try {
+            components = (Object[]) GET_RECORD_COMPONENTS.invoke(type);
+            Property[] properties = new Property[components.length];
+            Class[] types = new Class[components.length];
+            for (int i = 0; i < components.length; i++) {
+                Object component = components[i];
+                Class componentClass = component.getClass();
+                String name = (String) componentClass.getMethod("getName").invoke(component);
+                types[i] = (Class) componentClass.getMethod("getType").invoke(component);
+                Type genericType = (Type) componentClass.getMethod("getGenericType").invoke(component);
+                Method accessor = (Method) componentClass.getMethod("getAccessor").invoke(component);
+                accessor.setAccessible(true);
+                properties[i] = new Property(name, types[i], genericType, lookup.unreflect(accessor), null, i);
+            }
+            Constructor c = type.getDeclaredConstructor(types);
+            c.setAccessible(true);
+            MethodHandle constructor = lookup.unreflectConstructor(c)
+                    .asSpreader(Object[].class, types.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            return new RuntimeCodec(type, properties, constructor, true);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalArgumentException("Can not read the components of " + type.getName(), ex);
+        } catch (java.lang.reflect.InvocationTargetException ex) {
+            throw new IllegalArgumentException("Can not read the components of " + type.getName(), ex);
+        }
+    }
+
+    private static boolean isRecord(Class type) {
+        if (IS_RECORD == null) {
+            return false;
+        }
+        try {
+            return (Boolean) IS_RECORD.invoke(type);
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    private static boolean isPlatformClass(Class type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+                || name.startsWith("sun.") || name.startsWith("com.sun.");
+    }
+
+    private static int kindOf(Class type) {
+        if (!type.isPrimitive()) {
+            return KIND_OBJECT;
+        } else if (type == boolean.class) {
+            return KIND_BOOLEAN;
+        } else if (type == byte.class) {
+            return KIND_BYTE;
+        } else if (type == short.class) {
+            return KIND_SHORT;
+        } else if (type == int.class) {
+            return KIND_INT;
+        } else if (type == long.class) {
+            return KIND_LONG;
+        } else if (type == float.class) {
+            return KIND_FLOAT;
+        } else if (type == double.class) {
+            return KIND_DOUBLE;
+        }
+        return KIND_CHAR;
+    }
+
+    private static Class elementType(Type genericType) {
+        if (!(genericType instanceof ParameterizedType)) {
+            return null;
+        }
+        ParameterizedType parameterized = (ParameterizedType) genericType;
+        Type[] arguments = parameterized.getActualTypeArguments();
+        if (!(parameterized.getRawType() instanceof Class) || arguments.length != 1
+                || !(arguments[0] instanceof Class)) {
+            return null;
+        }
+        Class raw = (Class) parameterized.getRawType();
+        if (!Collection.class.isAssignableFrom(raw) || !raw.isAssignableFrom(ArrayList.class)) {
+            return null;
+        }
+        Class element = (Class) arguments[0];
+        return isPlatformClass(element) || element.isEnum() || element.isInterface() ? null : element;
+    }
+
+    @Override
+    public void encode(BinPackEncoder encoder, Object value) {
+        encoder.packDictBegin();
+        try {
+            for (Property p : properties) {
+                encoder.packString(p.name);
+                MethodHandle getter = p.getter;
+                switch (p.kind) {
+                    case KIND_BOOLEAN:
+                        encoder.packBool((boolean) getter.invokeExact(value));
+                        break;
+                    case KIND_BYTE:
+                        encoder.packByte((byte) getter.invokeExact(value));
+                        break;
+                    case KIND_SHORT:
+                        encoder.packShort((short) getter.invokeExact(value));
+                        break;
+                    case KIND_INT:
+                        encoder.packInt((int) getter.invokeExact(value));
+                        break;
+                    case KIND_LONG:
+                        encoder.packLong((long) getter.invokeExact(value));
+                        break;
+                    case KIND_FLOAT:
+                        encoder.packFloat((float) getter.invokeExact(value));
+                        break;
+                    case KIND_DOUBLE:
+                        encoder.packDouble((double) getter.invokeExact(value));
+                        break;
+                    case KIND_CHAR:
+                        encoder.packString(String.valueOf((char) getter.invokeExact(value)));
+                        break;
+                    default:
+                        encoder.pack((Object) getter.invokeExact(value));
+                        break;
+                }
+            }
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            // only a record accessor can throw a checked exception
+            throw new IllegalStateException("Can not read " + type.getName(), ex);
+        }
+        encoder.packEnd();
+    }
+
+    @Override
+    public Object decode(BinPackReader reader) throws BinPackException {
+        if (constructor == null) {
+            throw new BinPackException("Can not create " + type.getName()
+                    + ", it has no constructor without arguments");
+        }
+        try {
+            return record ? decodeRecord(reader) : decodeObject(reader);
+        } catch (BinPackException ex) {
+            throw ex;
+        } catch (ClassCastException ex) {
+            throw new BinPackException("Value does not match a field of " + type.getName() + ": " + ex.getMessage());
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new BinPackException("Can not create " + type.getName() + ": " + ex);
+        }
+    }
+
+    private Object decodeObject(BinPackReader reader) throws Throwable {
+        Object value = (Object) constructor.invokeExact();
+        reader.beginDict();
+        while (reader.hasNext()) {
+            Property p = nextProperty(reader);
+            if (p == null || p.setter == null) {
+                reader.skipValue();
+                continue;
+            }
+            MethodHandle setter = p.setter;
+            switch (p.kind) {
+                case KIND_BOOLEAN:
+                    setter.invokeExact(value, reader.readBoolean());
+                    break;
+                case KIND_BYTE:
+                    setter.invokeExact(value, reader.readByte());
+                    break;
+                case KIND_SHORT:
+                    setter.invokeExact(value, reader.readShort());
+                    break;
+                case KIND_INT:
+                    setter.invokeExact(value, reader.readInt());
+                    break;
+                case KIND_LONG:
+                    setter.invokeExact(value, reader.readLong());
+                    break;
+                case KIND_FLOAT:
+                    setter.invokeExact(value, reader.readFloat());
+                    break;
+                case KIND_DOUBLE:
+                    setter.invokeExact(value, reader.readDouble());
+                    break;
+                case KIND_CHAR:
+                    setter.invokeExact(value, reader.readChar());
+                    break;
+                default:
+                    setter.invokeExact(value, readObject(reader, p));
+                    break;
+            }
+        }
+        reader.endDict();
+        return value;
+    }
+
+    private Object decodeRecord(BinPackReader reader) throws Throwable {
+        Object[] args = new Object[properties.length];
+        reader.beginDict();
+        while (reader.hasNext()) {
+            Property p = nextProperty(reader);
+            if (p == null) {
+                reader.skipValue();
+                continue;
+            }
+            switch (p.kind) {
+                case KIND_BOOLEAN:
+                    args[p.index] = reader.readBoolean();
+                    break;
+                case KIND_BYTE:
+                    args[p.index] = reader.readByte();
+                    break;
+                case KIND_SHORT:
+                    args[p.index] = reader.readShort();
+                    break;
+                case KIND_INT:
+                    args[p.index] = reader.readInt();
+                    break;
+                case KIND_LONG:
+                    args[p.index] = reader.readLong();
+                    break;
+                case KIND_FLOAT:
+                    args[p.index] = reader.readFloat();
+                    break;
+                case KIND_DOUBLE:
+                    args[p.index] = reader.readDouble();
+                    break;
+                case KIND_CHAR:
+                    args[p.index] = reader.readChar();
+                    break;
+                default:
+                    args[p.index] = readObject(reader, p);
+                    break;
+            }
+        }
+        reader.endDict();
+        // a missing primitive component is 0 or false, as a missing field is
+        for (Property p : properties) {
+            if (args[p.index] == null && p.kind != KIND_OBJECT) {
+                args[p.index] = defaultValue(p.kind);
+            }
+        }
+        return (Object) constructor.invokeExact(args);
+    }
+
+    /**
+     * Read a dict key and find its property; a key which is not a string is skipped.
+     *
+     * @return null if the key is not a property, its value is to be skipped
+     */
+    private Property nextProperty(BinPackReader reader) throws BinPackException {
+        if (reader.nextToken() != BinPack.BIN_TYPE_STRING) {
+            reader.skipValue();
+            return null;
+        }
+        return byName.get(reader.readString());
+    }
+
+    private static Object readObject(BinPackReader reader, Property p) throws BinPackException {
+        if (reader.nextToken() == BinPack.BIN_TYPE_NULL) {
+            reader.readNull();
+            return null;
+        }
+        Class type = p.type;
+        if (type == String.class) {
+            return reader.readString();
+        } else if (type == Integer.class) {
+            return reader.readInt();
+        } else if (type == Long.class) {
+            return reader.readLong();
+        } else if (type == Double.class) {
+            return reader.readDouble();
+        } else if (type == Boolean.class) {
+            return reader.readBoolean();
+        } else if (type == Float.class) {
+            return reader.readFloat();
+        } else if (type == Short.class) {
+            return reader.readShort();
+        } else if (type == Byte.class) {
+            return reader.readByte();
+        } else if (type == byte[].class) {
+            return reader.readBlob();
+        } else if (type == int[].class) {
+            return reader.readIntArray();
+        } else if (type == long[].class) {
+            return reader.readLongArray();
+        } else if (type == double[].class) {
+            return reader.readDoubleArray();
+        } else if (type == float[].class) {
+            return reader.readFloatArray();
+        }
+        if (p.elementType != null && reader.nextToken() == BinPack.BIN_TYPE_LIST
+                && BinPackCodecs.lookup(p.elementType) != null) {
+            List list = new ArrayList();
+            reader.beginList();
+            while (reader.hasNext()) {
+                list.add(BinPackCodecs.decode(reader, p.elementType));
+            }
+            reader.endList();
+            return list;
+        }
+        if (reader.nextToken() == BinPack.BIN_TYPE_DICT && !type.isAssignableFrom(HashMap.class)
+                && BinPackCodecs.lookup(type) != null) {
+            return BinPackCodecs.decode(reader, type);
+        }
+        return reader.readValue();
+    }
+
+    private static Object defaultValue(int kind) {
+        switch (kind) {
+            case KIND_BOOLEAN:
+                return false;
+            case KIND_BYTE:
+                return (byte) 0;
+            case KIND_SHORT:
+                return (short) 0;
+            case KIND_INT:
+                return 0;
+            case KIND_LONG:
+                return 0L;
+            case KIND_FLOAT:
+                return 0f;
+            case KIND_DOUBLE:
+                return 0d;
+        }
+        return '\0';
+    }
+}
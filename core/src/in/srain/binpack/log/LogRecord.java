@@ -0,0 +1,39 @@
+package in.srain.binpack.log;
+
+/**
+ * A record read from a {@link RecordLog}.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public final class LogRecord {
+
+    private final long number;
+    private final long timestamp;
+    private final Object value;
+
+    LogRecord(long number, long timestamp, Object value) {
+        this.number = number;
+        this.timestamp = timestamp;
+        this.value = value;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * The decoded record.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + number + "@" + timestamp + ": " + value;
+    }
+}
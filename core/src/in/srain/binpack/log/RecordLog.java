@@ -0,0 +1,332 @@
+package in.srain.binpack.log;
+
+import in.srain.binpack.BinPack;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import static in.srain.binpack.log.Segments.*;
+
+/**
+ * An append-only log of encoded records, numbered from 0, split into segment files with an offset index each.
+ * See {@link Segments} for the file layout, and {@link RecordLogReader} to read it back.
+ * <p/>
+ * Appends are buffered, and written out when the buffer is full or on {@link #flush()}; only written records are
+ * visible to readers. They are made durable by {@link #sync()}, which is also done automatically once
+ * {@link #setSyncEvery(int)} records or {@link #setSyncInterval(long)} milliseconds have gone by since the last one,
+ * checked on each append. Closing the log syncs it.
+ * <p/>
+ * Opening a log recovers from a torn write: the last segment is cut back to its last complete record, and its
+ * index is rebuilt from there.
+ * <p/>
+ * A log is thread safe. Only one {@code RecordLog} may be open on a directory at a time.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class RecordLog implements Closeable, Flushable {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+    public static final int DEFAULT_SYNC_EVERY = 1000;
+    public static final long DEFAULT_SYNC_INTERVAL = 1000;
+
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final File dir;
+    private final Charset charset;
+
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private int syncEvery = DEFAULT_SYNC_EVERY;
+    private long syncInterval = DEFAULT_SYNC_INTERVAL;
+
+    private FileChannel log;
+    private FileChannel index;
+    // the size of the current segment, including the buffered records
+    private long segmentPosition;
+    private final ByteBuffer logBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private long nextNumber;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private int unsynced;
+    private long lastSync = System.currentTimeMillis();
+    private boolean closed;
+
+    private RecordLog(File dir, Charset charset) {
+        this.dir = dir;
+        this.charset = charset;
+    }
+
+    /**
+     * Open the log in {@code dir}, creating it if needed, and recover its last segment.
+     */
+    public static RecordLog open(File dir, Charset charset) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create " + dir);
+        }
+        RecordLog recordLog = new RecordLog(dir, charset);
+        long[] bases = list(dir);
+        if (bases.length == 0) {
+            recordLog.openSegment(0);
+        } else {
+            if (bases.length > 1) {
+                recordLog.lastTimestamp = lastTimestamp(dir, bases[bases.length - 2]);
+            }
+            recordLog.recover(bases[bases.length - 1]);
+        }
+        return recordLog;
+    }
+
+    /**
+     * Start a new segment once the current one reaches {@code segmentSize} bytes, 64 MB by default.
+     */
+    public synchronized RecordLog setSegmentSize(long segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * Sync after this many appended records, 1000 by default, or never if 0.
+     */
+    public synchronized RecordLog setSyncEvery(int syncEvery) {
+        if (syncEvery < 0) {
+            throw new IllegalArgumentException("syncEvery: " + syncEvery);
+        }
+        this.syncEvery = syncEvery;
+        return this;
+    }
+
+    /**
+     * Sync on the first append this many milliseconds after the last sync, 1000 by default, or never if 0.
+     */
+    public synchronized RecordLog setSyncInterval(long syncInterval) {
+        if (syncInterval < 0) {
+            throw new IllegalArgumentException("syncInterval: " + syncInterval);
+        }
+        this.syncInterval = syncInterval;
+        return this;
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * The number the next appended record will get, which is also the number of records in the log.
+     */
+    public synchronized long nextNumber() {
+        return nextNumber;
+    }
+
+    /**
+     * Append {@code record} stamped with the current time, or with the last timestamp if the clock went back.
+     *
+     * @return the number of the record
+     */
+    public synchronized long append(Object record) throws IOException {
+        return append(record, Math.max(System.currentTimeMillis(), lastTimestamp));
+    }
+
+    /**
+     * Append {@code record} with {@code timestamp}, which may not be earlier than the one of the last record, so
+     * that {@link RecordLogReader#seekToTimestamp(long)} can search them.
+     *
+     * @return the number of the record
+     */
+    public synchronized long append(Object record, long timestamp) throws IOException {
+        ensureOpen();
+        if (timestamp < lastTimestamp) {
+            throw new IllegalArgumentException("Timestamp " + timestamp + " is before the last one, " + lastTimestamp);
+        }
+        byte[] payload = BinPack.encode(record, charset);
+        long frameSize = FRAME_HEADER_SIZE + (long) payload.length;
+        if (segmentPosition > 0 && segmentPosition + frameSize > segmentSize) {
+            roll();
+        }
+
+        if (logBuffer.remaining() < FRAME_HEADER_SIZE) {
+            flushBuffers();
+        }
+        logBuffer.putInt(payload.length);
+        logBuffer.putInt(crc(timestamp, payload, 0, payload.length));
+        logBuffer.putLong(timestamp);
+        if (logBuffer.remaining() >= payload.length) {
+            logBuffer.put(payload);
+        } else {
+            flushBuffers();
+            if (payload.length > logBuffer.capacity()) {
+                writeFully(log, ByteBuffer.wrap(payload));
+            } else {
+                logBuffer.put(payload);
+            }
+        }
+        if (indexBuffer.remaining() < INDEX_ENTRY_SIZE) {
+            flushBuffers();
+        }
+        indexBuffer.putLong(segmentPosition);
+        indexBuffer.putLong(timestamp);
+
+        segmentPosition += frameSize;
+        lastTimestamp = timestamp;
+        unsynced++;
+        if ((syncEvery > 0 && unsynced >= syncEvery)
+                || (syncInterval > 0 && System.currentTimeMillis() - lastSync >= syncInterval)) {
+            sync();
+        }
+        return nextNumber++;
+    }
+
+    /**
+     * Write out the buffered records, making them visible to readers.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+        flushBuffers();
+    }
+
+    /**
+     * Write out the buffered records and force them to the storage device.
+     */
+    public synchronized void sync() throws IOException {
+        ensureOpen();
+        flushBuffers();
+        log.force(false);
+        index.force(false);
+        unsynced = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Sync and close the log.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            closed = true;
+            closeSegment();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Log is closed");
+        }
+    }
+
+    private void flushBuffers() throws IOException {
+        // the records first, so that the index never points past them
+        logBuffer.flip();
+        writeFully(log, logBuffer);
+        logBuffer.clear();
+        indexBuffer.flip();
+        writeFully(index, indexBuffer);
+        indexBuffer.clear();
+    }
+
+    private void roll() throws IOException {
+        sync();
+        closeSegment();
+        openSegment(nextNumber);
+    }
+
+    private void openSegment(long base) throws IOException {
+        segmentPosition = 0;
+        log = new RandomAccessFile(logFile(dir, base), "rw").getChannel();
+        index = new RandomAccessFile(indexFile(dir, base), "rw").getChannel();
+        log.truncate(0);
+        index.truncate(0);
+    }
+
+    private void closeSegment() throws IOException {
+        try {
+            log.close();
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Open the last segment, keeping its longest prefix of complete records and rebuilding its index to match.
+     */
+    private void recover(long base) throws IOException {
+        log = new RandomAccessFile(logFile(dir, base), "rw").getChannel();
+        index = new RandomAccessFile(indexFile(dir, base), "rw").getChannel();
+        long logSize = log.size();
+
+        // the last index entry whose record is intact
+        long entries = index.size() / INDEX_ENTRY_SIZE;
+        long position = 0;
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        while (entries > 0) {
+            readEntry(index, entries - 1, entry);
+            long entryPosition = entry.getLong();
+            long timestamp = entry.getLong();
+            long end = entryPosition < 0 ? -1 : checkFrame(log, entryPosition, logSize, timestamp);
+            if (end >= 0) {
+                position = end;
+                lastTimestamp = Math.max(lastTimestamp, timestamp);
+                break;
+            }
+            entries--;
+        }
+        index.truncate(entries * INDEX_ENTRY_SIZE);
+        index.position(entries * INDEX_ENTRY_SIZE);
+
+        // records written after their index entries were lost
+        while (true) {
+            long end = checkFrame(log, position, logSize, Long.MIN_VALUE);
+            if (end < 0) {
+                break;
+            }
+            long timestamp = frameTimestamp(log, position);
+            if (timestamp < lastTimestamp) {
+                break;
+            }
+            entry.clear();
+            entry.putLong(position).putLong(timestamp).flip();
+            writeFully(index, entry);
+            lastTimestamp = timestamp;
+            position = end;
+            entries++;
+        }
+        log.truncate(position);
+        log.position(position);
+        segmentPosition = position;
+        nextNumber = base + entries;
+        log.force(false);
+        index.force(false);
+    }
+
+    private static long lastTimestamp(File dir, long base) throws IOException {
+        FileChannel index = new RandomAccessFile(indexFile(dir, base), "r").getChannel();
+        try {
+            long entries = index.size() / INDEX_ENTRY_SIZE;
+            if (entries == 0) {
+                return Long.MIN_VALUE;
+            }
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            readEntry(index, entries - 1, entry);
+            return entry.getLong(8);
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package in.srain.binpack.log;
+
+import in.srain.binpack.BinPackDecoder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+
+import static in.srain.binpack.log.Segments.*;
+
+/**
+ * Reads the records of a {@link RecordLog} in order, from the first one or from where {@link #seek(long)} or
+ * {@link #seekToTimestamp(long)} put it.
+ * <pre>
+ * RecordLogReader reader = new RecordLogReader(dir, charset);
+ * reader.seekToTimestamp(since);
+ * while (reader.hasNext()) {
+ *     LogRecord record = reader.next();
+ * }
+ * </pre>
+ * Segments are read ahead in large blocks, so reading sequentially does not go to the file for every record.
+ * Seeking uses the offset index: to a record number in constant time, and to a timestamp with a binary search.
+ * A reader sees the records written out by the log, including those appended after it was opened: {@link #hasNext()}
+ * returns false at the current end, and true again once more records are written.
+ * <p/>
+ * The read-ahead buffer is reused, so with a {@link BinPackDecoder} which returns blob or string views, see
+ * {@link BinPackDecoder#setBlobViews(boolean)}, each record is copied into an array of its own first, and the views
+ * stay valid for as long as they are referenced.
+ * <p/>
+ * A reader is not thread safe.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class RecordLogReader implements Closeable {
+
+    public static final int DEFAULT_READ_AHEAD = 256 << 10;
+
+    private final File dir;
+    private final BinPackDecoder decoder;
+
+    private long[] bases = new long[0];
+    // the index in bases of the current segment, -1 before the first one is opened
+    private int segment = -1;
+    private FileChannel log;
+    // the file position and the number of the next record
+    private long position;
+    private long nextNumber;
+    private LogRecord pending;
+
+    // the bytes of the current segment from bufferStart on
+    private ByteBuffer buffer;
+    private long bufferStart;
+
+    public RecordLogReader(File dir, Charset charset) throws IOException {
+        this(dir, new BinPackDecoder(charset), DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * @param readAhead the number of bytes read from a segment at a time
+     */
+    public RecordLogReader(File dir, BinPackDecoder decoder, int readAhead) throws IOException {
+        if (readAhead < FRAME_HEADER_SIZE) {
+            throw new IllegalArgumentException("readAhead: " + readAhead);
+        }
+        this.dir = dir;
+        this.decoder = decoder;
+        buffer = ByteBuffer.allocate(readAhead);
+        buffer.flip();
+        bases = list(dir);
+        if (bases.length > 0) {
+            openSegment(0, 0, bases[0]);
+        }
+    }
+
+    /**
+     * The number of the record {@link #next()} returns.
+     */
+    public long position() {
+        return pending != null ? pending.getNumber() : nextNumber;
+    }
+
+    /**
+     * Continue from record {@code number}, which may also be the number the next appended record will get.
+     *
+     * @throws IllegalArgumentException if there is no such record
+     */
+    public void seek(long number) throws IOException {
+        bases = list(dir);
+        int i = find(bases, number);
+        if (i < 0) {
+            throw new IllegalArgumentException("Record " + number + " is before the first one");
+        }
+        long base = bases[i];
+        FileChannel index = openIndex(base);
+        long offset;
+        long last = -1;
+        try {
+            long entries = index.size() / INDEX_ENTRY_SIZE;
+            if (number - base < entries) {
+                offset = entry(index, number - base, 0);
+            } else if (number - base == entries && i == bases.length - 1) {
+                // the end of the log
+                offset = 0;
+                if (entries > 0) {
+                    last = entry(index, entries - 1, 0);
+                }
+            } else {
+                throw new IllegalArgumentException("Record " + number + " is past the end");
+            }
+        } finally {
+            index.close();
+        }
+        openSegment(i, offset, number);
+        if (last >= 0) {
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+            readFully(log, header, last);
+            position = last + FRAME_HEADER_SIZE + header.getInt(0);
+        }
+    }
+
+    /**
+     * Continue from the first record whose timestamp is at least {@code timestamp}, or from the end if there is
+     * none.
+     */
+    public void seekToTimestamp(long timestamp) throws IOException {
+        bases = list(dir);
+        if (bases.length == 0) {
+            return;
+        }
+        // the last segment whose first record is earlier than timestamp
+        int found = 0;
+        int lo = 0;
+        int hi = bases.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            FileChannel index = openIndex(bases[mid]);
+            try {
+                if (index.size() >= INDEX_ENTRY_SIZE && entry(index, 0, 8) < timestamp) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            } finally {
+                index.close();
+            }
+        }
+        // the first record of that segment which is not earlier than timestamp
+        FileChannel index = openIndex(bases[found]);
+        long first;
+        try {
+            long low = 0;
+            long high = index.size() / INDEX_ENTRY_SIZE;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (entry(index, mid, 8) < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            first = bases[found] + low;
+        } finally {
+            index.close();
+        }
+        seek(first);
+    }
+
+    public boolean hasNext() throws IOException {
+        if (pending != null) {
+            return true;
+        }
+        while (true) {
+            if (segment < 0) {
+                bases = list(dir);
+                if (bases.length == 0) {
+                    return false;
+                }
+                openSegment(0, 0, bases[0]);
+            }
+            pending = readFrame();
+            if (pending != null) {
+                return true;
+            }
+            if (segment + 1 >= bases.length) {
+                bases = list(dir);
+            }
+            if (segment + 1 >= bases.length) {
+                return false;
+            }
+            // the writer has moved on to the next segment; look at the current one once more, it is complete now
+            pending = readFrame();
+            if (pending != null) {
+                return true;
+            }
+            openSegment(segment + 1, 0, bases[segment + 1]);
+        }
+    }
+
+    public LogRecord next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LogRecord record = pending;
+        pending = null;
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    private void openSegment(int i, long offset, long number) throws IOException {
+        close();
+        segment = i;
+        log = new RandomAccessFile(logFile(dir, bases[i]), "r").getChannel();
+        position = offset;
+        nextNumber = number;
+        pending = null;
+        bufferStart = 0;
+        buffer.clear();
+        buffer.flip();
+    }
+
+    private FileChannel openIndex(long base) throws IOException {
+        return new RandomAccessFile(indexFile(dir, base), "r").getChannel();
+    }
+
+    /**
+     * The position, at 0, or the timestamp, at 8, of entry {@code i}.
+     */
+    private static long entry(FileChannel index, long i, int field) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        readEntry(index, i, entry);
+        return entry.getLong(field);
+    }
+
+    /**
+     * Read the frame at position, or return null if it is not completely written yet.
+     */
+    private LogRecord readFrame() throws IOException {
+        if (!fill(FRAME_HEADER_SIZE)) {
+            return null;
+        }
+        int at = (int) (position - bufferStart);
+        int length = buffer.getInt(at);
+        int crc = buffer.getInt(at + 4);
+        long timestamp = buffer.getLong(at + 8);
+        if (length < 0) {
+            throw new IOException("Corrupt record " + nextNumber + " in " + logFile(dir, bases[segment]));
+        }
+        if (!fill(FRAME_HEADER_SIZE + length)) {
+            return null;
+        }
+        at = (int) (position - bufferStart);
+        byte[] array = buffer.array();
+        int payload = buffer.arrayOffset() + at + FRAME_HEADER_SIZE;
+        if (crc(timestamp, array, payload, length) != crc) {
+            throw new IOException("Corrupt record " + nextNumber + " in " + logFile(dir, bases[segment]));
+        }
+        Object value;
+        if (decoder.isBlobViews() || decoder.isStringViews()) {
+            byte[] own = new byte[length];
+            System.arraycopy(array, payload, own, 0, length);
+            value = decoder.decode(own);
+        } else {
+            value = decoder.decode(array, payload, length);
+        }
+        position += FRAME_HEADER_SIZE + length;
+        return new LogRecord(nextNumber++, timestamp, value);
+    }
+
+    /**
+     * Make sure the buffer holds {@code n} bytes from position on, reading ahead if not.
+     *
+     * @return false if the segment is shorter
+     */
+    private boolean fill(int n) throws IOException {
+        if (position >= bufferStart && position + n <= bufferStart + buffer.limit()) {
+            return true;
+        }
+        if (n > buffer.capacity()) {
+            buffer = ByteBuffer.allocate(n);
+        }
+        buffer.clear();
+        bufferStart = position;
+        while (buffer.hasRemaining()) {
+            int read = log.read(buffer, bufferStart + buffer.position());
+            if (read <= 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.limit() >= n;
+    }
+}
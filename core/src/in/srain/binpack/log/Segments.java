@@ -0,0 +1,155 @@
+package in.srain.binpack.log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The layout of a log directory, shared by {@link RecordLog} and {@link RecordLogReader}.
+ * <p/>
+ * A segment is named after the number of its first record, {@code 00000000000000000042.log}, and holds frames of
+ * <pre>
+ * int  length of the payload
+ * int  CRC32 of the timestamp and the payload
+ * long timestamp
+ * byte[length] payload, one encoded value
+ * </pre>
+ * Its sidecar {@code 00000000000000000042.idx} holds one entry of {@code long position, long timestamp} per frame,
+ * so record n is entry {@code n - 42}. All numbers are big-endian.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+final class Segments {
+
+    static final int FRAME_HEADER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private Segments() {
+    }
+
+    static File logFile(File dir, long base) {
+        return new File(dir, name(base) + LOG_SUFFIX);
+    }
+
+    static File indexFile(File dir, long base) {
+        return new File(dir, name(base) + INDEX_SUFFIX);
+    }
+
+    private static String name(long base) {
+        return String.format("%020d", base);
+    }
+
+    /**
+     * The first record numbers of the segments in {@code dir}, in order.
+     */
+    static long[] list(File dir) throws IOException {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return name.length() == 20 + LOG_SUFFIX.length() && name.endsWith(LOG_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Can not list " + dir);
+        }
+        long[] bases = new long[files.length];
+        int n = 0;
+        for (File file : files) {
+            try {
+                bases[n] = Long.parseLong(file.getName().substring(0, 20));
+                n++;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        bases = Arrays.copyOf(bases, n);
+        Arrays.sort(bases);
+        return bases;
+    }
+
+    /**
+     * The index of the last segment whose first record is at most {@code number}, or -1.
+     */
+    static int find(long[] bases, long number) {
+        int i = Arrays.binarySearch(bases, number);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    static int crc(long timestamp, byte[] payload, int off, int len) {
+        CRC32 crc = new CRC32();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (timestamp >>> shift));
+        }
+        crc.update(payload, off, len);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Read the index entry {@code i}: its position, then its timestamp.
+     */
+    static void readEntry(FileChannel index, long i, ByteBuffer entry) throws IOException {
+        entry.clear();
+        readFully(index, entry, i * INDEX_ENTRY_SIZE);
+        entry.flip();
+    }
+
+    /**
+     * Check the frame at {@code position} of a log whose valid data ends at {@code limit}.
+     *
+     * @return the position after the frame, or -1 if it is torn or corrupt
+     */
+    static long checkFrame(FileChannel log, long position, long limit, long expectedTimestamp) throws IOException {
+        if (limit - position < FRAME_HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        readFully(log, header, position);
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+        long timestamp = header.getLong();
+        if (length < 0 || limit - position - FRAME_HEADER_SIZE < length
+                || (expectedTimestamp != Long.MIN_VALUE && timestamp != expectedTimestamp)) {
+            return -1;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(log, payload, position + FRAME_HEADER_SIZE);
+        if (crc(timestamp, payload.array(), 0, length) != crc) {
+            return -1;
+        }
+        return position + FRAME_HEADER_SIZE + length;
+    }
+
+    /**
+     * The timestamp in the frame header at {@code position}.
+     */
+    static long frameTimestamp(FileChannel log, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        readFully(log, header, position);
+        return header.getLong(8);
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new EOFException("At " + position);
+            }
+            position += n;
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package in.srain.binpack.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equally sized buffers, shared by the {@link FrameEncoder}s of many connections.
+ * <p/>
+ * Buffers of another size or kind are not taken back, so a buffer allocated for one large frame is simply left to
+ * the garbage collector. A pool is thread safe.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 << 10;
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * A pool of up to 256 heap buffers of 64 KB.
+     */
+    public BufferPool() {
+        this(DEFAULT_BUFFER_SIZE, 256, false);
+    }
+
+    /**
+     * @param maxBuffers the number of idle buffers kept
+     * @param direct     true for direct buffers, which a socket channel writes without copying them first
+     */
+    public BufferPool(int bufferSize, int maxBuffers, boolean direct) {
+        if (bufferSize <= 0 || maxBuffers < 0) {
+            throw new IllegalArgumentException("bufferSize: " + bufferSize + ", maxBuffers: " + maxBuffers);
+        }
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.direct = direct;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * An empty buffer of {@link #getBufferSize()} bytes.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer bb = buffers.poll();
+        if (bb == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        count.decrementAndGet();
+        bb.clear();
+        return bb;
+    }
+
+    /**
+     * Give back a buffer which is not used anymore.
+     */
+    public void release(ByteBuffer bb) {
+        if (bb.capacity() != bufferSize || bb.isDirect() != direct || bb.isReadOnly()) {
+            return;
+        }
+        if (count.incrementAndGet() > maxBuffers) {
+            count.decrementAndGet();
+            return;
+        }
+        buffers.offer(bb);
+    }
+}
@@ -0,0 +1,156 @@
+package in.srain.binpack.nio;
+
+import in.srain.binpack.BinPackDecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the frames written by {@link FrameEncoder}, from a non-blocking channel or from buffers fed by hand.
+ * <p/>
+ * Reads go into one buffer which accumulates partial frames, and each complete frame is decoded right where it is
+ * with {@link BinPackDecoder#decode(ByteBuffer)}, never copied into a {@code byte[]} of its own. The buffer grows
+ * for a frame larger than it, up to the maximum frame size.
+ * <pre>
+ * if (decoder.read(socketChannel) &lt; 0) {
+ *     close();
+ * }
+ * while (decoder.hasNext()) {
+ *     handle(decoder.next());
+ * }
+ * </pre>
+ * With an {@code AsynchronousSocketChannel}, read into {@link #readBuffer()} and look for frames in the completion
+ * handler.
+ * <p/>
+ * The buffer is reused by later reads, so with a {@link BinPackDecoder} which returns blob or string views, see
+ * {@link BinPackDecoder#setBlobViews(boolean)}, each frame is copied into an array of its own first, and the views
+ * stay valid for as long as they are referenced.
+ * <p/>
+ * A decoder belongs to one connection and is not thread safe.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class FrameDecoder {
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 << 20;
+    public static final int DEFAULT_CAPACITY = 64 << 10;
+
+    // the least free space offered to a read
+    private static final int MIN_READ = 4096;
+
+    private final BinPackDecoder decoder;
+    private final int maxFrameSize;
+
+    // bytes from start to position are received and not consumed yet
+    private ByteBuffer buffer;
+    private int start;
+
+    public FrameDecoder(Charset charset) {
+        this(new BinPackDecoder(charset), DEFAULT_CAPACITY, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param maxFrameSize the largest frame accepted, in bytes; a larger one fails the connection
+     */
+    public FrameDecoder(BinPackDecoder decoder, int capacity, int maxFrameSize) {
+        this.decoder = decoder;
+        this.maxFrameSize = maxFrameSize;
+        this.buffer = ByteBuffer.allocate(Math.max(capacity, FrameEncoder.HEADER_SIZE));
+    }
+
+    /**
+     * Read what {@code channel} has available.
+     *
+     * @return the number of bytes read, or -1 at the end of the stream
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        return channel.read(readBuffer());
+    }
+
+    /**
+     * The buffer to read the next bytes into, with some free space from its position on. Only valid until the
+     * next call on this decoder.
+     */
+    public ByteBuffer readBuffer() throws IOException {
+        int missing = MIN_READ;
+        int available = buffer.position() - start;
+        if (available >= FrameEncoder.HEADER_SIZE) {
+            missing = Math.max(missing, FrameEncoder.HEADER_SIZE + frameSize() - available);
+        }
+        ensureRoom(missing);
+        return buffer;
+    }
+
+    /**
+     * Append all the remaining bytes of {@code src}.
+     */
+    public void feed(ByteBuffer src) {
+        ensureRoom(src.remaining());
+        buffer.put(src);
+    }
+
+    /**
+     * True if a complete frame has been received.
+     *
+     * @throws IOException if the next frame is larger than the maximum frame size
+     */
+    public boolean hasNext() throws IOException {
+        int available = buffer.position() - start;
+        return available >= FrameEncoder.HEADER_SIZE && available - FrameEncoder.HEADER_SIZE >= frameSize();
+    }
+
+    /**
+     * Decode the next frame; malformed data decodes to null, as with {@link BinPackDecoder#decode(ByteBuffer)}.
+     */
+    public Object next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int size = frameSize();
+        ByteBuffer frame = buffer.duplicate();
+        frame.limit(start + FrameEncoder.HEADER_SIZE + size);
+        frame.position(start + FrameEncoder.HEADER_SIZE);
+        start += FrameEncoder.HEADER_SIZE + size;
+        if (start == buffer.position()) {
+            buffer.clear();
+            start = 0;
+        }
+        if (decoder.isBlobViews() || decoder.isStringViews()) {
+            byte[] own = new byte[size];
+            frame.get(own);
+            return decoder.decode(own);
+        }
+        return decoder.decode(frame);
+    }
+
+    private int frameSize() throws IOException {
+        int size = buffer.getInt(start);
+        if (size < 0 || size > maxFrameSize) {
+            throw new IOException("Frame of " + (size & 0xffffffffL) + " bytes, the maximum is " + maxFrameSize);
+        }
+        return size;
+    }
+
+    private void ensureRoom(int n) {
+        if (buffer.remaining() >= n) {
+            return;
+        }
+        int available = buffer.position() - start;
+        if (buffer.capacity() - available >= n) {
+            buffer.flip();
+            buffer.position(start);
+            buffer.compact();
+        } else {
+            long capacity = Math.max((long) buffer.capacity() * 2, (long) available + n);
+            ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(capacity, Integer.MAX_VALUE - 8));
+            buffer.flip();
+            buffer.position(start);
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        start = 0;
+    }
+}
@@ -0,0 +1,165 @@
+package in.srain.binpack.nio;
+
+import in.srain.binpack.BinPack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+
+/**
+ * Writes values as frames of a 4-byte big-endian length followed by the encoded value, see {@link FrameDecoder}.
+ * <p/>
+ * Values are encoded straight into buffers taken from a {@link BufferPool}, many frames to a buffer, and the queued
+ * buffers are written with one gathering write. A buffer goes back to the pool once it is completely written.
+ * <pre>
+ * encoder.add(request);
+ * if (!encoder.flush(socketChannel)) {
+ *     key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+ * }
+ * </pre>
+ * With an {@code AsynchronousSocketChannel}, pass {@link #buffers()} to its gathering {@code write} and call
+ * {@link #release()} in the completion handler.
+ * <p/>
+ * An encoder belongs to one connection and is not thread safe.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+public class FrameEncoder {
+
+    public static final int HEADER_SIZE = 4;
+
+    private static final ByteBuffer[] EMPTY = new ByteBuffer[0];
+
+    private final Charset charset;
+    private final BufferPool pool;
+    private final int maxFrameSize;
+
+    // buffers ready to be written, in order
+    private final ArrayDeque<ByteBuffer> ready = new ArrayDeque<ByteBuffer>();
+    // the buffer being filled, not in ready yet
+    private ByteBuffer tail;
+
+    public FrameEncoder(Charset charset, BufferPool pool) {
+        this(charset, pool, FrameDecoder.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param maxFrameSize the largest encoded value accepted, in bytes
+     */
+    public FrameEncoder(Charset charset, BufferPool pool, int maxFrameSize) {
+        this.charset = charset;
+        this.pool = pool;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Queue {@code value} as one frame.
+     *
+     * @throws IllegalArgumentException if it encodes to more than the maximum frame size
+     */
+    public void add(Object value) {
+        if (tail != null && encodeFrame(value, tail)) {
+            return;
+        }
+        seal();
+        ByteBuffer bb = pool.acquire();
+        if (!encodeFrame(value, bb)) {
+            pool.release(bb);
+            long size = BinPack.encodedSize(value, charset);
+            if (size > maxFrameSize) {
+                throw new IllegalArgumentException("Frame of " + size + " bytes, the maximum is " + maxFrameSize);
+            }
+            // a buffer of its own, the pool does not take it back
+            bb = ByteBuffer.allocate(HEADER_SIZE + (int) size);
+            encodeFrame(value, bb);
+        }
+        tail = bb;
+    }
+
+    /**
+     * True if some frames are not completely written yet.
+     */
+    public boolean hasPending() {
+        if (tail != null && tail.position() > 0) {
+            return true;
+        }
+        for (ByteBuffer bb : ready) {
+            if (bb.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write as much as {@code channel} takes without blocking.
+     *
+     * @return true if all frames are written
+     */
+    public boolean flush(GatheringByteChannel channel) throws IOException {
+        while (true) {
+            ByteBuffer[] buffers = buffers();
+            if (buffers.length == 0) {
+                return true;
+            }
+            long written = channel.write(buffers);
+            release();
+            if (written == 0 && hasPending()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * The buffers holding the frames not written yet, for a gathering write. Frames added after this call go to
+     * other buffers.
+     */
+    public ByteBuffer[] buffers() {
+        seal();
+        return ready.isEmpty() ? EMPTY : ready.toArray(new ByteBuffer[ready.size()]);
+    }
+
+    /**
+     * Give the buffers which have been completely written back to the pool.
+     */
+    public void release() {
+        while (!ready.isEmpty() && !ready.peekFirst().hasRemaining()) {
+            pool.release(ready.pollFirst());
+        }
+    }
+
+    /**
+     * Drop the frames not written yet and give all buffers back to the pool.
+     */
+    public void clear() {
+        seal();
+        while (!ready.isEmpty()) {
+            pool.release(ready.pollFirst());
+        }
+    }
+
+    private boolean encodeFrame(Object value, ByteBuffer bb) {
+        int start = bb.position();
+        if (bb.remaining() <= HEADER_SIZE) {
+            return false;
+        }
+        bb.position(start + HEADER_SIZE);
+        int size = BinPack.encode(value, bb, charset);
+        if (size < 0 || size > maxFrameSize) {
+            bb.position(start);
+            return false;
+        }
+        bb.putInt(start, size);
+        return true;
+    }
+
+    private void seal() {
+        if (tail != null) {
+            tail.flip();
+            ready.addLast(tail);
+            tail = null;
+        }
+    }
+}
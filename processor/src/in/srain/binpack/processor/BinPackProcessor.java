@@ -0,0 +1,520 @@
+package in.srain.binpack.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates a {@code BinPackCodec} for every class annotated with {@code @BinPackable}.
+ * <p/>
+ * The codec of {@code a.b.C} is {@code a.b.C$$BinPackCodec}. It writes the fields one by one as a dict and reads
+ * them back with a {@code BinPackReader}, without reflection and without an intermediate {@code Map}. A field is
+ * accessed directly if the codec can see it, through its getter and setter otherwise.
+ *
+ * @author http://www.liaohuqiu.net
+ */
+@SupportedAnnotationTypes(BinPackProcessor.BIN_PACKABLE)
+public class BinPackProcessor extends AbstractProcessor {
+
+    static final String BIN_PACKABLE = "in.srain.binpack.BinPackable";
+    static final String GENERATED_SUFFIX = "$$BinPackCodec";
+
+    private static final String[][] BOXES = {
+            {"java.lang.Boolean", "readBoolean"},
+            {"java.lang.Byte", "readByte"},
+            {"java.lang.Short", "readShort"},
+            {"java.lang.Integer", "readInt"},
+            {"java.lang.Long", "readLong"},
+            {"java.lang.Float", "readFloat"},
+            {"java.lang.Double", "readDouble"},
+            {"java.lang.String", "readString"},
+    };
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(BIN_PACKABLE);
+        if (annotation == null) {
+            return false;
+        }
+        for (Element element : env.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@BinPackable only applies to classes");
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            if (!checkClass(type)) {
+                continue;
+            }
+            List<Property> properties = collectProperties(type);
+            if (properties == null) {
+                continue;
+            }
+            try {
+                writeCodec(type, properties);
+            } catch (IOException ex) {
+                error(type, "Can not write the codec: " + ex);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A field as seen by the codec.
+     */
+    private static final class Property {
+        String name;
+        TypeMirror type;
+        // reads the field of "value"
+        String getter;
+        // assigns "%s" to the field of "value"
+        String setter;
+    }
+
+    private boolean checkClass(TypeElement type) {
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT)) {
+            error(type, "@BinPackable class can not be abstract");
+            return false;
+        }
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            error(type, "@BinPackable class can not be private");
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC)) {
+            error(type, "@BinPackable nested class must be static");
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+            error(type, "@BinPackable class can not be local or anonymous");
+            return false;
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            error(type, "@BinPackable class can not be generic");
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && isVisible(constructor, type)) {
+                return true;
+            }
+        }
+        error(type, "@BinPackable class needs a non-private constructor without arguments");
+        return false;
+    }
+
+    /**
+     * The fields of {@code type} and its superclasses, a field shadowed by a subclass is left out.
+     *
+     * @return null if a field can not be accessed
+     */
+    private List<Property> collectProperties(TypeElement type) {
+        List<Property> properties = new ArrayList<Property>();
+        Set<String> names = new HashSet<String>();
+        boolean ok = true;
+        for (TypeElement t = type; t != null; t = superclass(t)) {
+            for (VariableElement field : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                String name = field.getSimpleName().toString();
+                if (!names.add(name)) {
+                    continue;
+                }
+                Property property = new Property();
+                property.name = name;
+                property.type = field.asType();
+                if (isVisible(field, type) && !modifiers.contains(Modifier.FINAL)) {
+                    property.getter = "value." + name;
+                    property.setter = "value." + name + " = %s";
+                } else if (!findAccessors(type, property)) {
+                    error(field, "Field " + name + " of a @BinPackable class must be non-private and non-final, or"
+                            + " have a getter and a setter");
+                    ok = false;
+                    continue;
+                }
+                if (!isSupported(property.type)) {
+                    error(field, "Unsupported type of a @BinPackable field: " + property.type
+                            + ", a list or dict may only hold primitives, strings, blobs, lists and dicts, or be a"
+                            + " List of @BinPackable objects");
+                    ok = false;
+                    continue;
+                }
+                properties.add(property);
+            }
+        }
+        return ok ? properties : null;
+    }
+
+    private TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+    }
+
+    private boolean findAccessors(TypeElement type, Property property) {
+        Types types = processingEnv.getTypeUtils();
+        String capitalized = Character.toUpperCase(property.name.charAt(0)) + property.name.substring(1);
+        String getter = null;
+        String setter = null;
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (method.getModifiers().contains(Modifier.STATIC) || !isVisible(method, type)) {
+                continue;
+            }
+            String name = method.getSimpleName().toString();
+            if (method.getParameters().isEmpty() && types.isSameType(method.getReturnType(), property.type)
+                    && (name.equals("get" + capitalized)
+                    || name.equals("is" + capitalized) && property.type.getKind() == TypeKind.BOOLEAN)) {
+                getter = "value." + name + "()";
+            } else if (method.getParameters().size() == 1 && name.equals("set" + capitalized)
+                    && types.isSameType(method.getParameters().get(0).asType(), property.type)) {
+                setter = "value." + name + "(%s)";
+            }
+        }
+        property.getter = getter;
+        property.setter = setter;
+        return getter != null && setter != null;
+    }
+
+    /**
+     * True if the codec, in the package of {@code type}, can access {@code member}.
+     */
+    private boolean isVisible(Element member, TypeElement type) {
+        Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        Elements elements = processingEnv.getElementUtils();
+        return elements.getPackageOf(member).equals(elements.getPackageOf(type));
+    }
+
+    private boolean isSupported(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+            case CHAR:
+                return true;
+            case ARRAY:
+                return arrayReader((ArrayType) type) != null;
+            case DECLARED:
+                return boxReader(type) != null || isBinPackable(type) || binPackableElement(type) != null
+                        || isDecodedType(type);
+        }
+        return false;
+    }
+
+    private String boxReader(TypeMirror type) {
+        for (String[] box : BOXES) {
+            if (isClass(type, box[0])) {
+                return box[1];
+            }
+        }
+        return null;
+    }
+
+    private static String arrayReader(ArrayType type) {
+        switch (type.getComponentType().getKind()) {
+            case BYTE:
+                return "readBlob";
+            case INT:
+                return "readIntArray";
+            case LONG:
+                return "readLongArray";
+            case FLOAT:
+                return "readFloatArray";
+            case DOUBLE:
+                return "readDoubleArray";
+        }
+        return null;
+    }
+
+    private boolean isBinPackable(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        Element element = ((DeclaredType) type).asElement();
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(BIN_PACKABLE);
+        for (javax.lang.model.element.AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (mirror.getAnnotationType().asElement().equals(annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The element type of a {@code List} or {@code Collection} of {@code @BinPackable} objects, or null.
+     */
+    private TypeMirror binPackableElement(TypeMirror type) {
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        if (arguments.size() != 1 || !isBinPackable(arguments.get(0)) || !acceptsDecoded(type, "java.util.ArrayList")) {
+            return null;
+        }
+        return arguments.get(0);
+    }
+
+    /**
+     * True if a value decoded by {@code BinPackReader.readValue()}, an {@code ArrayList} or a {@code HashMap},
+     * can be assigned to {@code type}. Its type arguments must be types decoding makes as well: a {@code List<Foo>}
+     * of anything but {@code @BinPackable} objects would be filled with maps.
+     */
+    private boolean isDecodedType(TypeMirror type) {
+        if (isClass(type, "java.lang.Object")) {
+            return true;
+        }
+        if (!acceptsDecoded(type, "java.util.ArrayList") && !acceptsDecoded(type, "java.util.HashMap")) {
+            return false;
+        }
+        for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+            if (!isDecodedArgument(argument)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if every decoded value is an instance of the type argument {@code type}.
+     */
+    private boolean isDecodedArgument(TypeMirror type) {
+        switch (type.getKind()) {
+            case WILDCARD:
+                WildcardType wildcard = (WildcardType) type;
+                if (wildcard.getSuperBound() != null) {
+                    return false;
+                }
+                return wildcard.getExtendsBound() == null || isDecodedArgument(wildcard.getExtendsBound());
+            case ARRAY:
+                return ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE;
+            case DECLARED:
+                return boxReader(type) != null || isDecodedType(type);
+        }
+        return false;
+    }
+
+    private boolean acceptsDecoded(TypeMirror type, String decodedClass) {
+        Types types = processingEnv.getTypeUtils();
+        TypeElement decoded = processingEnv.getElementUtils().getTypeElement(decodedClass);
+        return types.isAssignable(types.erasure(decoded.asType()), types.erasure(type));
+    }
+
+    private boolean isClass(TypeMirror type, String name) {
+        return type.getKind() == TypeKind.DECLARED
+                && ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals(name);
+    }
+
+    private void writeCodec(TypeElement type, List<Property> properties) throws IOException {
+        Elements elements = processingEnv.getElementUtils();
+        PackageElement pkg = elements.getPackageOf(type);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(type).toString();
+        String codecName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+                + GENERATED_SUFFIX;
+        String typeName = type.getQualifiedName().toString();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("// Generated by ").append(BinPackProcessor.class.getName()).append(", do not edit.\n");
+        if (!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n");
+        }
+        sb.append("\n");
+        sb.append("import in.srain.binpack.BinPack;\n");
+        sb.append("import in.srain.binpack.BinPackCodec;\n");
+        sb.append("import in.srain.binpack.BinPackCodecs;\n");
+        sb.append("import in.srain.binpack.BinPackEncoder;\n");
+        sb.append("import in.srain.binpack.BinPackException;\n");
+        sb.append("import in.srain.binpack.BinPackReader;\n");
+        sb.append("\n");
+        sb.append("public final class ").append(codecName).append(" implements BinPackCodec<").append(typeName)
+                .append("> {\n");
+
+        sb.append("\n    @Override\n");
+        sb.append("    public void encode(BinPackEncoder encoder, ").append(typeName).append(" value) {\n");
+        sb.append("        encoder.packDictBegin();\n");
+        for (Property property : properties) {
+            sb.append("        encoder.packString(\"").append(property.name).append("\");\n");
+            sb.append("        ").append(encodeStatement(property)).append(";\n");
+        }
+        sb.append("        encoder.packEnd();\n");
+        sb.append("    }\n");
+
+        sb.append("\n    @Override\n");
+        sb.append("    @SuppressWarnings(\"unchecked\")\n");
+        sb.append("    public ").append(typeName).append(" decode(BinPackReader reader) throws BinPackException {\n");
+        sb.append("        ").append(typeName).append(" value = new ").append(typeName).append("();\n");
+        sb.append("        reader.beginDict();\n");
+        sb.append("        while (reader.hasNext()) {\n");
+        sb.append("            if (reader.nextToken() != BinPack.BIN_TYPE_STRING) {\n");
+        sb.append("                reader.skipValue();\n");
+        sb.append("                reader.skipValue();\n");
+        sb.append("                continue;\n");
+        sb.append("            }\n");
+        sb.append("            switch (reader.readString()) {\n");
+        for (Property property : properties) {
+            sb.append("                case \"").append(property.name).append("\":\n");
+            appendDecode(sb, property, "                    ");
+            sb.append("                    break;\n");
+        }
+        sb.append("                default:\n");
+        sb.append("                    reader.skipValue();\n");
+        sb.append("                    break;\n");
+        sb.append("            }\n");
+        sb.append("        }\n");
+        sb.append("        reader.endDict();\n");
+        sb.append("        return value;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+
+        String qualifiedCodecName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedCodecName, type);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(sb.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String encodeStatement(Property property) {
+        String get = property.getter;
+        switch (property.type.getKind()) {
+            case BOOLEAN:
+                return "encoder.packBool(" + get + ")";
+            case BYTE:
+                return "encoder.packByte(" + get + ")";
+            case SHORT:
+                return "encoder.packShort(" + get + ")";
+            case INT:
+                return "encoder.packInt(" + get + ")";
+            case LONG:
+                return "encoder.packLong(" + get + ")";
+            case FLOAT:
+                return "encoder.packFloat(" + get + ")";
+            case DOUBLE:
+                return "encoder.packDouble(" + get + ")";
+            case CHAR:
+                return "encoder.packString(String.valueOf(" + get + "))";
+        }
+        // null, boxed values, arrays, lists, dicts and other @BinPackable objects
+        return "encoder.pack(" + get + ")";
+    }
+
+    private void appendDecode(StringBuilder sb, Property property, String indent) {
+        TypeMirror type = property.type;
+        switch (type.getKind()) {
+            case BOOLEAN:
+                sb.append(indent).append(assign(property, "reader.readBoolean()")).append(";\n");
+                return;
+            case BYTE:
+                sb.append(indent).append(assign(property, "reader.readByte()")).append(";\n");
+                return;
+            case SHORT:
+                sb.append(indent).append(assign(property, "reader.readShort()")).append(";\n");
+                return;
+            case INT:
+                sb.append(indent).append(assign(property, "reader.readInt()")).append(";\n");
+                return;
+            case LONG:
+                sb.append(indent).append(assign(property, "reader.readLong()")).append(";\n");
+                return;
+            case FLOAT:
+                sb.append(indent).append(assign(property, "reader.readFloat()")).append(";\n");
+                return;
+            case DOUBLE:
+                sb.append(indent).append(assign(property, "reader.readDouble()")).append(";\n");
+                return;
+            case CHAR:
+                sb.append(indent).append(assign(property, "reader.readChar()")).append(";\n");
+                return;
+        }
+
+        if (isBinPackable(type)) {
+            // null is handled by BinPackCodecs.decode
+            String className = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+            sb.append(indent).append(assign(property, "BinPackCodecs.decode(reader, " + className + ".class)"))
+                    .append(";\n");
+            return;
+        }
+
+        String read;
+        TypeMirror element = type.getKind() == TypeKind.DECLARED ? binPackableElement(type) : null;
+        if (type.getKind() == TypeKind.ARRAY) {
+            read = "reader." + arrayReader((ArrayType) type) + "()";
+        } else if (boxReader(type) != null) {
+            read = "reader." + boxReader(type) + "()";
+        } else if (element != null) {
+            read = null;
+        } else {
+            // a list, dict or any value, as BinPack.decode makes it
+            read = "(" + type + ") reader.readValue()";
+        }
+
+        sb.append(indent).append("if (reader.nextToken() == BinPack.BIN_TYPE_NULL) {\n");
+        sb.append(indent).append("    reader.readNull();\n");
+        sb.append(indent).append("    ").append(assign(property, "null")).append(";\n");
+        sb.append(indent).append("} else {\n");
+        if (read != null) {
+            sb.append(indent).append("    ").append(assign(property, read)).append(";\n");
+        } else {
+            String className = ((TypeElement) ((DeclaredType) element).asElement()).getQualifiedName().toString();
+            sb.append(indent).append("    java.util.ArrayList<").append(className).append("> list = new java.util.ArrayList<")
+                    .append(className).append(">();\n");
+            sb.append(indent).append("    reader.beginList();\n");
+            sb.append(indent).append("    while (reader.hasNext()) {\n");
+            sb.append(indent).append("        list.add(BinPackCodecs.decode(reader, ").append(className)
+                    .append(".class));\n");
+            sb.append(indent).append("    }\n");
+            sb.append(indent).append("    reader.endList();\n");
+            sb.append(indent).append("    ").append(assign(property, "list")).append(";\n");
+        }
+        sb.append(indent).append("}\n");
+    }
+
+    private static String assign(Property property, String expression) {
+        return String.format(property.setter, expression);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,120 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackBatch;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * BinPackBatch: batches encode and decode to the same results as one value at a time, in order, and a large list
+ * or dict encoded in parallel segments has the bytes of BinPack.encode().
+ */
+public class BatchTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BinPackBatch batch = new BinPackBatch(UTF_8, pool).setChunkSize(16);
+            batches(batch);
+            segments(batch.setParallelThreshold(1000));
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("BatchTest ok");
+    }
+
+    private static void batches(BinPackBatch batch) {
+        Random random = new Random(1);
+        List<Object> values = new ArrayList<Object>();
+        for (int i = 0; i < 5000; i++) {
+            // now and then a value which grows the encoder of a worker past what it keeps
+            values.add(i % 997 == 0 ? new byte[(2 << 20) + i] : value(random, i));
+        }
+        List<byte[]> encoded = batch.encodeAll(values);
+        check(encoded.size() == values.size(), "one message per value");
+        for (int i = 0; i < values.size(); i++) {
+            check(Arrays.equals(encoded.get(i), BinPack.encode(values.get(i), UTF_8)), "message " + i);
+        }
+        List<byte[]> streamed = batch.encodeAll(values.parallelStream()).collect(Collectors.<byte[]>toList());
+        for (int i = 0; i < values.size(); i++) {
+            check(Arrays.equals(streamed.get(i), encoded.get(i)), "streamed message " + i);
+        }
+
+        // the shared batch of BinPack, twice
+        for (int k = 0; k < 2; k++) {
+            List<byte[]> shared = BinPack.encodeAll(values, UTF_8);
+            List<Object> sharedDecoded = BinPack.decodeAll(shared, UTF_8);
+            for (int i = 0; i < values.size(); i += 7) {
+                check(Arrays.equals(shared.get(i), encoded.get(i)), "BinPack.encodeAll, message " + i);
+                check(BufferTest.same(sharedDecoded.get(i), BinPack.decode(encoded.get(i), UTF_8)),
+                        "BinPack.decodeAll, message " + i);
+            }
+        }
+
+        List<byte[]> messages = new ArrayList<byte[]>(encoded);
+        // malformed: a list which is never shut
+        messages.set(10, new byte[]{BinPack.BIN_TYPE_LIST});
+        List<Object> decoded = batch.decodeAll(messages);
+        for (int i = 0; i < messages.size(); i++) {
+            Object expected = i == 10 ? null : BinPack.decode(messages.get(i), UTF_8);
+            Object actual = decoded.get(i);
+            check(expected instanceof byte[] ? Arrays.equals((byte[]) expected, (byte[]) actual)
+                    : expected == null ? actual == null : expected.equals(actual), "value " + i);
+        }
+
+        // nested deeper than the limit: null, like any malformed message
+        Object deep = Arrays.asList(Arrays.asList(Arrays.asList(1)));
+        List<byte[]> deepMessages = Arrays.asList(BinPack.encode(deep, UTF_8), BinPack.encode(1, UTF_8));
+        List<Object> limited = batch.setMaxDepth(2).decodeAll(deepMessages);
+        check(limited.get(0) == null && Integer.valueOf(1).equals(limited.get(1)), "the depth limit");
+        check(batch.setMaxDepth(Integer.MAX_VALUE).decodeAll(deepMessages).get(0).equals(deep), "no depth limit");
+    }
+
+    private static void segments(BinPackBatch batch) throws Exception {
+        Random random = new Random(2);
+        List<Object> list = new ArrayList<Object>();
+        for (int i = 0; i < 50000; i++) {
+            list.add(value(random, i));
+        }
+        Map<String, Object> dict = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < 30000; i++) {
+            dict.put("key" + i, value(random, i));
+        }
+        List<Object> small = list.subList(0, 999);
+        for (Object value : new Object[]{list, dict, small}) {
+            byte[] expected = BinPack.encode(value, UTF_8);
+            check(Arrays.equals(batch.encode(value), expected), "a list or dict encoded in segments");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            batch.pack(out, value);
+            check(Arrays.equals(out.toByteArray(), expected), "a list or dict packed in segments");
+        }
+    }
+
+    private static Object value(Random random, int i) {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("id", i);
+        m.put("name", "name-" + random.nextInt(100000));
+        m.put("score", random.nextDouble());
+        List<Object> tags = new ArrayList<Object>();
+        for (int j = random.nextInt(4); j > 0; j--) {
+            tags.add("t" + random.nextInt(10));
+        }
+        m.put("tags", tags);
+        return m;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
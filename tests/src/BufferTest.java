@@ -0,0 +1,106 @@
+import in.srain.binpack.BinPack;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * ByteBuffer encode and decode: round trips through heap and direct buffers, overflow, positions, and truncated or
+ * garbage input decoding like the byte array entry point.
+ */
+public class BufferTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        roundTrip();
+        overflow();
+        truncated();
+        garbage();
+        System.out.println("BufferTest ok");
+    }
+
+    private static void roundTrip() {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("id", 1L << 40);
+        m.put("name", "h\u00e9llo");
+        m.put("blob", new byte[]{1, 2, 3});
+        m.put("list", Arrays.asList(1, 2.5, -3.5f, true, null));
+        byte[] bs = BinPack.encode(m, UTF_8);
+
+        byte[] next = BinPack.encode(1L, UTF_8);
+        int capacity = 3 + bs.length + next.length;
+        for (ByteBuffer bb : new ByteBuffer[]{ByteBuffer.allocate(capacity), ByteBuffer.allocateDirect(capacity)}) {
+            bb.position(3);
+            check(BinPack.encode(m, bb, UTF_8) == bs.length && bb.position() == 3 + bs.length,
+                    "the number of bytes written, and the position after them");
+            bb.put(next).flip().position(3);
+            check(same(BinPack.decode(bb, UTF_8), BinPack.decode(bs, UTF_8)), "decoded as from the array");
+            check(bb.position() == 3 + bs.length, "the position after the value");
+            check(BinPack.decode(bb, UTF_8).equals(1L), "the next value");
+        }
+    }
+
+    private static void overflow() {
+        byte[] bs = BinPack.encode(Arrays.asList("a long enough string", 1, 2), UTF_8);
+        ByteBuffer bb = ByteBuffer.allocateDirect(bs.length - 1);
+        bb.position(1);
+        check(BinPack.encode(Arrays.asList("a long enough string", 1, 2), bb, UTF_8) == -1 && bb.position() == 1,
+                "-1 and the position unchanged when the value does not fit");
+    }
+
+    private static void truncated() {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("key", "value");
+        m.put("nested", Arrays.asList(new byte[]{9}, 1.5, Long.MIN_VALUE));
+        byte[] bs = BinPack.encode(m, UTF_8);
+        for (int len = 0; len < bs.length; len++) {
+            byte[] prefix = Arrays.copyOf(bs, len);
+            for (ByteBuffer bb : buffers(prefix)) {
+                check(same(BinPack.decode(bb, UTF_8), BinPack.decode(prefix, UTF_8)) && !bb.hasRemaining(),
+                        "a value truncated at " + len + " consumes the input like the array decoder");
+            }
+        }
+    }
+
+    private static void garbage() {
+        // a string tag with a length overflowing into a negative long
+        byte[] overflow = {-119, -86, -30, -56, -77, -16, -43, -55, -73, -13, 44, 31, -63};
+        for (ByteBuffer bb : buffers(overflow)) {
+            check(BinPack.decode(bb, UTF_8) == null, "a negative length decodes to null");
+        }
+
+        Random random = new Random(11);
+        for (int round = 0; round < 20000; round++) {
+            byte[] bs = new byte[1 + random.nextInt(24)];
+            random.nextBytes(bs);
+            Object expected = BinPack.decode(bs, UTF_8);
+            for (ByteBuffer bb : buffers(bs)) {
+                check(same(BinPack.decode(bb, UTF_8), expected),
+                        "garbage decoded like the array decoder, round " + round);
+            }
+        }
+    }
+
+    private static ByteBuffer[] buffers(byte[] bs) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(bs.length);
+        direct.put(bs).flip();
+        return new ByteBuffer[]{ByteBuffer.wrap(bs), direct};
+    }
+
+    /**
+     * Equal decoded values; blobs have no equals(), so they are compared through their encoding.
+     */
+    static boolean same(Object a, Object b) {
+        return Arrays.equals(BinPack.encode(a, UTF_8), BinPack.encode(b, UTF_8));
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackEncoder;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Strings: the hand-written UTF-8, Latin-1 and ASCII encoders write what String.getBytes writes, and the Charset
+ * overloads encode and decode like the ones taking a charset name.
+ */
+public class CharsetTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] NAMES = {"UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16", "windows-1252"};
+
+    public static void main(String[] args) throws Exception {
+        sameAsGetBytes();
+        overloads();
+        System.out.println("CharsetTest ok");
+    }
+
+    private static void sameAsGetBytes() {
+        Random random = new Random(53);
+        // ranges of each charset, a surrogate pair, unpaired surrogates, and the edges of the UTF-8 lengths
+        String[] fixed = {"", "ascii", "caf\u00e9 \u00ff", "\u0100", "\u4e2d\u6587", "\ud83d\ude00", "\ud83d",
+                "\ude00x", "x\ud83d\ud83d\ude00", "\u007f\u0080\u07ff\u0800\uffff"};
+        for (int round = 0; round < 5000; round++) {
+            String s = round < fixed.length ? fixed[round] : randomString(random);
+            for (String name : NAMES) {
+                Charset charset = Charset.forName(name);
+                byte[] expected = s.getBytes(charset);
+                byte[] bs = BinPack.encode(s, charset);
+                String where = name + ", " + Arrays.toString(s.toCharArray()) + ", round " + round;
+                byte[] payload = Arrays.copyOfRange(bs, bs.length - expected.length, bs.length);
+                check(bs.length > expected.length && Arrays.equals(payload, expected),
+                        "the bytes of getBytes in " + where);
+                check(BinPack.decode(bs, charset).equals(new String(expected, charset)), "decoded in " + where);
+                check(BinPack.encodedSize(s, charset) == bs.length, "the size in " + where);
+            }
+        }
+    }
+
+    private static void overloads() throws Exception {
+        List<Object> value = PatchTest.list("caf\u00e9", PatchTest.map("\u4e2d", "\ud83d\ude00"), 1);
+        for (String name : NAMES) {
+            Charset charset = Charset.forName(name);
+            byte[] bs = BinPack.encode(value, charset);
+            check(Arrays.equals(BinPack.encode(value, name), bs), "encoded by name in " + name);
+            BinPackEncoder encoder = new BinPackEncoder(name);
+            encoder.pack(value);
+            check(Arrays.equals(encoder.toByteArray(), bs), "an encoder by name in " + name);
+            check(BufferTest.same(BinPack.decode(bs, name), BinPack.decode(bs, charset)), "decoded by name in " + name);
+        }
+        check(BinPack.encode(value, "no-such-charset").length == 0, "nothing for a charset this JVM does not have");
+        List<?> decoded = (List<?>) BinPack.decode(BinPack.encode(PatchTest.list("x", 1), UTF_8), "no-such-charset");
+        check(decoded.get(0) == null && decoded.get(1).equals(1), "strings decode to null in such a charset");
+    }
+
+    private static String randomString(Random random) {
+        char[] chars = new char[random.nextInt(40)];
+        for (int i = 0; i < chars.length; i++) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    chars[i] = (char) random.nextInt(0x80);
+                    break;
+                case 1:
+                    chars[i] = (char) random.nextInt(0x100);
+                    break;
+                case 2:
+                    chars[i] = (char) random.nextInt(0x800);
+                    break;
+                case 3:
+                    chars[i] = (char) (0xd800 + random.nextInt(0x800));
+                    break;
+                default:
+                    chars[i] = (char) random.nextInt(0x10000);
+                    break;
+            }
+        }
+        return new String(chars);
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
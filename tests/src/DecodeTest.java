@@ -0,0 +1,144 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackDecoder;
+import in.srain.binpack.BinPackEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The decoder: values decode to what was encoded, any depth decodes on a small stack, and data nested deeper than
+ * the maximum depth or truncated decodes to null and consumes the rest of the input.
+ */
+public class DecodeTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        roundTrip();
+        deep();
+        maxDepth();
+        truncated();
+        failedContainers();
+        System.out.println("DecodeTest ok");
+    }
+
+    private static void roundTrip() {
+        Random random = new Random(29);
+        BinPackDecoder decoder = new BinPackDecoder(UTF_8);
+        for (int round = 0; round < 5000; round++) {
+            Object value = PatchTest.randomValue(random, 0);
+            byte[] bs = BinPack.encode(value, UTF_8);
+            check(LazyTest.deepEquals(BinPack.decode(bs, UTF_8), value), "decoded as encoded, round " + round);
+            check(LazyTest.deepEquals(decoder.decode(bs), value), "by a decoder, round " + round);
+        }
+        List<Object> all = PatchTest.list(null, true, false, 0, -1, Long.MIN_VALUE, Long.MAX_VALUE, 2.5, -1.5f,
+                "", "h\u00e9llo", new byte[]{1, 2}, PatchTest.list(), PatchTest.map());
+        check(LazyTest.deepEquals(BinPack.decode(BinPack.encode(all, UTF_8), UTF_8), all), "every type");
+    }
+
+    /**
+     * Nesting far deeper than a recursive decoder could go on a 64 KB stack.
+     */
+    private static void deep() throws Exception {
+        final int depth = 100000;
+        final byte[] bs = nested(depth);
+        final Object[] result = new Object[1];
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                result[0] = BinPack.decode(bs, UTF_8);
+            }
+        }, "small stack", 64 * 1024);
+        thread.start();
+        thread.join();
+        Object value = result[0];
+        for (int i = 0; i < depth; i++) {
+            check(value instanceof List && ((List<?>) value).size() == 1, "a list at depth " + i);
+            value = ((List<?>) value).get(0);
+        }
+        check(Integer.valueOf(1).equals(value), "the value at the bottom");
+    }
+
+    private static void maxDepth() {
+        byte[] bs = nested(10);
+        check(new BinPackDecoder(UTF_8).setMaxDepth(10).decode(bs) != null, "as deep as allowed");
+        check(new BinPackDecoder(UTF_8).setMaxDepth(0).decode(BinPack.encode(1, UTF_8)).equals(1),
+                "no container at all");
+        byte[] next = BinPack.encode("next", UTF_8);
+        byte[] followed = Arrays.copyOf(bs, bs.length + next.length);
+        System.arraycopy(next, 0, followed, bs.length, next.length);
+        for (int max = 0; max < 10; max++) {
+            BinPackDecoder decoder = new BinPackDecoder(UTF_8).setMaxDepth(max);
+            check(decoder.decode(bs) == null, "deeper than " + max);
+            ByteBuffer bb = ByteBuffer.wrap(followed);
+            check(decoder.decode(bb) == null && !bb.hasRemaining(), "the rest consumed, deeper than " + max);
+        }
+        try {
+            new BinPackDecoder(UTF_8).setMaxDepth(-1);
+            check(false, "a negative depth is refused");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void truncated() {
+        byte[] bs = BinPack.encode(PatchTest.list(1, PatchTest.map("k", PatchTest.list("x", 2.5)), "y"), UTF_8);
+        for (int len = 0; len < bs.length; len++) {
+            byte[] prefix = Arrays.copyOf(bs, len);
+            check(BinPack.decode(prefix, UTF_8) == null, "a null for data truncated at " + len);
+            ByteBuffer bb = ByteBuffer.wrap(prefix);
+            check(new BinPackDecoder(UTF_8).decode(bb) == null && !bb.hasRemaining(),
+                    "the rest consumed, truncated at " + len);
+        }
+    }
+
+    /**
+     * A dict with a null key or a key without value is a null inside its parent, which decodes on from where the dict
+     * stopped, as the recursive decoder did.
+     */
+    private static void failedContainers() {
+        BinPackEncoder keyWithoutValue = new BinPackEncoder(UTF_8);
+        keyWithoutValue.packListBegin();
+        keyWithoutValue.pack(1);
+        keyWithoutValue.packDictBegin();
+        keyWithoutValue.pack("a");
+        keyWithoutValue.packEnd();
+        keyWithoutValue.pack(3);
+        keyWithoutValue.packEnd();
+        check(BinPack.decode(keyWithoutValue.toByteArray(), UTF_8).equals(PatchTest.list(1, null, 3)),
+                "a null for a key without value");
+
+        // the dict stops at its null key, so its value and shut tag are read by the list
+        BinPackEncoder nullKey = new BinPackEncoder(UTF_8);
+        nullKey.packListBegin();
+        nullKey.pack(1);
+        nullKey.packDictBegin();
+        nullKey.pack(null);
+        nullKey.pack(2);
+        nullKey.packEnd();
+        nullKey.pack(3);
+        nullKey.packEnd();
+        check(BinPack.decode(nullKey.toByteArray(), UTF_8).equals(PatchTest.list(1, null, 2)), "a null for a null key");
+        check(BinPack.decode(new byte[]{1}, UTF_8) == null, "a null for a stray shut tag");
+    }
+
+    private static byte[] nested(int depth) {
+        BinPackEncoder encoder = new BinPackEncoder(UTF_8);
+        for (int i = 0; i < depth; i++) {
+            encoder.packListBegin();
+        }
+        encoder.pack(1);
+        for (int i = 0; i < depth; i++) {
+            encoder.packEnd();
+        }
+        return encoder.toByteArray();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import in.srain.binpack.BinDiff;
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackException;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * BinDiff: a merged delta gives the target byte for byte, a small change makes a small delta, and a delta is refused
+ * on another base or when its result is not its target.
+ */
+public class DiffTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        repeatedKeys();
+        refused();
+        smallChange();
+        randomChanges();
+        System.out.println("DiffTest ok");
+    }
+
+    private static void repeatedKeys() throws BinPackException {
+        byte[] base = PatchTest.dict("a", 1, "a", 2);
+        byte[] target = PatchTest.dict("a", 1, "a", 3);
+        byte[] merged = BinDiff.merge(base, BinDiff.diff(base, target, UTF_8), UTF_8);
+        check(Arrays.equals(merged, target), "a repeated key changed");
+        check(((Map<?, ?>) BinPack.decode(merged, UTF_8)).get("a").equals(3), "decoded, the last of a repeated key");
+
+        // the same keys in another order
+        base = PatchTest.dict("a", 1, "b", 2);
+        target = PatchTest.dict("b", 2, "a", 1);
+        check(Arrays.equals(BinDiff.merge(base, BinDiff.diff(base, target, UTF_8), UTF_8), target), "keys reordered");
+    }
+
+    private static void refused() throws BinPackException {
+        byte[] base = BinPack.encode(PatchTest.map("a", 1), UTF_8);
+        byte[] delta = BinDiff.diff(base, BinPack.encode(PatchTest.map("a", 2), UTF_8), UTF_8);
+        try {
+            BinDiff.merge(BinPack.encode(PatchTest.map("a", 3), UTF_8), delta, UTF_8);
+            check(false, "a delta for another base is refused");
+        } catch (BinPackException expected) {
+        }
+        // [base crc, target crc, operations], with the target crc changed
+        List<?> decoded = (List<?>) BinPack.decode(delta, UTF_8);
+        List<Object> tampered = new ArrayList<Object>(decoded);
+        tampered.set(1, (Long) decoded.get(1) ^ 1);
+        try {
+            BinDiff.merge(base, BinPack.encode(tampered, UTF_8), UTF_8);
+            check(false, "a delta not giving its target is refused");
+        } catch (BinPackException expected) {
+        }
+    }
+
+    private static void smallChange() throws BinPackException {
+        Map<String, Object> previous = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < 1000; i++) {
+            previous.put("user" + i, PatchTest.map("name", "name-" + i, "visits", i, "tags", PatchTest.list("a", "b")));
+        }
+        Map<String, Object> current = new LinkedHashMap<String, Object>(previous);
+        current.put("user500", PatchTest.map("name", "name-500", "visits", 501, "tags", PatchTest.list("a", "b")));
+        current.remove("user7");
+        current.put("user1000", "new");
+        byte[] base = BinPack.encode(previous, UTF_8);
+        byte[] target = BinPack.encode(current, UTF_8);
+        byte[] delta = BinDiff.diff(base, target, UTF_8);
+        check(delta.length < 100, "a small delta for a small change, " + delta.length + " bytes");
+        check(Arrays.equals(BinDiff.merge(base, delta, UTF_8), target), "a small change merged");
+    }
+
+    private static void randomChanges() throws BinPackException {
+        Random random = new Random(3);
+        for (int round = 0; round < 3000; round++) {
+            byte[] base = BinPack.encode(PatchTest.randomValue(random, 0), UTF_8);
+            byte[] target = BinPack.encode(change(random, BinPack.decode(base, UTF_8)), UTF_8);
+            byte[] merged = BinDiff.merge(base, BinDiff.diff(base, target, UTF_8), UTF_8);
+            check(Arrays.equals(merged, target), "the target merged, round " + round);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object change(Random random, Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>((Map<String, Object>) value);
+            List<String> keys = new ArrayList<String>(map.keySet());
+            if (!keys.isEmpty() && random.nextInt(4) == 0) {
+                map.remove(keys.get(random.nextInt(keys.size())));
+            }
+            if (random.nextInt(4) == 0) {
+                map.put("n" + random.nextInt(4), random.nextInt(9));
+            }
+            if (random.nextInt(8) == 0) {
+                keys = new ArrayList<String>(map.keySet());
+                Collections.reverse(keys);
+                Map<String, Object> reversed = new LinkedHashMap<String, Object>();
+                for (String key : keys) {
+                    reversed.put(key, map.get(key));
+                }
+                map = reversed;
+            }
+            for (String key : new ArrayList<String>(map.keySet())) {
+                if (random.nextInt(3) == 0) {
+                    map.put(key, change(random, map.get(key)));
+                }
+            }
+            return map;
+        }
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<Object>((List<Object>) value);
+            if (!list.isEmpty() && random.nextInt(4) == 0) {
+                list.remove(list.size() - 1);
+            }
+            if (random.nextInt(4) == 0) {
+                list.add(random.nextInt(9));
+            }
+            for (int i = 0; i < list.size(); i++) {
+                if (random.nextInt(3) == 0) {
+                    list.set(i, change(random, list.get(i)));
+                }
+            }
+            return list;
+        }
+        return random.nextInt(3) == 0 ? (Object) random.nextInt(50) : value;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
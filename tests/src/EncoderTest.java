@@ -0,0 +1,139 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * BinPackEncoder: the bytes do not depend on how the buffer grows, what is handed out is a copy, and encodedSize
+ * counts exactly the bytes written.
+ */
+public class EncoderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        growth();
+        copies();
+        exactSize();
+        System.out.println("EncoderTest ok");
+    }
+
+    /**
+     * Values growing the buffer many times over encode the same from any initial capacity, and decode back.
+     */
+    private static void growth() throws Exception {
+        Random random = new Random(31);
+        for (int round = 0; round < 2000; round++) {
+            Object value = randomValue(random, 0);
+            byte[] expected = BinPack.encode(value, UTF_8);
+            check(LazyTest.deepEquals(BinPack.decode(expected, UTF_8), value), "decoded back, round " + round);
+            for (int capacity : new int[]{0, 1, 7, expected.length, expected.length + 100}) {
+                BinPackEncoder encoder = new BinPackEncoder(UTF_8, capacity);
+                encoder.pack(value);
+                check(encoder.size() == expected.length && Arrays.equals(encoder.toByteArray(), expected),
+                        "the same bytes from a capacity of " + capacity + ", round " + round);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinPack.pack(out, value, UTF_8);
+            check(Arrays.equals(out.toByteArray(), expected), "written to a stream, round " + round);
+        }
+        try {
+            new BinPackEncoder(UTF_8, -1);
+            check(false, "a negative capacity is refused");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void copies() throws Exception {
+        BinPackEncoder encoder = new BinPackEncoder(UTF_8, 64);
+        encoder.pack("first");
+        byte[] first = encoder.toByteArray();
+        check(first != encoder.getBuffer() && encoder.getBuffer().length == 64, "a copy, the buffer kept");
+        encoder.reset();
+        check(encoder.size() == 0, "nothing after a reset");
+        encoder.pack("again");
+        check(BinPack.decode(first, UTF_8).equals("first"), "the copy unchanged by writes after a reset");
+        check(BinPack.decode(encoder.toByteArray(), UTF_8).equals("again"), "the buffer reused");
+
+        // an exact fit is still a copy
+        byte[] bs = BinPack.encode("abc", UTF_8);
+        BinPackEncoder exact = new BinPackEncoder(UTF_8, bs.length);
+        exact.pack("abc");
+        check(exact.getBuffer().length == bs.length && exact.toByteArray() != exact.getBuffer(),
+                "a full buffer copied");
+    }
+
+    /**
+     * The size of any data in any charset, strings with surrogate pairs and unpaired surrogates included.
+     */
+    private static void exactSize() {
+        Random random = new Random(37);
+        Charset[] charsets = {UTF_8, Charset.forName("ISO-8859-1"), Charset.forName("US-ASCII"),
+                Charset.forName("UTF-16")};
+        String[] strings = {"", "plain", "h\u00e9llo", "\u4e2d\u6587", "\ud83d\ude00 pair", "\ud83d alone",
+                "end \ude00"};
+        for (int round = 0; round < 2000; round++) {
+            Object value = round < strings.length ? strings[round] : randomValue(random, 0);
+            for (Charset charset : charsets) {
+                byte[] expected = BinPack.encode(value, charset);
+                byte[] exact = BinPack.encodeExact(value, charset);
+                check(BinPack.encodedSize(value, charset) == expected.length && Arrays.equals(exact, expected),
+                        "the exact size in " + charset + ", round " + round);
+            }
+        }
+        int[] ints = {1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        check(BinPack.encodedSize(ints, UTF_8) == BinPack.encode(ints, UTF_8).length, "a primitive array");
+    }
+
+    /**
+     * Random data with strings and blobs long enough to grow the buffer several times in one write.
+     */
+    static Object randomValue(Random random, int depth) {
+        int kind = depth > 3 ? random.nextInt(5) : random.nextInt(7);
+        switch (kind) {
+            case 0:
+                return random.nextLong() >> random.nextInt(64);
+            case 1:
+                return random.nextDouble();
+            case 2: {
+                char[] chars = new char[random.nextInt(random.nextBoolean() ? 10 : 3000)];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) (random.nextBoolean() ? 'a' + random.nextInt(26) : random.nextInt(0xd800));
+                }
+                return new String(chars);
+            }
+            case 3: {
+                byte[] bs = new byte[random.nextInt(random.nextBoolean() ? 10 : 5000)];
+                random.nextBytes(bs);
+                return bs;
+            }
+            case 4:
+                return random.nextBoolean() ? null : random.nextBoolean();
+            case 5: {
+                List<Object> list = PatchTest.list();
+                for (int i = random.nextInt(6); i > 0; i--) {
+                    list.add(randomValue(random, depth + 1));
+                }
+                return list;
+            }
+            default: {
+                Map<String, Object> map = PatchTest.map();
+                for (int i = random.nextInt(6); i > 0; i--) {
+                    map.put("key" + random.nextInt(100), randomValue(random, depth + 1));
+                }
+                return map;
+            }
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
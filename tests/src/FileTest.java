@@ -0,0 +1,150 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackDecoder;
+import in.srain.binpack.BinPackException;
+import in.srain.binpack.BinPackFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * BinPackFile: a file of concatenated values read through next, decode, list and dict like BinPack.decode reads each
+ * value, with the default chunk size and with chunks small enough for values to span them.
+ */
+public class FileTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        concatenated();
+        repeatedKeys();
+        truncated();
+        badChunkSize();
+        System.out.println("FileTest ok");
+    }
+
+    private static void concatenated() throws Exception {
+        Random random = new Random(23);
+        List<byte[]> values = new ArrayList<byte[]>();
+        for (int i = 0; i < 300; i++) {
+            values.add(BinPack.encode(PatchTest.randomValue(random, 0), UTF_8));
+        }
+        values.add(BinPack.encode(PatchTest.map("blob", new byte[5000], "s", "x"), UTF_8));
+        File file = write(values);
+        for (int chunkSize : new int[]{BinPackFile.DEFAULT_CHUNK_SIZE, 4096, 64, 16, 1}) {
+            BinPackFile binPackFile = open(file, chunkSize);
+            long offset = 0;
+            for (int i = 0; i < values.size(); i++) {
+                byte[] bs = values.get(i);
+                Object expected = BinPack.decode(bs, UTF_8);
+                String where = "value " + i + ", chunks of " + chunkSize;
+                check(binPackFile.next(offset) == offset + bs.length, "the next offset of " + where);
+                check(BufferTest.same(binPackFile.decode(offset), expected), "decoded " + where);
+                if (expected instanceof List) {
+                    List<?> list = (List<?>) expected;
+                    BinPackFile.ListIndex index = binPackFile.list(offset);
+                    check(index.size() == list.size(), "the size of the list " + where);
+                    for (int j = 0; j < list.size(); j++) {
+                        check(BufferTest.same(index.get(j), list.get(j)), "element " + j + " of " + where);
+                    }
+                } else if (expected instanceof Map) {
+                    Map<?, ?> map = (Map<?, ?>) expected;
+                    BinPackFile.DictIndex index = binPackFile.dict(offset);
+                    check(index.size() == map.size(), "the size of the dict " + where);
+                    for (int j = 0; j < index.size(); j++) {
+                        Object key = index.key(j);
+                        check(BufferTest.same(binPackFile.decode(index.valueOffset(j)), map.get(key))
+                                && BufferTest.same(index.get((String) key), map.get(key)), key + " of " + where);
+                    }
+                    check(!index.containsKey("missing") && index.get("missing") == null, "no such key in " + where);
+                }
+                offset += bs.length;
+            }
+            check(offset == binPackFile.size(), "every value read, chunks of " + chunkSize);
+            binPackFile.close();
+        }
+    }
+
+    /**
+     * A key which repeats has the value it decodes to, the last one.
+     */
+    private static void repeatedKeys() throws Exception {
+        byte[] bs = PatchTest.dict("a", 1, "b", 2, "a", 3, "c", 4, "a", 5);
+        File file = write(Arrays.asList(BinPack.encode("first", UTF_8), bs));
+        BinPackFile binPackFile = BinPackFile.open(file, UTF_8);
+        long offset = binPackFile.next(0);
+        BinPackFile.DictIndex index = binPackFile.dict(offset);
+        Map<?, ?> decoded = (Map<?, ?>) BinPack.decode(bs, UTF_8);
+        check(index.get("a").equals(5) && index.get("a").equals(decoded.get("a")), "the last of a repeated key");
+        check(index.offset("a") == index.valueOffset(4) && index.get("c").equals(4), "its offset");
+        binPackFile.close();
+    }
+
+    private static void truncated() throws Exception {
+        byte[] bs = BinPack.encode(PatchTest.map("k", PatchTest.list("x", 2, PatchTest.map("z", "last"))), UTF_8);
+        for (int len = 1; len < bs.length; len++) {
+            BinPackFile binPackFile = open(write(Arrays.asList(Arrays.copyOf(bs, len))), 16);
+            try {
+                binPackFile.decode(0);
+                check(false, "a value truncated at " + len + " is not decoded");
+            } catch (BinPackException expected) {
+            }
+            try {
+                binPackFile.next(0);
+                check(false, "a value truncated at " + len + " has no next");
+            } catch (BinPackException expected) {
+            }
+            binPackFile.close();
+        }
+    }
+
+    private static void badChunkSize() throws Exception {
+        File file = write(Arrays.asList(BinPack.encode(1, UTF_8)));
+        for (int chunkSize : new int[]{0, -1, 3, 1000}) {
+            try {
+                open(file, chunkSize).close();
+                check(false, "a chunk size of " + chunkSize + " is refused");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private static File write(List<byte[]> values) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] bs : values) {
+            out.write(bs);
+        }
+        File file = File.createTempFile("binpack", ".bp");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(out.toByteArray());
+        } finally {
+            fos.close();
+        }
+        return file;
+    }
+
+    private static BinPackFile open(File file, int chunkSize) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new BinPackFile(raf.getChannel(), new BinPackDecoder(UTF_8), chunkSize);
+        } catch (IllegalArgumentException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackDecoder;
+import in.srain.binpack.nio.BufferPool;
+import in.srain.binpack.nio.FrameDecoder;
+import in.srain.binpack.nio.FrameEncoder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * FrameEncoder and FrameDecoder: frames cut at every byte, headers split across reads, frames over the limit, and a
+ * loopback connection whose receiver stops reading.
+ */
+public class FramingTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        partialReads();
+        splitHeader();
+        oversizedFrames();
+        loopbackBackpressure();
+        System.out.println("FramingTest ok");
+    }
+
+    private static void partialReads() throws Exception {
+        List<Object> values = values(500, new Random(1));
+        byte[] frames = frames(values, new BufferPool(1024, 4, false));
+        Random random = new Random(2);
+        for (int round = 0; round < 20; round++) {
+            // a small buffer, so that it is compacted and grown along the way
+            FrameDecoder decoder = new FrameDecoder(new BinPackDecoder(UTF_8), 16, 1 << 20);
+            List<Object> received = new ArrayList<Object>();
+            int pos = 0;
+            while (pos < frames.length) {
+                int n = Math.min(frames.length - pos, 1 + random.nextInt(round == 0 ? 1 : 64));
+                decoder.feed(ByteBuffer.wrap(frames, pos, n));
+                pos += n;
+                while (decoder.hasNext()) {
+                    received.add(decoder.next());
+                }
+            }
+            check(received.equals(values), "values read in pieces of up to " + (round == 0 ? 1 : 64) + " bytes");
+        }
+    }
+
+    private static void splitHeader() throws Exception {
+        byte[] frame = frames(Arrays.<Object>asList("hello"), new BufferPool());
+        FrameDecoder decoder = new FrameDecoder(UTF_8);
+        for (int i = 0; i < frame.length - 1; i++) {
+            decoder.feed(ByteBuffer.wrap(frame, i, 1));
+            check(!decoder.hasNext(), "no frame after " + (i + 1) + " of " + frame.length + " bytes");
+        }
+        decoder.feed(ByteBuffer.wrap(frame, frame.length - 1, 1));
+        check(decoder.hasNext() && "hello".equals(decoder.next()) && !decoder.hasNext(), "the frame once complete");
+    }
+
+    private static void oversizedFrames() throws Exception {
+        FrameDecoder decoder = new FrameDecoder(new BinPackDecoder(UTF_8), 64, 100);
+        decoder.feed((ByteBuffer) ByteBuffer.allocate(4).putInt(101).flip());
+        try {
+            decoder.hasNext();
+            check(false, "a frame over the limit fails");
+        } catch (IOException expected) {
+        }
+        decoder = new FrameDecoder(new BinPackDecoder(UTF_8), 64, 100);
+        decoder.feed((ByteBuffer) ByteBuffer.allocate(4).putInt(-1).flip());
+        try {
+            decoder.hasNext();
+            check(false, "a negative frame size fails");
+        } catch (IOException expected) {
+        }
+
+        BufferPool pool = new BufferPool(256, 4, false);
+        try {
+            new FrameEncoder(UTF_8, pool, 100).add(new byte[200]);
+            check(false, "a value over the limit is refused");
+        } catch (IllegalArgumentException expected) {
+        }
+        // larger than a pooled buffer, within the limit: a buffer of its own
+        byte[] blob = new byte[10000];
+        new Random(3).nextBytes(blob);
+        byte[] frame = frames(Arrays.<Object>asList(blob), pool);
+        decoder = new FrameDecoder(new BinPackDecoder(UTF_8), 64, 1 << 20);
+        decoder.feed(ByteBuffer.wrap(frame));
+        check(Arrays.equals(blob, (byte[]) decoder.next()), "a frame larger than the pooled buffers");
+    }
+
+    private static void loopbackBackpressure() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        // inherited by the accepted socket, so that the receiver takes little before it reads
+        server.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel sender = SocketChannel.open(server.getLocalAddress());
+        SocketChannel receiver = server.accept();
+        try {
+            sender.setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+            sender.configureBlocking(false);
+            receiver.configureBlocking(false);
+
+            List<Object> values = values(20000, new Random(4));
+            FrameEncoder encoder = new FrameEncoder(UTF_8, new BufferPool(8192, 8, true));
+            for (Object value : values) {
+                encoder.add(value);
+            }
+            check(!encoder.flush(sender) && encoder.hasPending(), "a flush stops when the receiver does not read");
+
+            FrameDecoder decoder = new FrameDecoder(UTF_8);
+            List<Object> received = new ArrayList<Object>();
+            long deadline = System.currentTimeMillis() + 30000;
+            while (received.size() < values.size()) {
+                check(System.currentTimeMillis() < deadline, "all frames received in time");
+                if (encoder.hasPending()) {
+                    encoder.flush(sender);
+                }
+                check(decoder.read(receiver) >= 0, "the connection stays open");
+                while (decoder.hasNext()) {
+                    received.add(decoder.next());
+                }
+            }
+            check(!encoder.hasPending() && received.equals(values), "every frame received once, in order");
+        } finally {
+            sender.close();
+            receiver.close();
+            server.close();
+        }
+    }
+
+    /**
+     * Values as decoding makes them, so that they can be compared with equals().
+     */
+    private static List<Object> values(int count, Random random) {
+        List<Object> values = new ArrayList<Object>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> m = new HashMap<String, Object>();
+            m.put("seq", i);
+            m.put("name", "item-" + random.nextInt(1000));
+            List<Object> tags = new ArrayList<Object>();
+            for (int j = random.nextInt(i % 50 == 0 ? 400 : 5); j > 0; j--) {
+                tags.add(random.nextBoolean() ? (Object) random.nextLong() : "tag" + j);
+            }
+            m.put("tags", tags);
+            values.add(BinPack.decode(BinPack.encode(m, UTF_8), UTF_8));
+        }
+        return values;
+    }
+
+    private static byte[] frames(List<Object> values, BufferPool pool) {
+        FrameEncoder encoder = new FrameEncoder(UTF_8, pool);
+        for (Object value : values) {
+            encoder.add(value);
+        }
+        int size = 0;
+        ByteBuffer[] buffers = encoder.buffers();
+        for (ByteBuffer bb : buffers) {
+            size += bb.remaining();
+        }
+        ByteBuffer all = ByteBuffer.allocate(size);
+        for (ByteBuffer bb : buffers) {
+            all.put(bb);
+        }
+        encoder.release();
+        return all.array();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackReader;
+import in.srain.binpack.BinPackStreamDecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Integers: every width keeps its value and boxed type through the array, buffer, stream and lazy decoders, and
+ * reads as a long through the reader, up to the longest tags.
+ */
+public class IntegerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        List<Object> values = new ArrayList<Object>();
+        long[] edges = {0, 1, -1, 63, 64, 127, 128, 255, 256, 16383, 16384, Byte.MIN_VALUE, Byte.MAX_VALUE,
+                Short.MIN_VALUE, Short.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE,
+                Long.MAX_VALUE, Long.MIN_VALUE + 1, 1L << 56, 1L << 62};
+        for (long edge : edges) {
+            values.add((byte) edge);
+            values.add((short) edge);
+            values.add((int) edge);
+            values.add(edge);
+        }
+        Random random = new Random(47);
+        for (int i = 0; i < 5000; i++) {
+            long v = random.nextLong() >> random.nextInt(64);
+            values.add(i % 4 == 0 ? (Object) (byte) v : i % 4 == 1 ? (Object) (short) v : i % 4 == 2
+                    ? (Object) (int) v : (Object) v);
+        }
+
+        for (Object value : values) {
+            byte[] bs = BinPack.encode(value, UTF_8);
+            check(BinPack.decode(bs, UTF_8).equals(value), "decoded " + value + " as " + value.getClass());
+            ByteBuffer direct = ByteBuffer.allocateDirect(bs.length);
+            direct.put(bs).flip();
+            check(BinPack.decode(direct, UTF_8).equals(value) && !direct.hasRemaining(), "from a buffer " + value);
+            check(new BinPackReader(bs, UTF_8).readLong() == ((Number) value).longValue(), "read " + value);
+            BinPackStreamDecoder stream = new BinPackStreamDecoder(UTF_8);
+            for (int i = 0; i < bs.length; i++) {
+                stream.feed(bs, i, 1);
+            }
+            check(stream.hasNext() && stream.next().equals(value), "from a stream " + value);
+        }
+        byte[] bs = BinPack.encode(values, UTF_8);
+        check(BinPack.decode(bs, UTF_8).equals(values) && BinPack.decodeLazy(bs, UTF_8).equals(values),
+                "all of them in a list, and in a lazy list");
+        System.out.println("IntegerTest ok");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackDecoder;
+import in.srain.binpack.BinPackKeyCache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * BinPackKeyCache: decoding through the cache gives what decoding without it gives, from any capacity, charset or
+ * number of threads, and a key seen before is the same String.
+ */
+public class KeyCacheTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    public static void main(String[] args) throws Exception {
+        sameAsUncached();
+        hits();
+        charsets();
+        threads();
+        arguments();
+        System.out.println("KeyCacheTest ok");
+    }
+
+    private static void sameAsUncached() {
+        Random random = new Random(59);
+        BinPackKeyCache[] caches = {new BinPackKeyCache(), new BinPackKeyCache(1, 64), new BinPackKeyCache(16, 2)};
+        for (int round = 0; round < 3000; round++) {
+            byte[] bs = BinPack.encode(EncoderTest.randomValue(random, 0), UTF_8);
+            Object expected = BinPack.decode(bs, UTF_8);
+            for (BinPackKeyCache cache : caches) {
+                BinPackDecoder decoder = new BinPackDecoder(UTF_8).setKeyCache(cache);
+                ByteBuffer direct = ByteBuffer.allocateDirect(bs.length);
+                direct.put(bs).flip();
+                check(LazyTest.deepEquals(decoder.decode(bs), expected)
+                        && LazyTest.deepEquals(decoder.decode(direct), expected), "as without a cache of "
+                        + cache.getCapacity() + ", round " + round);
+            }
+        }
+    }
+
+    private static void hits() {
+        BinPackKeyCache cache = new BinPackKeyCache(64, 8);
+        BinPackDecoder decoder = new BinPackDecoder(UTF_8).setKeyCache(cache);
+        byte[] bs = BinPack.encode(PatchTest.map("id", 1, "name", "x", "a key longer than eight", 2), UTF_8);
+        Map<?, ?> first = (Map<?, ?>) decoder.decode(bs);
+        check(cache.getHitCount() == 0 && cache.getMissCount() == 3, "every key missed at first, " + cache);
+        Map<?, ?> second = (Map<?, ?>) decoder.decode(bs);
+        check(cache.getHitCount() == 2 && cache.getMissCount() == 4, "the short keys hit, the long one missed");
+        check(same(first, second, "id") && same(first, second, "name") && !same(first, second,
+                "a key longer than eight"), "the same String for a cached key");
+        cache.clear();
+        decoder.decode(bs);
+        check(cache.getHitCount() == 2 && cache.getMissCount() == 7, "missed after a clear");
+    }
+
+    /**
+     * The same bytes are different keys in different charsets.
+     */
+    private static void charsets() {
+        BinPackKeyCache cache = new BinPackKeyCache();
+        byte[] bs = BinPack.encode(PatchTest.map("caf\u00e9", 1), UTF_8);
+        Map<?, ?> utf8 = (Map<?, ?>) new BinPackDecoder(UTF_8).setKeyCache(cache).decode(bs);
+        Map<?, ?> latin1 = (Map<?, ?>) new BinPackDecoder(ISO_8859_1).setKeyCache(cache).decode(bs);
+        check(utf8.containsKey("caf\u00e9") && latin1.containsKey("caf\u00c3\u00a9"), "decoded in each charset");
+    }
+
+    private static void threads() throws Exception {
+        final BinPackKeyCache cache = new BinPackKeyCache(8, 64);
+        final List<byte[]> inputs = new ArrayList<byte[]>();
+        final List<Object> expected = new ArrayList<Object>();
+        Random random = new Random(61);
+        for (int i = 0; i < 200; i++) {
+            byte[] bs = BinPack.encode(EncoderTest.randomValue(random, 0), UTF_8);
+            inputs.add(bs);
+            expected.add(BinPack.decode(bs, UTF_8));
+        }
+        final boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    BinPackDecoder decoder = new BinPackDecoder(UTF_8).setKeyCache(cache);
+                    for (int round = 0; round < 20; round++) {
+                        for (int i = 0; i < inputs.size(); i++) {
+                            if (!LazyTest.deepEquals(decoder.decode(inputs.get(i)), expected.get(i))) {
+                                failed[0] = true;
+                            }
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        check(!failed[0], "decoded right on every thread through one small cache");
+    }
+
+    private static void arguments() {
+        check(new BinPackKeyCache(1000, 0).getCapacity() == 1024, "rounded up to a power of 2");
+        int[][] bad = {{0, 64}, {-1, 64}, {(1 << 30) + 1, 64}, {16, -1}};
+        for (int[] args : bad) {
+            try {
+                new BinPackKeyCache(args[0], args[1]);
+                check(false, "refused: " + args[0] + ", " + args[1]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private static boolean same(Map<?, ?> a, Map<?, ?> b, String key) {
+        for (Object x : a.keySet()) {
+            for (Object y : b.keySet()) {
+                if (x.equals(key) && y.equals(key)) {
+                    return x == y;
+                }
+            }
+        }
+        throw new AssertionError("no key " + key);
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
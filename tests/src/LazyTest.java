@@ -0,0 +1,124 @@
+import in.srain.binpack.BinData;
+import in.srain.binpack.BinDict;
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackException;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Lazy views: they read like the decoded data, repeated keys count once, truncated data is a null, and the BinData
+ * wrappers over them read, change and encode back.
+ */
+public class LazyTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        sameAsDecoded();
+        repeatedKeys();
+        truncated();
+        wrappers();
+        System.out.println("LazyTest ok");
+    }
+
+    private static void sameAsDecoded() {
+        Random random = new Random(19);
+        for (int round = 0; round < 3000; round++) {
+            byte[] bs = BinPack.encode(PatchTest.randomValue(random, 0), UTF_8);
+            Object lazy = BinPack.decodeLazy(bs, UTF_8);
+            Object decoded = BinPack.decode(bs, UTF_8);
+            check(deepEquals(lazy, decoded) && deepEquals(decoded, lazy), "as decoded, round " + round);
+            check(Arrays.equals(BinPack.encode(lazy, UTF_8), bs), "encoded back to the same bytes, round " + round);
+        }
+    }
+
+    private static void repeatedKeys() {
+        byte[] bs = PatchTest.dict("a", 1, "b", 2, "a", 3);
+        Map<?, ?> lazy = (Map<?, ?>) BinPack.decodeLazy(bs, UTF_8);
+        Map<?, ?> decoded = (Map<?, ?>) BinPack.decode(bs, UTF_8);
+        check(lazy.get("a").equals(3) && lazy.size() == 2 && lazy.entrySet().size() == 2, "a repeated key once");
+        check(lazy.equals(decoded) && decoded.equals(lazy) && lazy.hashCode() == decoded.hashCode(),
+                "equal to the decoded map");
+        Iterator<?> keys = lazy.keySet().iterator();
+        check(keys.next().equals("b") && keys.next().equals("a") && !keys.hasNext(), "at the last position");
+        check(new HashMap<Object, Object>(lazy).equals(decoded), "copied");
+        check(((Map<?, ?>) BinPack.decodeLazy(PatchTest.dict(), UTF_8)).isEmpty(), "empty");
+    }
+
+    private static void truncated() {
+        byte[] bs = BinPack.encode(PatchTest.map("k", PatchTest.list(1, "x", PatchTest.map("z", 2))), UTF_8);
+        for (int len = 0; len < bs.length; len++) {
+            check(BinPack.decodeLazy(Arrays.copyOf(bs, len), UTF_8) == null, "a null for data truncated at " + len);
+        }
+        check(BinPack.decodeLazy(PatchTest.dict(null, 1), UTF_8) == null, "a null for a null key");
+    }
+
+    private static void wrappers() throws BinPackException {
+        Map<String, Object> m = PatchTest.map("name", "x", "n", 5, "list", PatchTest.list(1, 2, 3),
+                "child", PatchTest.map("id", 7L));
+        byte[] bs = BinPack.encode(m, UTF_8);
+        BinData data = BinData.createLazy(bs, UTF_8);
+        check(data.optString("name").equals("x") && data.optInt("n") == 5, "read through BinData");
+        check(data.optBinData("list").optInt(2) == 3 && data.optBinData("child").optLong("id") == 7L,
+                "nested views");
+
+        BinDict dict = new BinDict(bs, UTF_8);
+        check(dict.optList("list").length() == 3 && dict.optDict("child").optLong("id") == 7L, "a BinDict");
+        BinDict lazy = (BinDict) data.getRawData();
+        lazy.put("n", 6);
+        Map<String, Object> changed = PatchTest.map("name", "x", "n", 6, "list", PatchTest.list(1, 2, 3),
+                "child", PatchTest.map("id", 7L));
+        check(lazy.optInt("n") == 6 && deepEquals(BinPack.decode(BinPack.encode(lazy, UTF_8), UTF_8),
+                BinPack.decode(BinPack.encode(changed, UTF_8), UTF_8)), "changed and encoded");
+        check(BinPack.decode(bs, UTF_8).equals(BinPack.decode(BinPack.encode(m, UTF_8), UTF_8)),
+                "the data left as it is");
+    }
+
+    /**
+     * Equal values, with blobs compared by content.
+     */
+    static boolean deepEquals(Object a, Object b) {
+        if (a instanceof Map && b instanceof Map) {
+            Map<?, ?> x = (Map<?, ?>) a;
+            Map<?, ?> y = (Map<?, ?>) b;
+            if (x.size() != y.size()) {
+                return false;
+            }
+            for (Map.Entry<?, ?> entry : x.entrySet()) {
+                if (!y.containsKey(entry.getKey()) || !deepEquals(entry.getValue(), y.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof List && b instanceof List) {
+            List<?> x = (List<?>) a;
+            List<?> y = (List<?>) b;
+            if (x.size() != y.size()) {
+                return false;
+            }
+            for (int i = 0; i < x.size(); i++) {
+                if (!deepEquals(x.get(i), y.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
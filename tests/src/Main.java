@@ -1,11 +1,10 @@
 import in.srain.binpack.BinPack;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Main {
-    public static void main(String[] args) throws  IOException {
+    public static void main(String[] args) throws Exception {
 
         String strToBs = "All men are created equal.";
         Map<String, Object> m = new HashMap<String, Object>();
@@ -20,5 +19,27 @@ public class Main {
         System.out.println(m);
         System.out.println(obj);
         System.out.println(new String(bs, "UTF-8").equals(strToBs));
+
+        EncoderTest.main(args);
+        DecodeTest.main(args);
+        IntegerTest.main(args);
+        ReaderTest.main(args);
+        WriterTest.main(args);
+        CharsetTest.main(args);
+        KeyCacheTest.main(args);
+        BufferTest.main(args);
+        StreamDecoderTest.main(args);
+        LazyTest.main(args);
+        PathTest.main(args);
+        PrimitiveArrayTest.main(args);
+        FileTest.main(args);
+        FramingTest.main(args);
+        RecordLogTest.main(args);
+        BatchTest.main(args);
+        ViewsTest.main(args);
+        PatchTest.main(args);
+        DiffTest.main(args);
+        RuntimeCodecTest.main(args);
+        ProcessorTest.main(args);
     }
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackEncoder;
+import in.srain.binpack.BinPackException;
+import in.srain.binpack.BinPatch;
+import in.srain.binpack.BinPath;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * BinPatch: each operation, repeated keys, errors, and a patch of many operations against the same operations
+ * applied one at a time and against the decoded data.
+ */
+public class PatchTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        operations();
+        repeatedKeys();
+        errors();
+        sequences();
+        System.out.println("PatchTest ok");
+    }
+
+    private static void operations() throws BinPackException {
+        Object value = map("status", 1, "events", list("a"), "draft", true, "user", map("name", "x"));
+        byte[] bs = BinPack.encode(value, UTF_8);
+        byte[] patched = new BinPatch(UTF_8)
+                .set("status", 3)
+                .append("events", "b")
+                .remove("draft")
+                .set("user.name", "y")
+                .set("user.age", 30)
+                .apply(bs);
+        Object expected = map("status", 3, "events", list("a", "b"), "user", map("name", "y", "age", 30));
+        check(Arrays.equals(patched, BinPack.encode(expected, UTF_8)), "set, append, remove and a new key");
+
+        // in the order added: an element appended and then set
+        byte[] listBs = BinPack.encode(list(1, 2), UTF_8);
+        BinPatch ordered = new BinPatch(UTF_8).append(BinPath.of(UTF_8), 3).set(BinPath.of(UTF_8, 2), 4);
+        check(BinPack.decode(ordered.apply(listBs), UTF_8).equals(list(1, 2, 4)), "operations in order");
+        check(BinPack.decode(new BinPatch(UTF_8).remove(BinPath.of(UTF_8, 0)).apply(listBs), UTF_8).equals(list(2)),
+                "a list element removed");
+        check(BinPack.decode(new BinPatch(UTF_8).set(BinPath.of(UTF_8), "all").apply(listBs), UTF_8).equals("all"),
+                "the whole value set");
+
+        // nothing to remove: the same array
+        check(new BinPatch(UTF_8).remove("missing").remove("user.missing").apply(bs) == bs, "nothing changed");
+
+        // the bytes after the value are kept, whether the value is split or set as a whole
+        byte[] trailing = Arrays.copyOf(bs, bs.length + 2);
+        trailing[bs.length] = 0x41;
+        trailing[bs.length + 1] = 0x42;
+        byte[] below = new BinPatch(UTF_8).set("status", 3).apply(trailing);
+        byte[] statusSet = new BinPatch(UTF_8).set("status", 3).apply(bs);
+        check(Arrays.equals(below, concat(statusSet, new byte[]{0x41, 0x42})),
+                "the bytes after a value changed inside");
+        byte[] whole = new BinPatch(UTF_8).set("status", 3).set(BinPath.of(UTF_8), 5).apply(trailing);
+        check(Arrays.equals(whole, concat(BinPack.encode(5, UTF_8), new byte[]{0x41, 0x42})),
+                "the bytes after a value set");
+
+        // a value inside a larger array
+        byte[] framed = new byte[bs.length + 4];
+        System.arraycopy(bs, 0, framed, 2, bs.length);
+        check(Arrays.equals(new BinPatch(UTF_8).set("status", 3).apply(framed, 2, bs.length),
+                new BinPatch(UTF_8).set("status", 3).apply(bs)), "a value inside an array");
+    }
+
+    private static void repeatedKeys() throws BinPackException {
+        byte[] bs = dict("a", 1, "b", 0, "a", 2);
+        check(Arrays.equals(new BinPatch(UTF_8).set("a", 3).apply(bs), dict("a", 1, "b", 0, "a", 3)),
+                "a set replaces the last of a repeated key");
+        check(Arrays.equals(new BinPatch(UTF_8).remove("a").apply(bs), dict("b", 0)),
+                "a remove removes every occurrence");
+        byte[] nested = dict("x", map("k", 1), "x", map("k", 2));
+        check(Arrays.equals(new BinPatch(UTF_8).set("x.k", 9).apply(nested), dict("x", map("k", 1), "x", map("k", 9))),
+                "a path goes through the last of a repeated key");
+    }
+
+    private static void errors() {
+        byte[] bs = BinPack.encode(map("n", 1, "l", list(1)), UTF_8);
+        BinPatch[] failing = {
+                new BinPatch(UTF_8).append("n", 2),
+                new BinPatch(UTF_8).set("missing.k", 2),
+                new BinPatch(UTF_8).set("n.k", 2),
+                new BinPatch(UTF_8).set(BinPath.of(UTF_8, "l", 1), 2),
+        };
+        for (BinPatch patch : failing) {
+            try {
+                patch.apply(bs);
+                check(false, "a path to no dict or list fails");
+            } catch (BinPackException expected) {
+            }
+        }
+        try {
+            new BinPatch(UTF_8).set("k", 1).apply(new byte[]{BinPack.BIN_TYPE_DICT});
+            check(false, "malformed data fails");
+        } catch (BinPackException expected) {
+        }
+        try {
+            new BinPatch(UTF_8).remove(BinPath.of(UTF_8));
+            check(false, "the root can not be removed");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Random operations on random data: one patch gives the same bytes as a patch per operation, and decodes like
+     * the operations applied to the decoded data.
+     */
+    private static void sequences() throws BinPackException {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            byte[] bs = BinPack.encode(randomValue(random, 0), UTF_8);
+            Object model = BinPack.decode(bs, UTF_8);
+            BinPatch patch = new BinPatch(UTF_8);
+            byte[] oneByOne = bs;
+            for (int k = 1 + random.nextInt(6); k > 0; k--) {
+                List<Object> segments = randomPath(random, model);
+                BinPath path = BinPath.of(UTF_8, segments.toArray());
+                int kind = random.nextInt(3);
+                Object value = random.nextInt(4) == 0 ? map("n", random.nextInt(5)) : (Object) random.nextInt(100);
+                if (kind == 1 && segments.isEmpty()) {
+                    continue;
+                }
+                try {
+                    oneByOne = add(new BinPatch(UTF_8), kind, path, value).apply(oneByOne);
+                } catch (BinPackException ex) {
+                    // not applicable to this data
+                    continue;
+                }
+                add(patch, kind, path, value);
+                model = apply(model, kind, segments, BinPack.decode(BinPack.encode(value, UTF_8), UTF_8));
+            }
+            byte[] patched = patch.apply(bs);
+            check(Arrays.equals(patched, oneByOne), "one patch as a patch per operation, round " + round);
+            check(BinPack.decode(patched, UTF_8).equals(model), "a patch as the decoded data, round " + round);
+        }
+    }
+
+    private static BinPatch add(BinPatch patch, int kind, BinPath path, Object value) {
+        return kind == 0 ? patch.set(path, value) : kind == 1 ? patch.remove(path) : patch.append(path, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object apply(Object model, int kind, List<Object> segments, Object value) {
+        if (kind == 0 && segments.isEmpty()) {
+            return value;
+        }
+        Object parent = model;
+        int depth = kind == 2 ? segments.size() : segments.size() - 1;
+        for (int i = 0; i < depth && parent != null; i++) {
+            Object segment = segments.get(i);
+            if (segment instanceof String) {
+                parent = parent instanceof Map ? ((Map<String, Object>) parent).get(segment) : null;
+            } else {
+                int index = (Integer) segment;
+                parent = parent instanceof List && index < ((List<Object>) parent).size()
+                        ? ((List<Object>) parent).get(index) : null;
+            }
+        }
+        if (kind == 2) {
+            ((List<Object>) parent).add(value);
+            return model;
+        }
+        Object last = segments.get(segments.size() - 1);
+        if (last instanceof String && parent instanceof Map) {
+            if (kind == 0) {
+                ((Map<String, Object>) parent).put((String) last, value);
+            } else {
+                ((Map<String, Object>) parent).remove(last);
+            }
+        } else if (last instanceof Integer && parent instanceof List
+                && (Integer) last < ((List<Object>) parent).size()) {
+            if (kind == 0) {
+                ((List<Object>) parent).set((Integer) last, value);
+            } else {
+                ((List<Object>) parent).remove((int) (Integer) last);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * A path to a value of {@code model}, or to a key or index next to them.
+     */
+    private static List<Object> randomPath(Random random, Object model) {
+        List<Object> path = new ArrayList<Object>();
+        Object value = model;
+        while (random.nextInt(3) != 0) {
+            if (value instanceof Map && !((Map<?, ?>) value).isEmpty() && random.nextInt(5) != 0) {
+                List<Object> keys = new ArrayList<Object>(((Map<?, ?>) value).keySet());
+                Object key = keys.get(random.nextInt(keys.size()));
+                path.add(key);
+                value = ((Map<?, ?>) value).get(key);
+            } else if (value instanceof List && !((List<?>) value).isEmpty() && random.nextInt(5) != 0) {
+                int index = random.nextInt(((List<?>) value).size() + 1);
+                path.add(index);
+                value = index < ((List<?>) value).size() ? ((List<?>) value).get(index) : null;
+            } else {
+                path.add(random.nextBoolean() ? "new" + random.nextInt(3) : (Object) random.nextInt(3));
+                break;
+            }
+        }
+        return path;
+    }
+
+    static Object randomValue(Random random, int depth) {
+        int kind = depth > 3 ? 0 : random.nextInt(4);
+        if (kind == 0) {
+            return random.nextBoolean() ? (Object) random.nextInt(50) : "s" + random.nextInt(9);
+        }
+        if (kind == 1) {
+            List<Object> list = new ArrayList<Object>();
+            for (int i = random.nextInt(4); i > 0; i--) {
+                list.add(randomValue(random, depth + 1));
+            }
+            return list;
+        }
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = random.nextInt(4); i > 0; i--) {
+            map.put("k" + random.nextInt(5), randomValue(random, depth + 1));
+        }
+        return map;
+    }
+
+    static Map<String, Object> map(Object... keysAndValues) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    static List<Object> list(Object... values) {
+        return new ArrayList<Object>(Arrays.asList(values));
+    }
+
+    /**
+     * A dict which may repeat keys, which a Map can not.
+     */
+    static byte[] dict(Object... keysAndValues) {
+        BinPackEncoder encoder = new BinPackEncoder(UTF_8);
+        encoder.packDictBegin();
+        for (Object o : keysAndValues) {
+            encoder.pack(o);
+        }
+        encoder.packEnd();
+        return encoder.toByteArray();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] bs = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, bs, a.length, b.length);
+        return bs;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPath;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * BinPath: compiling, extraction against the decoded data, repeated keys, and truncated input.
+ */
+public class PathTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        compile();
+        extract();
+        repeatedKeys();
+        truncated();
+        System.out.println("PathTest ok");
+    }
+
+    private static void compile() {
+        check(BinPath.compile("user.devices[2].token", UTF_8).equals(BinPath.of(UTF_8, "user", "devices", 2, "token")),
+                "keys and indexes");
+        check(BinPath.compile("[0][1]", UTF_8).toString().equals("[0][1]"), "indexes only");
+        for (String bad : new String[]{"a..b", ".a", "a.", "a[", "a[x]", "a[-1]", "a[0]b"}) {
+            try {
+                BinPath.compile(bad, UTF_8);
+                check(false, bad + " is refused");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    /**
+     * Random paths into random data extract what the decoded data holds there.
+     */
+    private static void extract() {
+        Random random = new Random(17);
+        for (int round = 0; round < 5000; round++) {
+            byte[] bs = BinPack.encode(PatchTest.randomValue(random, 0), UTF_8);
+            Object decoded = BinPack.decode(bs, UTF_8);
+            List<Object> segments = new ArrayList<Object>();
+            Object expected = decoded;
+            while (random.nextInt(4) != 0) {
+                if (expected instanceof Map && !((Map<?, ?>) expected).isEmpty() && random.nextInt(4) != 0) {
+                    List<Object> keys = new ArrayList<Object>(((Map<?, ?>) expected).keySet());
+                    Object key = keys.get(random.nextInt(keys.size()));
+                    segments.add(key);
+                    expected = ((Map<?, ?>) expected).get(key);
+                } else if (expected instanceof List && random.nextInt(4) != 0) {
+                    int index = random.nextInt(((List<?>) expected).size() + 1);
+                    segments.add(index);
+                    expected = index < ((List<?>) expected).size() ? ((List<?>) expected).get(index) : null;
+                } else {
+                    segments.add(random.nextBoolean() ? "missing" : (Object) 7);
+                    expected = null;
+                    break;
+                }
+            }
+            BinPath path = BinPath.of(UTF_8, segments.toArray());
+            check(BufferTest.same(path.extract(bs), expected), "the value at " + path + ", round " + round);
+            check(BufferTest.same(path.lastOfRepeatedKeys().extract(bs), expected),
+                    "the value at " + path + " taking the last of a repeated key, round " + round);
+        }
+        byte[] framed = new byte[]{9, 9, 9};
+        byte[] bs = BinPack.encode(PatchTest.map("a", PatchTest.list(1, 2)), UTF_8);
+        byte[] inside = Arrays.copyOf(framed, framed.length + bs.length);
+        System.arraycopy(bs, 0, inside, framed.length, bs.length);
+        check(BinPath.compile("a[1]", UTF_8).extract(inside, framed.length, bs.length).equals(2), "inside an array");
+        check(BinPack.extract(bs, "a[0]", UTF_8).equals(1), "BinPack.extract");
+    }
+
+    private static void repeatedKeys() {
+        byte[] bs = PatchTest.dict("a", 1, "b", PatchTest.map("c", 2), "a", 3);
+        BinPath path = BinPath.compile("a", UTF_8);
+        check(path.extract(bs).equals(1), "the first of a repeated key");
+        check(path.lastOfRepeatedKeys().extract(bs).equals(3)
+                && path.lastOfRepeatedKeys().extract(bs).equals(((Map<?, ?>) BinPack.decode(bs, UTF_8)).get("a")),
+                "the last of a repeated key, as decoded");
+        check(!path.isLastOfRepeatedKeys() && path.lastOfRepeatedKeys().isLastOfRepeatedKeys()
+                && !path.equals(path.lastOfRepeatedKeys()), "a path taking the last is another path");
+        check(BinPath.compile("b.c", UTF_8).extract(bs).equals(2), "a key after a repeated one");
+    }
+
+    private static void truncated() {
+        byte[] bs = BinPack.encode(PatchTest.map("k", PatchTest.list("x", PatchTest.map("z", "last"))), UTF_8);
+        BinPath path = BinPath.compile("k[1].z", UTF_8);
+        check(path.extract(bs).equals("last"), "the whole value");
+        // the value is complete before the shut tags of the dict, list and dict around it
+        int valueEnd = bs.length - 3;
+        for (int len = 0; len < bs.length; len++) {
+            Object value = path.extract(Arrays.copyOf(bs, len));
+            check(len < valueEnd ? value == null : "last".equals(value), "data truncated at " + len);
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import in.srain.binpack.BinData;
+import in.srain.binpack.BinDict;
+import in.srain.binpack.BinList;
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackException;
+import in.srain.binpack.BinPackReader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Primitive arrays: encoded as the lists of their boxes, read back through BinDict, BinList and BinPackReader, and
+ * never handed out aliased.
+ */
+public class PrimitiveArrayTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        roundTrip();
+        conversions();
+        copies();
+        System.out.println("PrimitiveArrayTest ok");
+    }
+
+    private static void roundTrip() throws BinPackException {
+        Random random = new Random(14);
+        for (int round = 0; round < 500; round++) {
+            int n = random.nextInt(round % 10 == 0 ? 2000 : 20);
+            int[] ints = new int[n];
+            long[] longs = new long[n];
+            double[] doubles = new double[n];
+            float[] floats = new float[n];
+            List<Object> intList = new ArrayList<Object>();
+            List<Object> longList = new ArrayList<Object>();
+            List<Object> doubleList = new ArrayList<Object>();
+            List<Object> floatList = new ArrayList<Object>();
+            for (int i = 0; i < n; i++) {
+                ints[i] = random.nextInt() >> random.nextInt(32);
+                longs[i] = random.nextLong() >> random.nextInt(64);
+                doubles[i] = random.nextGaussian() * 1e6;
+                floats[i] = (float) random.nextGaussian();
+                intList.add(ints[i]);
+                longList.add(longs[i]);
+                doubleList.add(doubles[i]);
+                floatList.add(floats[i]);
+            }
+            Object[][] pairs = {{ints, intList}, {longs, longList}, {doubles, doubleList}, {floats, floatList}};
+            for (Object[] pair : pairs) {
+                byte[] expected = BinPack.encode(pair[1], UTF_8);
+                check(Arrays.equals(BinPack.encode(pair[0], UTF_8), expected)
+                        && Arrays.equals(BinPack.encodeExact(pair[0], UTF_8), expected)
+                        && BinPack.encodedSize(pair[0], UTF_8) == expected.length, "the bytes of the boxed list");
+                ByteBuffer bb = ByteBuffer.allocateDirect(expected.length);
+                check(BinPack.encode(pair[0], bb, UTF_8) == expected.length, "into a buffer");
+            }
+
+            Map<String, Object> m = new LinkedHashMap<String, Object>();
+            m.put("i", ints);
+            m.put("l", longs);
+            m.put("d", doubles);
+            m.put("f", floats);
+            byte[] bs = BinPack.encode(m, UTF_8);
+            BinDict lazy = (BinDict) BinData.createLazy(bs, UTF_8).getRawData();
+            for (BinDict dict : new BinDict[]{new BinDict(bs, UTF_8), lazy}) {
+                check(Arrays.equals(dict.getIntArray("i"), ints) && Arrays.equals(dict.getLongArray("l"), longs)
+                        && Arrays.equals(dict.getDoubleArray("d"), doubles)
+                        && Arrays.equals(dict.getFloatArray("f"), floats), "read back, round " + round);
+            }
+
+            BinPackReader reader = new BinPackReader(BinPack.encode(Arrays.asList(ints, longs, doubles, floats),
+                    UTF_8), UTF_8);
+            reader.beginList();
+            check(Arrays.equals(reader.readIntArray(), ints) && Arrays.equals(reader.readLongArray(), longs)
+                    && Arrays.equals(reader.readDoubleArray(), doubles)
+                    && Arrays.equals(reader.readFloatArray(), floats), "read by a reader, round " + round);
+            reader.endList();
+        }
+    }
+
+    private static void conversions() throws BinPackException {
+        byte[] bs = BinPack.encode(Arrays.asList(Arrays.asList(1, 2.5, -3L), Arrays.asList(1, "x")), UTF_8);
+        BinList lazy = (BinList) BinData.createLazy(bs, UTF_8).getRawData();
+        for (BinList list : new BinList[]{new BinList(bs, UTF_8), lazy}) {
+            check(Arrays.equals(list.getIntArray(0), new int[]{1, 2, -3})
+                    && Arrays.equals(list.getDoubleArray(0), new double[]{1, 2.5, -3}), "numbers converted");
+            check(list.optIntArray(1) == null && list.optIntArray(5) == null, "no array of a string or nothing");
+            try {
+                list.getIntArray(1);
+                check(false, "a string is not a number");
+            } catch (BinPackException expected) {
+            }
+        }
+    }
+
+    /**
+     * An array read from a dict is the caller's to change, whether it was decoded or put in as it is.
+     */
+    private static void copies() throws BinPackException {
+        int[] ints = {1, 2};
+        long[] longs = {3};
+        double[] doubles = {4.5};
+        float[] floats = {5.5f};
+        BinDict dict = new BinDict(new LinkedHashMap<String, Object>())
+                .put("i", ints).put("l", longs).put("d", doubles).put("f", floats);
+        dict.getIntArray("i")[0] = 9;
+        dict.getLongArray("l")[0] = 9;
+        dict.getDoubleArray("d")[0] = 9;
+        dict.getFloatArray("f")[0] = 9;
+        check(ints[0] == 1 && longs[0] == 3 && doubles[0] == 4.5 && floats[0] == 5.5f, "the arrays put in unchanged");
+        check(dict.getIntArray("i") != dict.getIntArray("i"), "a new array each time");
+
+        BinList list = new BinList(Arrays.asList((Object) ints));
+        list.getIntArray(0)[1] = 9;
+        check(ints[1] == 2, "the array in a list unchanged");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
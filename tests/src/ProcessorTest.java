@@ -0,0 +1,161 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackCodecs;
+import in.srain.binpack.BinPackException;
+import in.srain.binpack.BinPackable;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The codecs generated by binpack-processor: they are generated and used, round trip every kind of field, write the
+ * dict a Map of the same fields would, and fail on data of the wrong shape.
+ */
+public class ProcessorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @BinPackable
+    static class Order {
+        long id;
+        String customer;
+        double total;
+        boolean paid;
+        char status;
+        Integer priority;
+        int[] quantities;
+        byte[] signature;
+        Address shipTo;
+        List<Line> lines;
+        List<String> notes;
+        Map<String, List<Integer>> groups;
+        Object extra;
+        private int version;
+
+        public int getVersion() {
+            return version;
+        }
+
+        public void setVersion(int version) {
+            this.version = version;
+        }
+    }
+
+    @BinPackable
+    static class Line {
+        String sku;
+        int count;
+    }
+
+    @BinPackable
+    static class Address {
+        String city;
+        int zip;
+    }
+
+    public static void main(String[] args) throws Exception {
+        generated();
+        roundTrip();
+        sameAsMap();
+        wrongShape();
+        System.out.println("ProcessorTest ok");
+    }
+
+    private static void generated() {
+        for (Class<?> type : new Class<?>[]{Order.class, Line.class, Address.class}) {
+            String codec = BinPackCodecs.lookup(type).getClass().getName();
+            check(codec.equals(type.getName() + BinPackCodecs.GENERATED_SUFFIX), "the generated codec of " + type);
+        }
+    }
+
+    private static void roundTrip() throws BinPackException {
+        Order order = new Order();
+        order.id = 1L << 40;
+        order.customer = "Ada";
+        order.total = 99.5;
+        order.paid = true;
+        order.status = 'S';
+        order.quantities = new int[]{1, 2};
+        order.signature = new byte[]{7, 7};
+        order.shipTo = address("Paris", 75001);
+        order.lines = Arrays.asList(line("a-1", 2), line("b-2", 1));
+        order.notes = Arrays.asList("fragile");
+        order.groups = new LinkedHashMap<String, List<Integer>>();
+        order.groups.put("g", Arrays.asList(3, 4));
+        order.extra = Arrays.asList(1, "x");
+        order.setVersion(3);
+
+        Order copy = BinPack.decode(BinPack.encode(order, UTF_8), Order.class, UTF_8);
+        check(copy.id == order.id && "Ada".equals(copy.customer) && copy.total == 99.5 && copy.paid
+                && copy.status == 'S' && copy.priority == null, "primitives, strings and boxes");
+        check(Arrays.equals(copy.quantities, order.quantities) && Arrays.equals(copy.signature, order.signature),
+                "arrays");
+        check(copy.shipTo.zip == 75001 && copy.lines.size() == 2 && "b-2".equals(copy.lines.get(1).sku),
+                "@BinPackable fields and lists of them");
+        check(copy.notes.equals(order.notes) && copy.groups.equals(order.groups) && copy.extra.equals(order.extra),
+                "lists and dicts");
+        check(copy.getVersion() == 3, "a private field through its getter and setter");
+
+        Order empty = BinPack.decode(BinPack.encode(new Order(), UTF_8), Order.class, UTF_8);
+        check(empty.customer == null && empty.lines == null && empty.shipTo == null, "null fields");
+    }
+
+    private static void sameAsMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("sku", "a-1");
+        map.put("count", 2);
+        check(Arrays.equals(BinPack.encode(line("a-1", 2), UTF_8), BinPack.encode(map, UTF_8)),
+                "the dict of the fields in order");
+    }
+
+    private static void wrongShape() throws BinPackException {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("unknown", Arrays.asList(1, 2));
+        map.put("count", 5);
+        Line line = BinPack.decode(BinPack.encode(map, UTF_8), Line.class, UTF_8);
+        check(line.count == 5 && line.sku == null, "unknown keys skipped, missing keys left as they are");
+
+        List<Map<String, Object>> wrong = new ArrayList<Map<String, Object>>();
+        wrong.add(singleton("count", "five"));
+        wrong.add(singleton("status", ""));
+        wrong.add(singleton("status", "ab"));
+        wrong.add(singleton("lines", "not a list"));
+        for (Map<String, Object> m : wrong) {
+            try {
+                Class<?> type = m.containsKey("count") ? Line.class : Order.class;
+                BinPack.decode(BinPack.encode(m, UTF_8), type, UTF_8);
+                check(false, "decoding " + m + " fails");
+            } catch (BinPackException expected) {
+            }
+        }
+    }
+
+    private static Map<String, Object> singleton(String key, Object value) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put(key, value);
+        return map;
+    }
+
+    private static Address address(String city, int zip) {
+        Address address = new Address();
+        address.city = city;
+        address.zip = zip;
+        return address;
+    }
+
+    private static Line line(String sku, int count) {
+        Line line = new Line();
+        line.sku = sku;
+        line.count = count;
+        return line;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
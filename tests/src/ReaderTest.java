@@ -0,0 +1,174 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackException;
+import in.srain.binpack.BinPackReader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * BinPackReader: token by token it reads what BinPack.decode decodes, skips and reads whole values, and fails
+ * misplaced reads and truncated or malformed input with a BinPackException.
+ */
+public class ReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        tokens();
+        skipAndRead();
+        buffer();
+        failures();
+        System.out.println("ReaderTest ok");
+    }
+
+    private static void tokens() throws BinPackException {
+        Random random = new Random(41);
+        for (int round = 0; round < 2000; round++) {
+            Object[] values = new Object[1 + random.nextInt(3)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = EncoderTest.randomValue(random, 0);
+            }
+            byte[] bs = BinPack.encode(Arrays.asList(values), UTF_8);
+            // the values one after the other, without the list around them
+            BinPackReader reader = new BinPackReader(bs, 1, bs.length - 2, UTF_8);
+            for (Object value : values) {
+                check(reader.hasNext(), "a next value, round " + round);
+                read(reader, BinPack.decode(BinPack.encode(value, UTF_8), UTF_8), "round " + round);
+            }
+            check(reader.nextToken() == BinPackReader.END_OF_INPUT && reader.position() == bs.length - 1,
+                    "the end of input, round " + round);
+        }
+    }
+
+    /**
+     * Read the next value token by token, checking it against {@code expected}.
+     */
+    private static void read(BinPackReader reader, Object expected, String where) throws BinPackException {
+        byte token = reader.nextToken();
+        if (expected instanceof List) {
+            check(token == BinPack.BIN_TYPE_LIST, "a list, " + where);
+            int depth = reader.depth();
+            reader.beginList();
+            check(reader.depth() == depth + 1, "one level deeper, " + where);
+            for (Object element : (List<?>) expected) {
+                read(reader, element, where);
+            }
+            check(reader.nextToken() == BinPack.BIN_TAG_SHUT && !reader.hasNext(), "the end of the list, " + where);
+            reader.endList();
+        } else if (expected instanceof Map) {
+            check(token == BinPack.BIN_TYPE_DICT, "a dict, " + where);
+            reader.beginDict();
+            int n = 0;
+            while (reader.hasNext()) {
+                String key = reader.readString();
+                read(reader, ((Map<?, ?>) expected).get(key), where + ", key " + key);
+                n++;
+            }
+            check(n == ((Map<?, ?>) expected).size(), "every key, " + where);
+            reader.endDict();
+        } else if (expected == null) {
+            check(token == BinPack.BIN_TYPE_NULL, "a null, " + where);
+            reader.readNull();
+        } else if (expected instanceof Boolean) {
+            check(token == BinPack.BIN_TYPE_BOOL && reader.readBoolean() == (Boolean) expected,
+                    "a boolean, " + where);
+        } else if (expected instanceof Double) {
+            check(token == BinPack.BIN_TYPE_REAL_DOUBLE && reader.readDouble() == (Double) expected,
+                    "a double, " + where);
+        } else if (expected instanceof Number) {
+            check(token == BinPack.BIN_TYPE_INTEGER && reader.readLong() == ((Number) expected).longValue(),
+                    "an integer, " + where);
+        } else if (expected instanceof String) {
+            check(token == BinPack.BIN_TYPE_STRING && reader.readString().equals(expected), "a string, " + where);
+        } else {
+            check(token == BinPack.BIN_TYPE_BLOB && Arrays.equals(reader.readBlob(), (byte[]) expected),
+                    "a blob, " + where);
+        }
+    }
+
+    private static void skipAndRead() throws BinPackException {
+        Map<String, Object> m = PatchTest.map("skipped", PatchTest.map("a", PatchTest.list(1, 2)), "id", 7,
+                "tags", PatchTest.list("x", "y"), "n", 2.5f);
+        byte[] bs = BinPack.encode(m, UTF_8);
+        BinPackReader reader = new BinPackReader(bs, UTF_8);
+        reader.beginDict();
+        while (reader.hasNext()) {
+            String key = reader.readString();
+            if (key.equals("id")) {
+                check(reader.readInt() == 7, "an int");
+            } else if (key.equals("tags")) {
+                check(reader.readValue().equals(PatchTest.list("x", "y")), "a whole value");
+            } else if (key.equals("n")) {
+                check(reader.readFloat() == 2.5f, "a float");
+            } else {
+                int before = reader.position();
+                reader.skipValue();
+                check(reader.position() > before, "skipped");
+            }
+        }
+        reader.endDict();
+        check(reader.depth() == 0 && !reader.hasNext(), "read to the end");
+    }
+
+    /**
+     * A reader over a buffer reads from its position to its limit, and leaves the buffer where it was.
+     */
+    private static void buffer() throws BinPackException {
+        byte[] bs = BinPack.encode(PatchTest.list("a", 1L << 40), UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bs.length + 4);
+        direct.position(2);
+        direct.put(bs).flip().position(2);
+        BinPackReader reader = new BinPackReader(direct, UTF_8);
+        reader.beginList();
+        check(reader.readString().equals("a") && reader.readLong() == 1L << 40, "read from a direct buffer");
+        reader.endList();
+        check(reader.nextToken() == BinPackReader.END_OF_INPUT && reader.position() == 2 + bs.length,
+                "the position in the buffer");
+        check(direct.position() == 2, "the buffer not moved");
+    }
+
+    private static void failures() {
+        byte[] bs = BinPack.encode(PatchTest.map("k", PatchTest.list("value", 2.5, new byte[3])), UTF_8);
+        for (int len = 1; len < bs.length; len++) {
+            try {
+                BinPackReader reader = new BinPackReader(Arrays.copyOf(bs, len), UTF_8);
+                reader.skipValue();
+                check(false, "a value truncated at " + len + " is not skipped");
+            } catch (BinPackException expected) {
+            }
+            try {
+                new BinPackReader(Arrays.copyOf(bs, len), UTF_8).readValue();
+                check(false, "a value truncated at " + len + " is not read");
+            } catch (BinPackException expected) {
+            }
+        }
+        byte[] overlong = new byte[12];
+        Arrays.fill(overlong, (byte) -1);
+        byte[][] misplaced = {BinPack.encode("s", UTF_8), BinPack.encode(1, UTF_8), overlong, new byte[]{1}};
+        for (byte[] input : misplaced) {
+            try {
+                BinPackReader reader = new BinPackReader(input, UTF_8);
+                reader.beginList();
+                check(false, "not a list: " + Arrays.toString(input));
+            } catch (BinPackException expected) {
+            }
+        }
+        try {
+            BinPackReader reader = new BinPackReader(BinPack.encode(PatchTest.list(), UTF_8), UTF_8);
+            reader.beginList();
+            reader.endDict();
+            check(false, "a list is not ended as a dict");
+        } catch (BinPackException expected) {
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import in.srain.binpack.log.LogRecord;
+import in.srain.binpack.log.RecordLog;
+import in.srain.binpack.log.RecordLogReader;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RecordLog and RecordLogReader: segment roll, seeks by record number and by timestamp, records appended while a
+ * reader is open, and recovery from a torn last record.
+ */
+public class RecordLogTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // two records share each timestamp
+    private static final int COUNT = 2000;
+
+    public static void main(String[] args) throws Exception {
+        File dir = File.createTempFile("binpack-log", "");
+        check(dir.delete() && dir.mkdir(), "a fresh directory");
+        try {
+            segmentRoll(dir);
+            seekByNumber(dir);
+            seekByTimestamp(dir);
+            tornWrite(dir);
+        } finally {
+            delete(dir);
+        }
+        System.out.println("RecordLogTest ok");
+    }
+
+    private static void segmentRoll(File dir) throws IOException {
+        RecordLog log = RecordLog.open(dir, UTF_8).setSegmentSize(4096);
+        for (int i = 0; i < COUNT; i++) {
+            check(log.append(record(i), timestamp(i)) == i, "records numbered from 0");
+        }
+        log.close();
+
+        File[] segments = segments(dir);
+        check(segments.length > 10, "the log rolled over to new segments");
+        for (File segment : segments) {
+            check(segment.length() <= 4096, "a segment within the segment size");
+        }
+        RecordLogReader reader = new RecordLogReader(dir, UTF_8);
+        for (int i = 0; i < COUNT; i++) {
+            check(reader.hasNext(), "record " + i + " read across segments");
+            checkRecord(reader.next(), i);
+        }
+        check(!reader.hasNext(), "no record past the end");
+
+        // a reader sees what is appended after it reached the end
+        log = RecordLog.open(dir, UTF_8).setSegmentSize(4096);
+        check(log.nextNumber() == COUNT, "the numbering goes on after reopening");
+        log.append(record(COUNT), timestamp(COUNT));
+        log.flush();
+        check(reader.hasNext(), "a record appended later");
+        checkRecord(reader.next(), COUNT);
+        log.close();
+        reader.close();
+    }
+
+    private static void seekByNumber(File dir) throws IOException {
+        RecordLogReader reader = new RecordLogReader(dir, UTF_8);
+        long[] targets = {0, 1, 77, COUNT / 2, COUNT - 1, COUNT};
+        for (long number : targets) {
+            reader.seek(number);
+            check(reader.position() == number, "the position after a seek to " + number);
+            checkRecord(reader.next(), (int) number);
+        }
+        // the first and the last record of each segment
+        for (File segment : segments(dir)) {
+            long base = Long.parseLong(segment.getName().substring(0, 20));
+            reader.seek(base);
+            checkRecord(reader.next(), (int) base);
+            if (base > 0) {
+                reader.seek(base - 1);
+                checkRecord(reader.next(), (int) base - 1);
+                checkRecord(reader.next(), (int) base);
+            }
+        }
+        reader.seek(COUNT + 1);
+        check(!reader.hasNext(), "the end of the log");
+        try {
+            reader.seek(COUNT + 2);
+            check(false, "a seek past the end fails");
+        } catch (IllegalArgumentException expected) {
+        }
+        reader.close();
+    }
+
+    private static void seekByTimestamp(File dir) throws IOException {
+        RecordLogReader reader = new RecordLogReader(dir, UTF_8);
+        for (int i = 0; i <= COUNT; i += 37) {
+            // both records of the timestamp, from the first one
+            int first = i - i % 2;
+            reader.seekToTimestamp(timestamp(i));
+            checkRecord(reader.next(), first);
+            // between two timestamps: the next one
+            reader.seekToTimestamp(timestamp(i) - 1);
+            checkRecord(reader.next(), first);
+        }
+        reader.seekToTimestamp(Long.MIN_VALUE);
+        checkRecord(reader.next(), 0);
+        reader.seekToTimestamp(timestamp(COUNT) + 1);
+        check(!reader.hasNext() && reader.position() == COUNT + 1, "a timestamp after all records seeks to the end");
+        reader.close();
+    }
+
+    private static void tornWrite(File dir) throws IOException {
+        File[] segments = segments(dir);
+        File last = segments[segments.length - 1];
+
+        // half of the last record written
+        RandomAccessFile file = new RandomAccessFile(last, "rw");
+        file.setLength(file.length() - 5);
+        file.close();
+        RecordLog log = RecordLog.open(dir, UTF_8).setSegmentSize(4096);
+        check(log.nextNumber() == COUNT, "a torn record is cut off");
+        log.append(record(COUNT), timestamp(COUNT));
+        log.close();
+        checkAll(dir, COUNT + 1);
+
+        // the last record fully written but corrupt
+        file = new RandomAccessFile(last, "rw");
+        file.seek(file.length() - 1);
+        int b = file.read();
+        file.seek(file.length() - 1);
+        file.write(b ^ 0xff);
+        file.close();
+        log = RecordLog.open(dir, UTF_8).setSegmentSize(4096);
+        check(log.nextNumber() == COUNT, "a record failing its CRC is cut off");
+        log.close();
+
+        // only part of a header, and an index entry for it
+        file = new RandomAccessFile(last, "rw");
+        file.seek(file.length());
+        file.write(new byte[]{0, 0, 0, 9, 1, 2});
+        file.close();
+        File index = new File(dir, last.getName().replace(".log", ".idx"));
+        file = new RandomAccessFile(index, "rw");
+        file.seek(file.length());
+        file.write(new byte[16]);
+        file.close();
+        log = RecordLog.open(dir, UTF_8).setSegmentSize(4096);
+        check(log.nextNumber() == COUNT, "a torn header is cut off");
+        log.append(record(COUNT), timestamp(COUNT));
+        log.close();
+        checkAll(dir, COUNT + 1);
+
+        RecordLogReader reader = new RecordLogReader(dir, UTF_8);
+        reader.seek(COUNT);
+        checkRecord(reader.next(), COUNT);
+        reader.seekToTimestamp(timestamp(COUNT));
+        checkRecord(reader.next(), COUNT);
+        reader.close();
+    }
+
+    private static void checkAll(File dir, int count) throws IOException {
+        RecordLogReader reader = new RecordLogReader(dir, UTF_8);
+        for (int i = 0; i < count; i++) {
+            checkRecord(reader.next(), i);
+        }
+        check(!reader.hasNext(), count + " records");
+        reader.close();
+    }
+
+    private static Map<String, Object> record(int i) {
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("seq", i);
+        m.put("payload", "event-" + i);
+        return m;
+    }
+
+    private static long timestamp(int i) {
+        return 1000000L + i / 2 * 10;
+    }
+
+    private static void checkRecord(LogRecord record, int i) {
+        check(record.getNumber() == i && record.getTimestamp() == timestamp(i)
+                && record(i).equals(record.getValue()), "record " + i + ", got " + record);
+    }
+
+    private static File[] segments(File dir) {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(".log");
+            }
+        });
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
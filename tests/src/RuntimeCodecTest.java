@@ -0,0 +1,194 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackCodecs;
+import in.srain.binpack.BinPackException;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The codecs built at runtime: only for registered classes, fields checked on registration, round trips, and a
+ * cycle of references.
+ */
+public class RuntimeCodecTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static class Base {
+        long id = 7;
+    }
+
+    static class Customer extends Base {
+        String name;
+        int visits;
+        double score;
+        boolean active;
+        char grade;
+        Integer referrer;
+        int[] history;
+        byte[] avatar;
+        Address address;
+        List<Address> addresses;
+        Map<String, List<Integer>> groups;
+        transient int cached = 5;
+        static int instances = 9;
+    }
+
+    static class Address {
+        String city;
+        int zip;
+    }
+
+    static class Node {
+        int value;
+        Node next;
+        List<Node> children;
+    }
+
+    static class NoConstructor {
+        int value;
+
+        NoConstructor(int value) {
+            this.value = value;
+        }
+    }
+
+    static class Unregistered {
+        int value;
+    }
+
+    enum Color {
+        RED
+    }
+
+    static class WithEnum {
+        Color color;
+    }
+
+    static class WithCharacter {
+        Character c;
+    }
+
+    static class WithDate {
+        Date date;
+    }
+
+    static class WithUnregistered {
+        Unregistered other;
+    }
+
+    static class WithUnregisteredList {
+        List<Unregistered> others;
+    }
+
+    public static void main(String[] args) throws Exception {
+        notRegistered();
+        rejected();
+        roundTrip();
+        cycle();
+        System.out.println("RuntimeCodecTest ok");
+    }
+
+    private static void notRegistered() {
+        Object decoded = BinPack.decode(BinPack.encode(new Unregistered(), UTF_8), UTF_8);
+        check(("unsupported-type-" + Unregistered.class.getName()).equals(decoded), "no codec unless registered");
+    }
+
+    private static void rejected() {
+        Class<?>[] rejected = {WithEnum.class, WithCharacter.class, WithDate.class, WithUnregistered.class,
+                WithUnregisteredList.class, Color.class, Thread.class, Runnable.class};
+        for (Class<?> type : rejected) {
+            try {
+                BinPackCodecs.registerRuntimeCodec(type);
+                check(false, type.getName() + " is refused");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        // all or nothing
+        try {
+            BinPackCodecs.registerRuntimeCodec(Unregistered.class, WithEnum.class);
+            check(false, "a group with a class refused");
+        } catch (IllegalArgumentException expected) {
+        }
+        check(BinPackCodecs.lookup(Unregistered.class) == null, "no class of a refused group registered");
+    }
+
+    private static void roundTrip() throws BinPackException {
+        BinPackCodecs.registerRuntimeCodec(Customer.class, Address.class, NoConstructor.class);
+        Customer customer = new Customer();
+        customer.id = 42;
+        customer.name = "Ada";
+        customer.visits = -3;
+        customer.score = 2.5;
+        customer.active = true;
+        customer.grade = 'A';
+        customer.history = new int[]{1, 2, 3};
+        customer.avatar = new byte[]{9, 8};
+        customer.address = address("Paris", 75001);
+        customer.addresses = Arrays.asList(address("Lyon", 69001), address("Nice", 6000));
+        customer.groups = new LinkedHashMap<String, List<Integer>>();
+        customer.groups.put("g", Arrays.asList(1, 2));
+        customer.cached = 6;
+        byte[] bs = BinPack.encode(customer, UTF_8);
+
+        Map<?, ?> dict = (Map<?, ?>) BinPack.decode(bs, UTF_8);
+        check(dict.get("id").equals(42L) && dict.get("name").equals("Ada"), "the fields of the class and superclass");
+        check(!dict.containsKey("cached") && !dict.containsKey("instances"), "no transient or static field");
+
+        Customer copy = BinPack.decode(bs, Customer.class, UTF_8);
+        check(copy.id == 42 && "Ada".equals(copy.name) && copy.visits == -3 && copy.score == 2.5 && copy.active
+                && copy.grade == 'A' && copy.referrer == null, "primitives, strings and boxes");
+        check(Arrays.equals(copy.history, customer.history) && Arrays.equals(copy.avatar, customer.avatar), "arrays");
+        check(copy.address.zip == 75001 && copy.addresses.size() == 2 && "Nice".equals(copy.addresses.get(1).city),
+                "registered classes inside");
+        check(customer.groups.equals(copy.groups) && copy.cached == 5, "a dict of lists, and a transient field");
+
+        try {
+            BinPack.decode(BinPack.encode(new NoConstructor(1), UTF_8), NoConstructor.class, UTF_8);
+            check(false, "no constructor without arguments");
+        } catch (BinPackException expected) {
+        }
+        Map<String, Object> wrong = new LinkedHashMap<String, Object>();
+        wrong.put("zip", "not a number");
+        try {
+            BinPack.decode(BinPack.encode(wrong, UTF_8), Address.class, UTF_8);
+            check(false, "a field of the wrong type");
+        } catch (BinPackException expected) {
+        }
+    }
+
+    private static void cycle() throws BinPackException {
+        BinPackCodecs.registerRuntimeCodec(Node.class);
+        Node first = new Node();
+        Node second = new Node();
+        first.next = second;
+        first.children = Arrays.asList(second);
+        second.value = 2;
+        Node copy = BinPack.decode(BinPack.encode(first, UTF_8), Node.class, UTF_8);
+        check(copy.next.value == 2 && copy.children.get(0).value == 2 && copy.next.next == null, "a tree of nodes");
+
+        second.next = first;
+        try {
+            BinPack.encode(first, UTF_8);
+            check(false, "a cycle fails");
+        } catch (IllegalArgumentException expected) {
+            check(expected.getCause() instanceof BinPackException, "a cycle fails with a BinPackException");
+        }
+    }
+
+    private static Address address(String city, int zip) {
+        Address address = new Address();
+        address.city = city;
+        address.zip = zip;
+        return address;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
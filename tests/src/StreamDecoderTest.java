@@ -0,0 +1,146 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackEncoder;
+import in.srain.binpack.BinPackException;
+import in.srain.binpack.BinPackStreamDecoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * BinPackStreamDecoder: values fed byte by byte or in random chunks decode like BinPack.decode, truncated input waits
+ * for more, and garbage either decodes like BinPack.decode or fails with a BinPackException.
+ */
+public class StreamDecoderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        chunked();
+        truncated();
+        failedDicts();
+        garbage();
+        System.out.println("StreamDecoderTest ok");
+    }
+
+    private static void chunked() throws Exception {
+        Random random = new Random(5);
+        for (int round = 0; round < 500; round++) {
+            Object[] values = new Object[1 + random.nextInt(4)];
+            BinPackEncoder encoder = new BinPackEncoder(UTF_8);
+            for (int i = 0; i < values.length; i++) {
+                Object value = PatchTest.randomValue(random, 0);
+                encoder.pack(value);
+                // compared as decoded, in the key order of a decoded dict
+                values[i] = BinPack.decode(BinPack.encode(value, UTF_8), UTF_8);
+            }
+            byte[] bs = encoder.toByteArray();
+
+            BinPackStreamDecoder byByte = new BinPackStreamDecoder(UTF_8);
+            BinPackStreamDecoder byChunk = new BinPackStreamDecoder(UTF_8);
+            int decoded = 0;
+            int chunked = 0;
+            for (int pos = 0; pos < bs.length; pos++) {
+                byByte.feed(bs, pos, 1);
+                while (byByte.hasNext()) {
+                    check(BufferTest.same(byByte.next(), values[decoded++]), "fed byte by byte, round " + round);
+                }
+            }
+            for (int pos = 0; pos < bs.length; ) {
+                int len = Math.min(bs.length - pos, 1 + random.nextInt(16));
+                byChunk.feed(bs, pos, len);
+                pos += len;
+                while (byChunk.hasNext()) {
+                    check(BufferTest.same(byChunk.next(), values[chunked++]), "fed in chunks, round " + round);
+                }
+            }
+            check(decoded == values.length && chunked == values.length && byByte.isIdle() && byChunk.isIdle(),
+                    "every value decoded, round " + round);
+            BinPackStreamDecoder fromStream = new BinPackStreamDecoder(UTF_8);
+            check(BufferTest.same(fromStream.read(new ByteArrayInputStream(bs)), BinPack.decode(bs, UTF_8)),
+                    "read from a stream, round " + round);
+        }
+    }
+
+    private static void truncated() throws Exception {
+        byte[] bs = BinPack.encode(PatchTest.map("key", PatchTest.list("value", new byte[300], 2.5)), UTF_8);
+        for (int len = 1; len < bs.length; len++) {
+            BinPackStreamDecoder decoder = new BinPackStreamDecoder(UTF_8);
+            decoder.feed(bs, 0, len);
+            check(!decoder.hasNext() && !decoder.isIdle(), "a value truncated at " + len + " is not complete");
+            decoder.feed(bs, len, bs.length - len);
+            check(decoder.hasNext() && BufferTest.same(decoder.next(), BinPack.decode(bs, UTF_8)),
+                    "and completes with the rest, at " + len);
+            try {
+                new BinPackStreamDecoder(UTF_8).read(new ByteArrayInputStream(bs, 0, len));
+                check(false, "a stream ending inside a value fails");
+            } catch (EOFException expected) {
+            }
+        }
+    }
+
+    /**
+     * A dict with a null key or a key without value is a null, as for BinPack.decode.
+     */
+    private static void failedDicts() throws Exception {
+        BinPackEncoder nested = new BinPackEncoder(UTF_8);
+        nested.packListBegin();
+        nested.pack(1);
+        nested.packDictBegin();
+        nested.pack(null);
+        nested.pack(2);
+        nested.packEnd();
+        nested.pack(3);
+        nested.packEnd();
+        byte[][] inputs = {PatchTest.dict(null, 1), PatchTest.dict("a", 1, "b"), nested.toByteArray()};
+        for (byte[] bs : inputs) {
+            BinPackStreamDecoder decoder = new BinPackStreamDecoder(UTF_8);
+            for (int pos = 0; pos < bs.length; pos++) {
+                decoder.feed(bs, pos, 1);
+            }
+            check(decoder.hasNext() && BufferTest.same(decoder.next(), BinPack.decode(bs, UTF_8)),
+                    "decoded as BinPack.decode decodes " + Arrays.toString(bs));
+        }
+    }
+
+    private static void garbage() {
+        // a blob length of about 2 GB after an overlong integer tag
+        byte[] overlong = {-101, -23, 113, -76, -120, -90, -110, -12, -110, -104, -47, -28, 19, 10};
+        BinPackStreamDecoder overlongDecoder = new BinPackStreamDecoder(UTF_8);
+        overlongDecoder.feed(overlong, 0, overlong.length);
+        try {
+            while (overlongDecoder.hasNext()) {
+                overlongDecoder.next();
+            }
+            check(false, "a tag with too many length bytes fails");
+        } catch (BinPackException expected) {
+        }
+
+        Random random = new Random(13);
+        for (int round = 0; round < 20000; round++) {
+            byte[] bs = new byte[1 + random.nextInt(24)];
+            random.nextBytes(bs);
+            BinPackStreamDecoder decoder = new BinPackStreamDecoder(UTF_8);
+            try {
+                for (int pos = 0; pos < bs.length; pos++) {
+                    decoder.feed(bs, pos, 1);
+                    if (decoder.hasNext()) {
+                        check(BufferTest.same(decoder.next(), BinPack.decode(bs, UTF_8)),
+                                "a first value decoded as BinPack.decode decodes it, round " + round);
+                        break;
+                    }
+                }
+            } catch (BinPackException ex) {
+                check(BinPack.decode(bs, UTF_8) == null, "malformed for BinPack.decode too, round " + round);
+            }
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
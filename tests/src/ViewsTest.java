@@ -0,0 +1,79 @@
+import in.srain.binpack.BinBlob;
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackDecoder;
+import in.srain.binpack.BinString;
+import in.srain.binpack.nio.FrameDecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Blob and string views: they read like the values they stand for, encode back to the same bytes, and outlive the
+ * buffers of FrameDecoder.
+ */
+public class ViewsTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        byte[] thumb = new byte[5000];
+        new Random(1).nextBytes(thumb);
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("thumb", thumb);
+        m.put("token", "h\u00e9llo w\u00f6rld");
+        m.put("list", Arrays.asList("a", new byte[]{1, 2}, 3));
+        // in the key order decoding gives
+        byte[] bs = BinPack.encode(BinPack.decode(BinPack.encode(m, UTF_8), UTF_8), UTF_8);
+
+        BinPackDecoder decoder = new BinPackDecoder(UTF_8).setBlobViews(true).setStringViews(true);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bs.length);
+        direct.put(bs).flip();
+        for (Object decoded : new Object[]{decoder.decode(bs), decoder.decode(direct)}) {
+            Map<?, ?> r = (Map<?, ?>) decoded;
+            check(r.keySet().iterator().next() instanceof String, "keys stay strings");
+            BinBlob blob = (BinBlob) r.get("thumb");
+            check(blob.length() == thumb.length && Arrays.equals(blob.copy(), thumb) && blob.byteAt(7) == thumb[7],
+                    "a blob view reads like the blob");
+            check(blob.asByteBuffer().isReadOnly() && blob.asByteBuffer().remaining() == thumb.length,
+                    "a blob view as a read-only buffer");
+            BinString s = (BinString) r.get("token");
+            check(s.toString().equals("h\u00e9llo w\u00f6rld") && s.length() == 11 && s.byteLength() == 13
+                    && s.charAt(1) == '\u00e9', "a string view reads like the string");
+            List<?> list = (List<?>) r.get("list");
+            check(list.get(0) instanceof BinString && list.get(1) instanceof BinBlob, "views inside a list");
+            check(Arrays.equals(BinPack.encode(decoded, UTF_8), bs), "views encode back to the same bytes");
+            check(BinPack.encodedSize(decoded, UTF_8) == bs.length, "the encoded size of views");
+            Charset latin1 = Charset.forName("ISO-8859-1");
+            check(Arrays.equals(BinPack.encode(decoded, latin1), BinPack.encode(BinPack.decode(bs, UTF_8), latin1)),
+                    "views encoded in another charset");
+        }
+        check(BinPack.decode(bs, UTF_8) instanceof Map
+                && ((Map<?, ?>) BinPack.decode(bs, UTF_8)).get("thumb") instanceof byte[], "no views by default");
+
+        // the frame buffer is reused once a frame is consumed, the views are not
+        FrameDecoder frames = new FrameDecoder(decoder, 64, 1 << 20);
+        frames.feed(frame(BinPack.encode("hello", UTF_8)));
+        Object first = frames.next();
+        frames.feed(frame(BinPack.encode("WORLD", UTF_8)));
+        Object second = frames.next();
+        check(first.toString().equals("hello") && second.toString().equals("WORLD"), "views outlive their frame");
+        System.out.println("ViewsTest ok");
+    }
+
+    private static ByteBuffer frame(byte[] payload) {
+        ByteBuffer bb = ByteBuffer.allocate(4 + payload.length);
+        bb.putInt(payload.length).put(payload).flip();
+        return bb;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
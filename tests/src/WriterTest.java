@@ -0,0 +1,141 @@
+import in.srain.binpack.BinPack;
+import in.srain.binpack.BinPackEncoder;
+import in.srain.binpack.BinPackWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * BinPackWriter: values written call by call are the bytes BinPack.encode gives for the tree, a long list goes out
+ * to the stream as it is written, and misplaced calls throw IllegalStateException.
+ */
+public class WriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        sameBytes();
+        streamed();
+        misplaced();
+        System.out.println("WriterTest ok");
+    }
+
+    private static void sameBytes() throws IOException {
+        Random random = new Random(43);
+        for (int round = 0; round < 2000; round++) {
+            Object value = EncoderTest.randomValue(random, 0);
+            byte[] expected = BinPack.encode(value, UTF_8);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinPackWriter writer = new BinPackWriter(out, UTF_8);
+            write(writer, value);
+            writer.close();
+            check(Arrays.equals(out.toByteArray(), expected), "written to a stream, round " + round);
+
+            BinPackEncoder encoder = new BinPackEncoder(UTF_8);
+            BinPackWriter toEncoder = new BinPackWriter(encoder);
+            toEncoder.writeValue(value);
+            check(toEncoder.depth() == 0 && Arrays.equals(encoder.toByteArray(), expected),
+                    "written as a whole into an encoder, round " + round);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinPackWriter writer = new BinPackWriter(out, UTF_8);
+        writer.beginList().writeByte((byte) 1).writeShort((short) 2).writeInt(3).writeFloat(4.5f)
+                .writeIntArray(new int[]{6, 7}).writeBlob(new byte[]{8, 9, 10}, 1, 1).end();
+        writer.close();
+        check(Arrays.equals(out.toByteArray(), BinPack.encode(PatchTest.list((byte) 1, (short) 2, 3, 4.5f,
+                new int[]{6, 7}, new byte[]{9}), UTF_8)), "each width");
+    }
+
+    /**
+     * A long list is not held in memory: all but the last few KB are in the stream before it is closed.
+     */
+    private static void streamed() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinPackWriter writer = new BinPackWriter(out, UTF_8);
+        writer.beginList();
+        for (int i = 0; i < 100000; i++) {
+            writer.writeString("element " + i);
+        }
+        writer.end();
+        int before = out.size();
+        writer.close();
+        check(out.size() - before < 16384, "at most the flush threshold buffered, " + (out.size() - before));
+        List<?> list = (List<?>) BinPack.decode(out.toByteArray(), UTF_8);
+        check(list.size() == 100000 && list.get(99999).equals("element 99999"), "the whole list");
+    }
+
+    private static void misplaced() throws IOException {
+        BinPackWriter writer = new BinPackWriter(new BinPackEncoder(UTF_8));
+        try {
+            writer.end();
+            check(false, "nothing to end");
+        } catch (IllegalStateException expected) {
+        }
+        writer.beginDict();
+        try {
+            writer.writeNull();
+            check(false, "a null key");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            writer.writeValue(null);
+            check(false, "a null key as a value");
+        } catch (IllegalStateException expected) {
+        }
+        writer.writeString("key");
+        try {
+            writer.end();
+            check(false, "a key without value");
+        } catch (IllegalStateException expected) {
+        }
+        writer.writeNull();
+        try {
+            writer.close();
+            check(false, "a dict left open");
+        } catch (IllegalStateException expected) {
+        }
+        writer.end();
+        writer.close();
+    }
+
+    private static void write(BinPackWriter writer, Object value) throws IOException {
+        if (value instanceof List) {
+            writer.beginList();
+            for (Object element : (List<?>) value) {
+                write(writer, element);
+            }
+            writer.end();
+        } else if (value instanceof Map) {
+            writer.beginDict();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.writeString((String) entry.getKey());
+                write(writer, entry.getValue());
+            }
+            writer.end();
+        } else if (value == null) {
+            writer.writeNull();
+        } else if (value instanceof Boolean) {
+            writer.writeBoolean((Boolean) value);
+        } else if (value instanceof Long) {
+            writer.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            writer.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            writer.writeString((String) value);
+        } else {
+            writer.writeBlob((byte[]) value);
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}